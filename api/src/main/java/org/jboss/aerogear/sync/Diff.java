@@ -22,6 +22,22 @@ public interface Diff {
 
     Operation operation();
 
+    /**
+     * Returns the text of this diff.
+     *
+     * A diff that was received in compact form, where {@code UNCHANGED} and {@code DELETE} diffs only carry their
+     * length, has no text. That text is the next {@link #length()} characters of the content that the diff is
+     * applied to.
+     *
+     * @return {@code String} the text of this diff, or {@code null} if only its length is known.
+     */
     String text();
 
+    /**
+     * Returns the number of characters that this diff spans.
+     *
+     * @return {@code int} the length of the text of this diff.
+     */
+    int length();
+
 }
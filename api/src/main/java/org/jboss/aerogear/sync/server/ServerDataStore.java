@@ -34,4 +34,13 @@ public interface ServerDataStore<T> extends DataStore<T> {
      */
     Document<T> getDocument(String documentId);
 
+    /**
+     * Removes the shadow document, backup shadow document and pending edits of a client of a document.
+     * The document itself is kept.
+     *
+     * @param documentId the document identifier.
+     * @param clientId the client identifier.
+     */
+    void removeSyncState(String documentId, String clientId);
+
 }
@@ -0,0 +1,110 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.benchmark;
+
+import org.jboss.aerogear.sync.Edit;
+import org.jboss.aerogear.sync.server.ServerInMemoryDataStore;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A {@link ServerInMemoryDataStore} that keeps the pending edits of a client in a queue that is copied and swapped
+ * in on every change, which is how the in-memory data stores kept them before they used an
+ * {@link org.jboss.aerogear.sync.EditLog}. It serves as the baseline of the {@link PendingEditsBenchmark}.
+ */
+public class CopyOnWriteEditsDataStore extends ServerInMemoryDataStore {
+
+    private static final Queue<Edit> EMPTY_QUEUE = new LinkedList<Edit>();
+    private final ConcurrentHashMap<String, Queue<Edit>> pendingEdits = new ConcurrentHashMap<String, Queue<Edit>>();
+
+    @Override
+    public void saveEdits(final Edit edit) {
+        final String id = id(edit.documentId(), edit.clientId());
+        final Queue<Edit> newEdits = new ConcurrentLinkedQueue<Edit>();
+        while (true) {
+            final Queue<Edit> currentEdits = pendingEdits.get(id);
+            if (currentEdits == null) {
+                newEdits.add(edit);
+                final Queue<Edit> previous = pendingEdits.putIfAbsent(id, newEdits);
+                if (previous != null) {
+                    newEdits.addAll(previous);
+                    if (pendingEdits.replace(id, previous, newEdits)) {
+                        break;
+                    }
+                } else {
+                    break;
+                }
+            } else {
+                newEdits.addAll(currentEdits);
+                newEdits.add(edit);
+                if (pendingEdits.replace(id, currentEdits, newEdits)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void removeEdit(final Edit edit) {
+        final String id = id(edit.documentId(), edit.clientId());
+        while (true) {
+            final Queue<Edit> currentEdits = pendingEdits.get(id);
+            if (currentEdits == null) {
+                break;
+            }
+            final Queue<Edit> newEdits = new ConcurrentLinkedQueue<Edit>();
+            newEdits.addAll(currentEdits);
+            for (Iterator<Edit> iter = newEdits.iterator(); iter.hasNext();) {
+                final Edit oldEdit = iter.next();
+                if (oldEdit.clientVersion() <= edit.clientVersion()) {
+                    iter.remove();
+                }
+            }
+            if (pendingEdits.replace(id, currentEdits, newEdits)) {
+                break;
+            }
+        }
+    }
+
+    @Override
+    public Queue<Edit> getEdits(final String documentId, final String clientId) {
+        final Queue<Edit> edits = pendingEdits.get(id(documentId, clientId));
+        if (edits == null) {
+            return EMPTY_QUEUE;
+        }
+        return edits;
+    }
+
+    @Override
+    public void removeEdits(final String documentId, final String clientId) {
+        pendingEdits.remove(id(documentId, clientId));
+    }
+
+    @Override
+    public void removeSyncState(final String documentId, final String clientId) {
+        super.removeSyncState(documentId, clientId);
+        removeEdits(documentId, clientId);
+    }
+
+    private static String id(final String documentId, final String clientId) {
+        return documentId + ':' + clientId;
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates the documents and edits that the benchmarks in this module run over.
+ *
+ * All content is derived from a fixed seed so that runs are comparable with each other.
+ */
+public final class Corpus {
+
+    /**
+     * The kind of change that is applied to a generated document.
+     */
+    public enum Scenario {
+
+        /**
+         * A handful of single character insertions and deletions, like a user typing.
+         */
+        TYPING,
+
+        /**
+         * A single large block inserted somewhere in the document, like a paste.
+         */
+        PASTE,
+
+        /**
+         * Paragraphs of the document moved around.
+         */
+        REORDER,
+
+        /**
+         * A JSON array of objects where a few field values are changed.
+         */
+        JSON
+    }
+
+    private static final long SEED = 0xAE20;
+    private static final String[] WORDS = {
+            "differential", "synchronization", "shadow", "document", "server", "client", "edit", "patch",
+            "version", "backup", "the", "a", "of", "and", "to", "in", "is", "that", "for", "it", "with",
+            "as", "on", "be", "at", "by", "this", "had", "not", "are", "but", "from", "or", "have", "an"
+    };
+
+    private Corpus() {
+    }
+
+    /**
+     * Generates a document of approximately {@code size} characters for the passed-in scenario.
+     *
+     * @param scenario the scenario the document will be used for.
+     * @param size the number of characters in the document.
+     * @return {@code String} the generated document.
+     */
+    public static String document(final Scenario scenario, final int size) {
+        final Random random = new Random(SEED);
+        return scenario == Scenario.JSON ? json(random, size) : text(random, size);
+    }
+
+    /**
+     * Applies the change described by the passed-in scenario to the document.
+     *
+     * @param scenario the kind of change to apply.
+     * @param document the document to change, normally created by {@link #document(Scenario, int)}.
+     * @return {@code String} the changed document.
+     */
+    public static String edit(final Scenario scenario, final String document) {
+        final Random random = new Random(SEED + 1);
+        switch (scenario) {
+            case TYPING:
+                return typing(random, document);
+            case PASTE:
+                return paste(random, document);
+            case REORDER:
+                return reorder(random, document);
+            case JSON:
+                return jsonEdit(random, document);
+            default:
+                throw new IllegalArgumentException("Unsupported scenario: " + scenario);
+        }
+    }
+
+    private static String text(final Random random, final int size) {
+        final StringBuilder sb = new StringBuilder(size + 32);
+        int wordsInParagraph = 0;
+        while (sb.length() < size) {
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+            if (++wordsInParagraph > 40 + random.nextInt(80)) {
+                sb.append(".\n\n");
+                wordsInParagraph = 0;
+            } else {
+                sb.append(' ');
+            }
+        }
+        sb.setLength(size);
+        return sb.toString();
+    }
+
+    private static String json(final Random random, final int size) {
+        final StringBuilder sb = new StringBuilder(size + 128);
+        sb.append('[');
+        int id = 0;
+        while (sb.length() < size - 2) {
+            if (id > 0) {
+                sb.append(",\n");
+            }
+            sb.append("{\"id\": ").append(id++)
+                    .append(", \"name\": \"").append(WORDS[random.nextInt(WORDS.length)])
+                    .append("\", \"version\": ").append(random.nextInt(1000))
+                    .append(", \"tags\": [\"").append(WORDS[random.nextInt(WORDS.length)])
+                    .append("\", \"").append(WORDS[random.nextInt(WORDS.length)])
+                    .append("\"]}");
+        }
+        sb.append(']');
+        return sb.toString();
+    }
+
+    private static String typing(final Random random, final String document) {
+        final StringBuilder sb = new StringBuilder(document);
+        int position = random.nextInt(Math.max(1, sb.length()));
+        for (int i = 0; i < 8; i++) {
+            if (i % 3 == 2 && position < sb.length()) {
+                sb.deleteCharAt(position);
+            } else {
+                sb.insert(position++, (char) ('a' + random.nextInt(26)));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String paste(final Random random, final String document) {
+        final String pasted = text(random, Math.max(16, document.length() / 10));
+        final int position = random.nextInt(Math.max(1, document.length()));
+        return new StringBuilder(document.length() + pasted.length())
+                .append(document, 0, position)
+                .append(pasted)
+                .append(document, position, document.length())
+                .toString();
+    }
+
+    private static String reorder(final Random random, final String document) {
+        final List<String> paragraphs = new ArrayList<String>();
+        int start = 0;
+        int end;
+        while ((end = document.indexOf("\n\n", start)) != -1) {
+            paragraphs.add(document.substring(start, end + 2));
+            start = end + 2;
+        }
+        paragraphs.add(document.substring(start));
+        final int moves = Math.max(1, paragraphs.size() / 20);
+        for (int i = 0; i < moves && paragraphs.size() > 1; i++) {
+            final int from = random.nextInt(paragraphs.size());
+            final int to = random.nextInt(paragraphs.size());
+            Collections.swap(paragraphs, from, to);
+        }
+        final StringBuilder sb = new StringBuilder(document.length());
+        for (String paragraph : paragraphs) {
+            sb.append(paragraph);
+        }
+        return sb.toString();
+    }
+
+    private static String jsonEdit(final Random random, final String document) {
+        final StringBuilder sb = new StringBuilder(document);
+        final String field = "\"version\": ";
+        for (int i = 0; i < 4; i++) {
+            final int from = sb.indexOf(field, random.nextInt(Math.max(1, sb.length())));
+            if (from == -1) {
+                continue;
+            }
+            final int valueStart = from + field.length();
+            final int valueEnd = sb.indexOf(",", valueStart);
+            sb.replace(valueStart, valueEnd, String.valueOf(1000 + random.nextInt(1000)));
+        }
+        return sb.toString();
+    }
+
+}
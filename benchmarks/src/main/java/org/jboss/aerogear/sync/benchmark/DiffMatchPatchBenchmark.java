@@ -0,0 +1,95 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.benchmark;
+
+import org.jboss.aerogear.sync.benchmark.Corpus.Scenario;
+import org.jboss.aerogear.sync.common.DiffMatchPatch;
+import org.jboss.aerogear.sync.common.DiffMatchPatch.Diff;
+import org.jboss.aerogear.sync.common.DiffMatchPatch.Patch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the text engine in {@link DiffMatchPatch} that every synchronization round-trip goes through.
+ *
+ * Run with the gc profiler to get allocation rates:
+ * <pre>
+ *     java -jar benchmarks/target/benchmarks.jar DiffMatchPatchBenchmark -prof gc
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DiffMatchPatchBenchmark {
+
+    @Param({"1024", "16384", "131072", "1048576", "10485760"})
+    public int size;
+
+    @Param({"TYPING", "PASTE", "REORDER", "JSON"})
+    public Scenario scenario;
+
+    private DiffMatchPatch diffMatchPatch;
+    private String original;
+    private String edited;
+    private LinkedList<Diff> diffs;
+    private LinkedList<Patch> patches;
+
+    @Setup
+    public void setup() {
+        diffMatchPatch = DiffMatchPatch.builder().build();
+        original = Corpus.document(scenario, size);
+        edited = Corpus.edit(scenario, original);
+        diffs = diffMatchPatch.diffMain(original, edited);
+        patches = diffMatchPatch.patchMake(diffs);
+    }
+
+    @Benchmark
+    public LinkedList<Diff> diffMain() {
+        return diffMatchPatch.diffMain(original, edited);
+    }
+
+    @Benchmark
+    public LinkedList<Patch> patchMake() {
+        return diffMatchPatch.patchMake(diffs);
+    }
+
+    @Benchmark
+    public Object[] patchApply() {
+        return diffMatchPatch.patchApply(patches, original);
+    }
+
+    @Benchmark
+    public String checksum() {
+        return DiffMatchPatch.checksum(original);
+    }
+
+}
@@ -0,0 +1,250 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.benchmark;
+
+import org.jboss.aerogear.sync.DefaultDocument;
+import org.jboss.aerogear.sync.DefaultEdit;
+import org.jboss.aerogear.sync.DefaultPatchMessage;
+import org.jboss.aerogear.sync.Edit;
+import org.jboss.aerogear.sync.PatchMessage;
+import org.jboss.aerogear.sync.ShadowDocument;
+import org.jboss.aerogear.sync.server.DefaultServerSynchronizer;
+import org.jboss.aerogear.sync.server.ServerInMemoryDataStore;
+import org.jboss.aerogear.sync.server.ServerSyncEngine;
+import org.jboss.aerogear.sync.server.Subscriber;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the heap that a {@link ServerInMemoryDataStore} retains for a single document with many subscribers.
+ * <p>
+ * Every subscriber joins with its own copy of the document content, as it would when the content arrives in a
+ * message. Then, once per round, the writers among the subscribers each add a word to the document, either a word of
+ * their own or the same word for all of them, and the other subscribers send a patch without changes. The
+ * notifications of a round are held back until every subscriber has patched, and between rounds the subscribers are
+ * treated as having received and acknowledged all pending edits. After subscribing and after the last round the
+ * retained heap is reported together with the number of content instances and distinct contents held by the document
+ * and shadows.
+ * <p>
+ * Options are passed as {@code name=value} arguments, for example:
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar org.jboss.aerogear.sync.benchmark.HeapFootprint subscribers=200 sameWord=1
+ * </pre>
+ */
+public final class HeapFootprint {
+
+    private static final String DOCUMENT_ID = "heap-footprint";
+
+    private final int subscribers;
+    private final int size;
+    private final int writers;
+    private final boolean sameWord;
+    private final int rounds;
+    private final int notificationWindow;
+
+    private HeapFootprint(final Options options) {
+        subscribers = options.intValue("subscribers", 200);
+        size = options.intValue("size", 1 << 20);
+        writers = options.intValue("writers", subscribers);
+        sameWord = options.intValue("sameWord", 0) != 0;
+        rounds = options.intValue("rounds", 3);
+        notificationWindow = options.intValue("notificationWindow", 100);
+    }
+
+    private void run() throws Exception {
+        final String content = content(size);
+        final long baseline = usedHeap();
+        final ServerInMemoryDataStore dataStore = new ServerInMemoryDataStore();
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            final ServerSyncEngine<String> syncEngine = new ServerSyncEngine<String>(new DefaultServerSynchronizer(),
+                    dataStore,
+                    scheduler);
+            syncEngine.setNotificationWindow(notificationWindow, TimeUnit.MILLISECONDS);
+            for (int i = 0; i < subscribers; i++) {
+                syncEngine.addSubscriber(new NoopSubscriber(clientId(i)),
+                        new DefaultDocument<String>(DOCUMENT_ID, new String(content.toCharArray())));
+            }
+            report("subscribed", dataStore, baseline);
+            for (int round = 0; round < rounds; round++) {
+                final CountDownLatch roundDone = holdNotifications(scheduler);
+                for (int i = 0; i < subscribers; i++) {
+                    syncEngine.patchAndNotifySubscribers(patchMessage(dataStore, clientId(i), word(i, round)));
+                }
+                roundDone.countDown();
+                awaitNotifications(scheduler);
+                for (int i = 0; i < subscribers; i++) {
+                    dataStore.removeEdits(DOCUMENT_ID, clientId(i));
+                }
+            }
+            report("patched", dataStore, baseline);
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private static PatchMessage patchMessage(final ServerInMemoryDataStore dataStore,
+                                             final String clientId,
+                                             final String text) {
+        final ShadowDocument<String> shadow = dataStore.getShadowDocument(DOCUMENT_ID, clientId);
+        final DefaultEdit.Builder edit = DefaultEdit.withDocumentId(DOCUMENT_ID)
+                .clientId(clientId)
+                .serverVersion(shadow.serverVersion())
+                .clientVersion(shadow.clientVersion());
+        if (!text.isEmpty()) {
+            edit.add(text);
+        }
+        edit.unchanged(shadow.document().content());
+        return new DefaultPatchMessage(DOCUMENT_ID,
+                clientId,
+                new LinkedList<Edit>(Collections.singleton(edit.build())));
+    }
+
+    private void report(final String phase, final ServerInMemoryDataStore dataStore, final long baseline) {
+        final long retained = usedHeap() - baseline;
+        final Set<String> instances = Collections.newSetFromMap(new IdentityHashMap<String, Boolean>());
+        final Set<String> distinct = new HashSet<String>();
+        final String document = dataStore.getDocument(DOCUMENT_ID).content();
+        instances.add(document);
+        distinct.add(document);
+        for (int i = 0; i < subscribers; i++) {
+            final String shadow = dataStore.getShadowDocument(DOCUMENT_ID, clientId(i)).document().content();
+            instances.add(shadow);
+            distinct.add(shadow);
+        }
+        System.out.printf("%-10s retained=%d MB instances=%d distinct=%d%n",
+                phase,
+                retained >> 20,
+                instances.size(),
+                distinct.size());
+    }
+
+    /*
+     * Keeps the notification scheduler busy until the returned latch is counted down, so that no subscriber is
+     * notified while the subscribers are still patching and every subscriber patches the shadow it has seen.
+     */
+    private static CountDownLatch holdNotifications(final ScheduledExecutorService scheduler) {
+        final CountDownLatch roundDone = new CountDownLatch(1);
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    roundDone.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        return roundDone;
+    }
+
+    /*
+     * The notifications of the round are due within one notification window from now, and the single scheduler
+     * thread runs them before a task that is due after them.
+     */
+    private void awaitNotifications(final ScheduledExecutorService scheduler) throws Exception {
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, notificationWindow + 1L, TimeUnit.MILLISECONDS).get();
+    }
+
+    private String word(final int subscriber, final int round) {
+        if (subscriber >= writers) {
+            return "";
+        }
+        return (sameWord ? "word" : clientId(subscriber)) + '-' + round + ' ';
+    }
+
+    private static String clientId(final int i) {
+        return "client-" + i;
+    }
+
+    private static String content(final int size) {
+        final Random random = new Random(1);
+        final StringBuilder content = new StringBuilder(size + 16);
+        while (content.length() < size) {
+            content.append("word").append(random.nextInt(1000)).append(' ');
+        }
+        return content.toString();
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static final class NoopSubscriber implements Subscriber<Object> {
+
+        private final String clientId;
+
+        NoopSubscriber(final String clientId) {
+            this.clientId = clientId;
+        }
+
+        @Override
+        public String clientId() {
+            return clientId;
+        }
+
+        @Override
+        public Object channel() {
+            return null;
+        }
+
+        @Override
+        public void patched(final PatchMessage patchMessage) {
+        }
+    }
+
+    private static final class Options {
+
+        private final String[] args;
+
+        Options(final String... args) {
+            this.args = args;
+        }
+
+        int intValue(final String name, final int defaultValue) {
+            for (String arg : args) {
+                if (arg.startsWith(name + '=')) {
+                    return Integer.parseInt(arg.substring(name.length() + 1));
+                }
+            }
+            return defaultValue;
+        }
+
+    }
+
+    public static void main(final String... args) throws Exception {
+        new HeapFootprint(new Options(args)).run();
+    }
+
+}
@@ -0,0 +1,89 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records latency samples, in nanoseconds, into a fixed size ring buffer so that recording
+ * does not allocate while a benchmark is running.
+ */
+public final class LatencyRecorder {
+
+    private final long[] samples;
+    private final AtomicLong count = new AtomicLong();
+
+    public LatencyRecorder(final int capacity) {
+        samples = new long[capacity];
+    }
+
+    public void record(final long nanos) {
+        samples[(int) (count.getAndIncrement() % samples.length)] = nanos;
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    public void reset() {
+        count.set(0);
+    }
+
+    /**
+     * Returns the value at the passed in percentile of the recorded samples.
+     *
+     * @param percentile the percentile, for example {@code 99.9}.
+     * @return {@code long} the latency in nanoseconds, or {@code 0} if nothing was recorded.
+     */
+    public long percentile(final double percentile) {
+        final long[] sorted = sorted();
+        return sorted.length == 0 ? 0 : at(sorted, percentile);
+    }
+
+    /**
+     * Returns a one line summary of the recorded samples in microseconds.
+     *
+     * @param name the name to prefix the summary with.
+     * @return {@code String} the summary.
+     */
+    public String summary(final String name) {
+        final long[] sorted = sorted();
+        if (sorted.length == 0) {
+            return name + ": no samples";
+        }
+        return name + ": samples=" + count() +
+                ", p50=" + at(sorted, 50) / 1000 +
+                "us, p90=" + at(sorted, 90) / 1000 +
+                "us, p99=" + at(sorted, 99) / 1000 +
+                "us, p99.9=" + at(sorted, 99.9) / 1000 +
+                "us, max=" + sorted[sorted.length - 1] / 1000 + "us";
+    }
+
+    private long[] sorted() {
+        final int size = (int) Math.min(count.get(), samples.length);
+        final long[] sorted = Arrays.copyOf(samples, size);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static long at(final long[] sorted, final double percentile) {
+        final int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+}
@@ -0,0 +1,388 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.benchmark;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import org.jboss.aerogear.sync.ClientDocument;
+import org.jboss.aerogear.sync.DefaultClientDocument;
+import org.jboss.aerogear.sync.DiffSyncClient;
+import org.jboss.aerogear.sync.DiffSyncServer;
+import org.jboss.aerogear.sync.Document;
+import org.jboss.aerogear.sync.PatchMessage;
+import org.jboss.aerogear.sync.StandaloneConfig;
+import org.jboss.aerogear.sync.server.DefaultServerSynchronizer;
+import org.jboss.aerogear.sync.server.ServerInMemoryDataStore;
+import org.jboss.aerogear.sync.server.ServerSyncEngine;
+import org.jboss.aerogear.sync.server.Subscriber;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A load generator that starts a {@link DiffSyncServer} in-process and connects a large number of
+ * {@link DiffSyncClient}s to it, all sharing a single {@link EventLoopGroup}.
+ * <p>
+ * The clients are spread evenly over the configured number of documents and each client replays a scripted
+ * stream of edits, appending a unique token to its latest view of the document at a fixed interval.
+ * <p>
+ * Two things are measured:
+ * <ul>
+ *     <li>convergence latency, the time from a client calling {@link DiffSyncClient#diffAndSend} until the observer
+ *     of every other client of the same document has seen the edit</li>
+ *     <li>server CPU per message, the CPU time used by the server threads that handled patch messages divided by
+ *     the number of patch messages the server received</li>
+ * </ul>
+ * Options are passed as {@code name=value} arguments, for example:
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar org.jboss.aerogear.sync.benchmark.LoadGenerator clients=2000 documents=100
+ * </pre>
+ */
+public final class LoadGenerator {
+
+    private static final String INITIAL_CONTENT = "Differential Synchronization";
+
+    private final int port;
+    private final int clients;
+    private final int documents;
+    private final int edits;
+    private final long interval;
+    private final int threads;
+    private final int engineThreads;
+    private final long notificationWindow;
+    private final int fanOutThreads;
+    private final long timeout;
+    private final LatencyRecorder convergence;
+    private final ConcurrentHashMap<String, Queue<PendingEdit>> pending = new ConcurrentHashMap<String, Queue<PendingEdit>>();
+    private final Random random = new Random(42);
+
+    private LoadGenerator(final Options options) {
+        port = options.intValue("port", 7777);
+        clients = options.intValue("clients", 1000);
+        documents = options.intValue("documents", 100);
+        edits = options.intValue("edits", 20);
+        interval = options.intValue("interval", 500);
+        threads = options.intValue("threads", 0);
+        engineThreads = options.intValue("engineThreads", 0);
+        notificationWindow = options.intValue("notificationWindow", 0);
+        fanOutThreads = options.intValue("fanOutThreads", 0);
+        timeout = options.intValue("timeout", 60);
+        convergence = new LatencyRecorder(clients * edits);
+    }
+
+    private void run() throws Exception {
+        final ServerThreads serverThreads = new ServerThreads();
+        final ScheduledExecutorService notificationScheduler = Executors.newSingleThreadScheduledExecutor(serverThreads);
+        final ExecutorService fanOutExecutor = Executors.newFixedThreadPool(Math.max(fanOutThreads, 1), serverThreads);
+        final CpuRecordingSyncEngine syncEngine = new CpuRecordingSyncEngine(notificationScheduler, serverThreads);
+        syncEngine.setNotificationWindow(notificationWindow, TimeUnit.MILLISECONDS);
+        if (fanOutThreads > 0) {
+            syncEngine.setFanOutExecutor(fanOutExecutor, fanOutThreads + 1);
+        }
+        final StandaloneConfig config = StandaloneConfig.host("localhost").port(port).engineThreads(engineThreads).build();
+        final DiffSyncServer server = new DiffSyncServer(config, syncEngine);
+        server.start();
+        final EventLoopGroup group = new NioEventLoopGroup(threads);
+        final List<SimulatedClient> simulatedClients = new ArrayList<SimulatedClient>(clients);
+        final CountDownLatch seeded = new CountDownLatch(clients);
+        final CountDownLatch scripted = new CountDownLatch(clients);
+        try {
+            for (int i = 0; i < clients; i++) {
+                final SimulatedClient client = new SimulatedClient("doc-" + i % documents, "client-" + i, seeded, scripted);
+                client.connect(group);
+                simulatedClients.add(client);
+            }
+            if (!seeded.await(timeout, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Not all clients received their seed document within " + timeout + 's');
+            }
+            System.out.println("Connected " + clients + " clients to " + documents + " documents");
+
+            final long cpuBefore = serverThreads.cpuTime();
+            final long messagesBefore = syncEngine.messages();
+            final long start = System.nanoTime();
+            for (SimulatedClient client : simulatedClients) {
+                client.startScript();
+            }
+            scripted.await(timeout, TimeUnit.SECONDS);
+            awaitConvergence();
+            final long elapsed = System.nanoTime() - start;
+            final long messages = syncEngine.messages() - messagesBefore;
+            final long cpu = serverThreads.cpuTime() - cpuBefore;
+
+            System.out.println(convergence.summary("convergence"));
+            System.out.println("unconverged edits: " + unconverged());
+            System.out.println("server messages: " + messages + ", " +
+                    messages * TimeUnit.SECONDS.toNanos(1) / elapsed + " msg/s, cpu per message: " +
+                    (messages == 0 ? 0 : cpu / messages / 1000) + "us");
+        } finally {
+            for (SimulatedClient client : simulatedClients) {
+                client.disconnect();
+            }
+            group.shutdownGracefully();
+            server.stop();
+            notificationScheduler.shutdown();
+            fanOutExecutor.shutdown();
+        }
+    }
+
+    private void awaitConvergence() throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout);
+        while (unconverged() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+        }
+    }
+
+    private int unconverged() {
+        int count = 0;
+        for (Queue<PendingEdit> edits : pending.values()) {
+            count += edits.size();
+        }
+        return count;
+    }
+
+    private Queue<PendingEdit> pendingEdits(final String documentId) {
+        final Queue<PendingEdit> edits = pending.get(documentId);
+        if (edits != null) {
+            return edits;
+        }
+        final Queue<PendingEdit> newEdits = new ConcurrentLinkedQueue<PendingEdit>();
+        final Queue<PendingEdit> previous = pending.putIfAbsent(documentId, newEdits);
+        return previous == null ? newEdits : previous;
+    }
+
+    private int clientsOf(final String documentId) {
+        final int index = Integer.parseInt(documentId.substring("doc-".length()));
+        return clients / documents + (index < clients % documents ? 1 : 0);
+    }
+
+    /**
+     * An edit that has been sent by one client and that the other clients of the same document
+     * have not all seen yet.
+     */
+    private static final class PendingEdit {
+
+        private final String token;
+        private final long start;
+        private final AtomicInteger remaining;
+
+        PendingEdit(final String token, final long start, final int remaining) {
+            this.token = token;
+            this.start = start;
+            this.remaining = new AtomicInteger(remaining);
+        }
+
+    }
+
+    /**
+     * A single client that replays its edit script. All state is confined to the event loop of the client's channel.
+     */
+    private final class SimulatedClient implements Observer, Runnable {
+
+        private final String documentId;
+        private final String clientId;
+        private final CountDownLatch seeded;
+        private final CountDownLatch scripted;
+        private final Set<String> seen = new HashSet<String>();
+        private DiffSyncClient<String> client;
+        private String content;
+        private int written;
+
+        SimulatedClient(final String documentId,
+                        final String clientId,
+                        final CountDownLatch seeded,
+                        final CountDownLatch scripted) {
+            this.documentId = documentId;
+            this.clientId = clientId;
+            this.seeded = seeded;
+            this.scripted = scripted;
+        }
+
+        void connect(final EventLoopGroup group) throws InterruptedException {
+            client = DiffSyncClient.<String>forHost("localhost")
+                    .port(port)
+                    .path("/sync")
+                    .eventLoopGroup(group)
+                    .observer(this)
+                    .build()
+                    .connect();
+            client.addDocument(new DefaultClientDocument<String>(documentId, clientId, INITIAL_CONTENT));
+        }
+
+        void startScript() {
+            client.eventLoop().schedule(this, random.nextInt((int) interval + 1), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void run() {
+            final String token = '<' + clientId + ':' + written + '>';
+            seen.add(token);
+            content = content + token;
+            final int others = clientsOf(documentId) - 1;
+            if (others > 0) {
+                pendingEdits(documentId).add(new PendingEdit(token, System.nanoTime(), others));
+            }
+            client.diffAndSend(new DefaultClientDocument<String>(documentId, clientId, content));
+            if (++written < edits) {
+                client.eventLoop().schedule(this, interval, TimeUnit.MILLISECONDS);
+            } else {
+                scripted.countDown();
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void update(final Observable o, final Object arg) {
+            final boolean first = content == null;
+            content = ((ClientDocument<String>) arg).content();
+            if (first) {
+                seeded.countDown();
+            }
+            final Queue<PendingEdit> edits = pending.get(documentId);
+            if (edits == null) {
+                return;
+            }
+            for (PendingEdit edit : edits) {
+                if (!seen.contains(edit.token) && content.contains(edit.token)) {
+                    seen.add(edit.token);
+                    if (edit.remaining.decrementAndGet() == 0) {
+                        convergence.record(System.nanoTime() - edit.start);
+                        edits.remove(edit);
+                    }
+                }
+            }
+        }
+
+        void disconnect() {
+            client.disconnect();
+        }
+
+    }
+
+    /**
+     * A {@link ServerSyncEngine} that counts the patch messages it receives and remembers the threads that
+     * processed them, so that their CPU time can be attributed to the server.
+     */
+    private static final class CpuRecordingSyncEngine extends ServerSyncEngine<String> {
+
+        private final ServerThreads serverThreads;
+        private final AtomicLong messages = new AtomicLong();
+
+        CpuRecordingSyncEngine(final ScheduledExecutorService notificationScheduler, final ServerThreads serverThreads) {
+            super(new DefaultServerSynchronizer(), new ServerInMemoryDataStore(), notificationScheduler);
+            this.serverThreads = serverThreads;
+        }
+
+        @Override
+        public PatchMessage addSubscriber(final Subscriber<?> subscriber, final Document<String> document) {
+            serverThreads.add(Thread.currentThread());
+            return super.addSubscriber(subscriber, document);
+        }
+
+        @Override
+        public void patchAndNotifySubscribers(final PatchMessage patchMessage) {
+            serverThreads.add(Thread.currentThread());
+            messages.incrementAndGet();
+            super.patchAndNotifySubscribers(patchMessage);
+        }
+
+        long messages() {
+            return messages.get();
+        }
+
+    }
+
+    /**
+     * The threads that did work for the server. Also creates the threads of the executors that the sync engine
+     * notifies subscribers with, which never call the engine themselves.
+     */
+    private static final class ServerThreads implements ThreadFactory {
+
+        private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        private final Set<Long> threadIds = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        private final AtomicInteger created = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "server-notification-" + created.getAndIncrement());
+            thread.setDaemon(true);
+            add(thread);
+            return thread;
+        }
+
+        void add(final Thread thread) {
+            threadIds.add(thread.getId());
+        }
+
+        long cpuTime() {
+            long total = 0;
+            for (Long threadId : threadIds) {
+                final long time = threadMXBean.getThreadCpuTime(threadId);
+                if (time > 0) {
+                    total += time;
+                }
+            }
+            return total;
+        }
+
+    }
+
+    /**
+     * Command line options in the form {@code name=value}.
+     */
+    private static final class Options {
+
+        private final String[] args;
+
+        Options(final String... args) {
+            this.args = args;
+        }
+
+        int intValue(final String name, final int defaultValue) {
+            for (String arg : args) {
+                if (arg.startsWith(name + '=')) {
+                    return Integer.parseInt(arg.substring(name.length() + 1));
+                }
+            }
+            return defaultValue;
+        }
+
+    }
+
+    public static void main(final String... args) throws Exception {
+        new LoadGenerator(new Options(args)).run();
+    }
+
+}
@@ -0,0 +1,155 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.benchmark;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.jboss.aerogear.sync.BinaryMapper;
+import org.jboss.aerogear.sync.DefaultClientDocument;
+import org.jboss.aerogear.sync.DefaultEdit;
+import org.jboss.aerogear.sync.DefaultPatchMessage;
+import org.jboss.aerogear.sync.Edit;
+import org.jboss.aerogear.sync.JsonMapper;
+import org.jboss.aerogear.sync.PatchMessage;
+import org.jboss.aerogear.sync.PatchMessageEncoder;
+import org.jboss.aerogear.sync.benchmark.Corpus.Scenario;
+import org.jboss.aerogear.sync.client.ClientInMemoryDataStore;
+import org.jboss.aerogear.sync.client.ClientSyncEngine;
+import org.jboss.aerogear.sync.client.DefaultClientSynchronizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures encoding a {@link PatchMessage} into a WebSocket frame.
+ *
+ * {@code string} is how patch messages used to be sent, the JSON is built as a {@code String} which
+ * {@link TextWebSocketFrame} then encodes into a new buffer. {@code pooled} writes the JSON straight into a pooled
+ * buffer using a {@link PatchMessageEncoder} that does not share diffs. {@code broadcast} encodes the messages of
+ * {@code subscribers} clients that receive the same diffs, like a notification does, with an encoder that encodes
+ * the diffs once and shares them between the frames. {@code compact} writes the unchanged and deleted text of the
+ * diffs as lengths, and {@code binary} encodes the message as a binary frame, see {@link BinaryMapper}. The bytes
+ * allocated per message are reported by the gc profiler, the methods return the size of the frame:
+ * <pre>
+ *     java -jar benchmarks/target/benchmarks.jar PatchMessageEncodingBenchmark -prof gc
+ * </pre>
+ */
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PatchMessageEncodingBenchmark {
+
+    private static final String DOCUMENT_ID = "document";
+    private static final String CLIENT_ID = "client";
+
+    @Param({"1024", "65536", "1048576"})
+    public int size;
+
+    @Param({"TYPING", "JSON"})
+    public Scenario scenario;
+
+    @Param({"100"})
+    public int subscribers;
+
+    private final ByteBufAllocator alloc = PooledByteBufAllocator.DEFAULT;
+    private final PatchMessageEncoder unsharedEncoder = new PatchMessageEncoder(0, 0);
+    private final PatchMessageEncoder sharedEncoder = new PatchMessageEncoder();
+    private PatchMessage patchMessage;
+    private PatchMessage[] broadcastMessages;
+    private int next;
+
+    @Setup
+    public void setup() {
+        final ClientSyncEngine<String> engine = new ClientSyncEngine<String>(new DefaultClientSynchronizer(),
+                new ClientInMemoryDataStore());
+        final String document = Corpus.document(scenario, size);
+        engine.addDocument(new DefaultClientDocument<String>(DOCUMENT_ID, CLIENT_ID, document));
+        final String edited = Corpus.edit(scenario, document);
+        patchMessage = engine.diff(new DefaultClientDocument<String>(DOCUMENT_ID, CLIENT_ID, edited));
+        final Edit edit = patchMessage.edits().peek();
+        broadcastMessages = new PatchMessage[subscribers];
+        for (int i = 0; i < subscribers; i++) {
+            final String clientId = CLIENT_ID + i;
+            final Edit clientEdit = DefaultEdit.withDocumentId(DOCUMENT_ID)
+                    .clientId(clientId)
+                    .clientVersion(edit.clientVersion())
+                    .serverVersion(i)
+                    .checksum(edit.checksum())
+                    .diffs(edit.diffs())
+                    .build();
+            broadcastMessages[i] = new DefaultPatchMessage(DOCUMENT_ID, clientId,
+                    new LinkedList<Edit>(Collections.singleton(clientEdit)));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        sharedEncoder.release();
+    }
+
+    @Benchmark
+    public int string() {
+        return release(new TextWebSocketFrame(JsonMapper.toJson(patchMessage)));
+    }
+
+    @Benchmark
+    public int pooled() {
+        return release(unsharedEncoder.encode(alloc, patchMessage));
+    }
+
+    @Benchmark
+    public int compact() {
+        return release(unsharedEncoder.encode(alloc, patchMessage, true));
+    }
+
+    @Benchmark
+    public int binary() {
+        return release(unsharedEncoder.encodeBinary(alloc, patchMessage));
+    }
+
+    @Benchmark
+    public int broadcast() {
+        final PatchMessage message = broadcastMessages[next];
+        next = (next + 1) % broadcastMessages.length;
+        return release(sharedEncoder.encode(alloc, message));
+    }
+
+    private static int release(final WebSocketFrame frame) {
+        final int bytes = frame.content().readableBytes();
+        frame.release();
+        return bytes;
+    }
+
+}
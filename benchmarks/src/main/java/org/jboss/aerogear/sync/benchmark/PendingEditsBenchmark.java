@@ -0,0 +1,109 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.benchmark;
+
+import org.jboss.aerogear.sync.DefaultEdit;
+import org.jboss.aerogear.sync.Edit;
+import org.jboss.aerogear.sync.server.ServerDataStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the pending edits of a single client in a {@link ServerDataStore}.
+ *
+ * {@code saveAndRemove} saves an edit and removes the oldest one, like a client that acknowledges every edit after
+ * {@code pendingEdits} more have been queued for it. {@code saveAndRemoveContended} does the same from several
+ * threads at once, and {@code getEdits} reads the pending edits like a notification does. The copy-on-write queues
+ * that the in-memory data stores used before are available as a baseline:
+ * <pre>
+ *     java -jar benchmarks/target/benchmarks.jar PendingEditsBenchmark -prof gc
+ * </pre>
+ */
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PendingEditsBenchmark {
+
+    private static final String DOCUMENT_ID = "document";
+    private static final String CLIENT_ID = "client";
+
+    @Param({"1", "10", "1000"})
+    public int pendingEdits;
+
+    @Param({"org.jboss.aerogear.sync.server.ServerInMemoryDataStore",
+            "org.jboss.aerogear.sync.benchmark.CopyOnWriteEditsDataStore"})
+    public String dataStore;
+
+    private final AtomicLong clientVersion = new AtomicLong();
+    private ServerDataStore<String> store;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        store = (ServerDataStore<String>) Class.forName(dataStore).newInstance();
+        for (int i = 0; i < pendingEdits; i++) {
+            store.saveEdits(edit(clientVersion.getAndIncrement()));
+        }
+    }
+
+    @Benchmark
+    public void saveAndRemove() {
+        saveAndRemoveEdit();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void saveAndRemoveContended() {
+        saveAndRemoveEdit();
+    }
+
+    @Benchmark
+    public long getEdits() {
+        long versions = 0;
+        for (Edit edit : store.getEdits(DOCUMENT_ID, CLIENT_ID)) {
+            versions += edit.clientVersion();
+        }
+        return versions;
+    }
+
+    private void saveAndRemoveEdit() {
+        final long version = clientVersion.getAndIncrement();
+        store.saveEdits(edit(version));
+        store.removeEdit(edit(version - pendingEdits));
+    }
+
+    private static Edit edit(final long clientVersion) {
+        return DefaultEdit.withDocumentId(DOCUMENT_ID).clientId(CLIENT_ID).clientVersion(clientVersion).build();
+    }
+
+}
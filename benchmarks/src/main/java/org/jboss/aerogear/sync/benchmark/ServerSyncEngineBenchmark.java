@@ -0,0 +1,212 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.benchmark;
+
+import org.jboss.aerogear.sync.DefaultDocument;
+import org.jboss.aerogear.sync.DefaultEdit;
+import org.jboss.aerogear.sync.DefaultPatchMessage;
+import org.jboss.aerogear.sync.Edit;
+import org.jboss.aerogear.sync.PatchMessage;
+import org.jboss.aerogear.sync.ShadowDocument;
+import org.jboss.aerogear.sync.benchmark.Corpus.Scenario;
+import org.jboss.aerogear.sync.server.DefaultServerSynchronizer;
+import org.jboss.aerogear.sync.server.ServerDataStore;
+import org.jboss.aerogear.sync.server.ServerSyncEngine;
+import org.jboss.aerogear.sync.server.Subscriber;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives {@link ServerSyncEngine#patchAndNotifySubscribers(PatchMessage)} for a number of documents, each
+ * of which has a number of in-memory subscribers.
+ *
+ * For every invocation one client of a document sends a patch that types, or removes, a single character.
+ * The throughput mode reports patches per second and the sample mode reports the latency of a complete
+ * patch and fan-out. The time it took for each individual subscriber to be notified is printed after
+ * every iteration, and bytes allocated per patch are reported by the gc profiler:
+ * <pre>
+ *     java -jar benchmarks/target/benchmarks.jar ServerSyncEngineBenchmark -prof gc
+ * </pre>
+ *
+ * Any {@link ServerDataStore} with a no-argument constructor can be benchmarked by passing its class name:
+ * <pre>
+ *     java -jar benchmarks/target/benchmarks.jar ServerSyncEngineBenchmark -p dataStore=com.acme.MyDataStore
+ * </pre>
+ *
+ * Subscribers are notified one after another by default. Passing a number of fan-out threads notifies them in
+ * parallel using a {@link ForkJoinPool}, compare the fan-out latency of the last subscribers to see the difference:
+ * <pre>
+ *     java -jar benchmarks/target/benchmarks.jar ServerSyncEngineBenchmark -p fanOutThreads=0,3
+ * </pre>
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ServerSyncEngineBenchmark {
+
+    private static final String WRITER = "client-0";
+
+    @Param({"1", "10", "100", "500"})
+    public int subscribers;
+
+    @Param({"1", "10"})
+    public int documents;
+
+    @Param({"1024", "65536"})
+    public int documentSize;
+
+    @Param({"org.jboss.aerogear.sync.server.ServerInMemoryDataStore"})
+    public String dataStore;
+
+    @Param({"0"})
+    public int fanOutThreads;
+
+    private final LatencyRecorder fanOut = new LatencyRecorder(1 << 20);
+    private ServerDataStore<String> store;
+    private ServerSyncEngine<String> engine;
+    private ForkJoinPool fanOutExecutor;
+    private String[] documentIds;
+    private boolean[] typed;
+    private int next;
+    private volatile long patchStart;
+
+    @Setup
+    public void setup() throws Exception {
+        store = newDataStore(dataStore);
+        engine = new ServerSyncEngine<String>(new DefaultServerSynchronizer(), store);
+        if (fanOutThreads > 0) {
+            fanOutExecutor = new ForkJoinPool(fanOutThreads);
+            engine.setFanOutExecutor(fanOutExecutor, fanOutThreads + 1);
+        }
+        final String content = Corpus.document(Scenario.TYPING, documentSize);
+        documentIds = new String[documents];
+        typed = new boolean[documents];
+        for (int d = 0; d < documents; d++) {
+            documentIds[d] = "document-" + d;
+            for (int s = 0; s < subscribers; s++) {
+                engine.addSubscriber(new RecordingSubscriber(documentIds[d], "client-" + s),
+                        new DefaultDocument<String>(documentIds[d], content));
+            }
+        }
+    }
+
+    @Benchmark
+    public void patchAndNotifySubscribers() {
+        final int document = next++ % documents;
+        final PatchMessage patchMessage = typeOrRemoveCharacter(document);
+        patchStart = System.nanoTime();
+        engine.patchAndNotifySubscribers(patchMessage);
+    }
+
+    @TearDown(Level.Iteration)
+    public void printFanOut() {
+        System.out.println();
+        System.out.println(fanOut.summary("fan-out latency"));
+        fanOut.reset();
+    }
+
+    @TearDown
+    public void shutdown() {
+        if (fanOutExecutor != null) {
+            fanOutExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Creates a patch, as the writing client would have, that either inserts a character in the middle of
+     * the document or removes the character that was inserted by the previous patch.
+     */
+    private PatchMessage typeOrRemoveCharacter(final int document) {
+        final String documentId = documentIds[document];
+        final ShadowDocument<String> shadow = store.getShadowDocument(documentId, WRITER);
+        final String content = shadow.document().content();
+        final int position = documentSize / 2;
+        final DefaultEdit.Builder builder = DefaultEdit.withDocumentId(documentId)
+                .clientId(WRITER)
+                .clientVersion(shadow.clientVersion())
+                .serverVersion(shadow.serverVersion())
+                .checksum("")
+                .unchanged(content.substring(0, position));
+        if (typed[document]) {
+            builder.delete(content.substring(position, position + 1)).unchanged(content.substring(position + 1));
+        } else {
+            builder.add("x").unchanged(content.substring(position));
+        }
+        typed[document] = !typed[document];
+        final Edit edit = builder.build();
+        return new DefaultPatchMessage(documentId, WRITER, new LinkedList<Edit>(Collections.singleton(edit)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ServerDataStore<String> newDataStore(final String className) throws Exception {
+        return (ServerDataStore<String>) Class.forName(className).newInstance();
+    }
+
+    /**
+     * A subscriber that records how long it took from the start of a patch until it was notified.
+     *
+     * Clients only acknowledge server edits when they send a patch of their own, which the subscribers
+     * of this benchmark never do. To keep the pending edits from growing for the duration of the benchmark
+     * the edits are removed as soon as they have been delivered, as if the client had acknowledged them.
+     */
+    private final class RecordingSubscriber implements Subscriber<String> {
+
+        private final String documentId;
+        private final String clientId;
+
+        private RecordingSubscriber(final String documentId, final String clientId) {
+            this.documentId = documentId;
+            this.clientId = clientId;
+        }
+
+        @Override
+        public String clientId() {
+            return clientId;
+        }
+
+        @Override
+        public String channel() {
+            return documentId;
+        }
+
+        @Override
+        public void patched(final PatchMessage patchMessage) {
+            fanOut.record(System.nanoTime() - patchStart);
+            store.removeEdits(documentId, clientId);
+        }
+    }
+
+}
@@ -0,0 +1,188 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.benchmark;
+
+import org.jboss.aerogear.sync.DefaultDocument;
+import org.jboss.aerogear.sync.DefaultEdit;
+import org.jboss.aerogear.sync.DefaultPatchMessage;
+import org.jboss.aerogear.sync.Edit;
+import org.jboss.aerogear.sync.PatchMessage;
+import org.jboss.aerogear.sync.ShadowDocument;
+import org.jboss.aerogear.sync.benchmark.Corpus.Scenario;
+import org.jboss.aerogear.sync.server.DefaultServerSynchronizer;
+import org.jboss.aerogear.sync.server.ServerInMemoryDataStore;
+import org.jboss.aerogear.sync.server.ServerSyncEngine;
+import org.jboss.aerogear.sync.server.Subscriber;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures how {@link ServerSyncEngine#patchAndNotifySubscribers(PatchMessage)} scales with the number of
+ * documents when it is called from multiple threads.
+ *
+ * Operations on the same document are serialized by the engine, so with a single document adding threads
+ * should not add throughput, while with at least as many documents as threads the throughput should grow
+ * close to linearly with the number of threads. Every thread patches one document, the documents are
+ * assigned to the threads round-robin. The number of threads defaults to the number of available processors
+ * and can be changed using {@code -t}:
+ * <pre>
+ *     java -jar benchmarks/target/benchmarks.jar ServerSyncEngineScalingBenchmark -t 4
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(Threads.MAX)
+public class ServerSyncEngineScalingBenchmark {
+
+    private static final int DOCUMENT_SIZE = 4096;
+
+    @State(Scope.Benchmark)
+    public static class Engine {
+
+        @Param({"1", "4", "16", "64"})
+        public int documents;
+
+        @Param({"10"})
+        public int subscribers;
+
+        private final AtomicInteger writers = new AtomicInteger();
+        private ServerInMemoryDataStore store;
+        private ServerSyncEngine<String> engine;
+
+        @Setup
+        public void setup() {
+            store = new ServerInMemoryDataStore();
+            engine = new ServerSyncEngine<String>(new DefaultServerSynchronizer(), store);
+            final String content = Corpus.document(Scenario.TYPING, DOCUMENT_SIZE);
+            for (int d = 0; d < documents; d++) {
+                for (int s = 0; s < subscribers; s++) {
+                    engine.addSubscriber(new AcknowledgingSubscriber(store, documentId(d), "client-" + s),
+                            new DefaultDocument<String>(documentId(d), content));
+                }
+            }
+        }
+
+        private static String documentId(final int document) {
+            return "document-" + document;
+        }
+    }
+
+    /**
+     * The client that a benchmark thread sends patches for.
+     *
+     * A writer is not a subscriber of its document. If it were, the patches of the other threads writing
+     * to the same document would update its shadow while the thread is creating a patch against it.
+     */
+    @State(Scope.Thread)
+    public static class Writer {
+
+        private String documentId;
+        private String clientId;
+        private boolean typed;
+
+        @Setup
+        public void setup(final Engine engine) {
+            final int writer = engine.writers.getAndIncrement();
+            documentId = Engine.documentId(writer % engine.documents);
+            clientId = "writer-" + writer;
+            final AcknowledgingSubscriber subscriber = new AcknowledgingSubscriber(engine.store, documentId, clientId);
+            engine.engine.addSubscriber(subscriber, new DefaultDocument<String>(documentId, null));
+            engine.engine.removeSubscriber(subscriber, documentId);
+        }
+
+        /**
+         * Creates a patch that either inserts a character in the middle of the writer's shadow or removes
+         * the character that was inserted by the previous patch.
+         */
+        private PatchMessage typeOrRemoveCharacter(final Engine engine) {
+            final ShadowDocument<String> shadow = engine.store.getShadowDocument(documentId, clientId);
+            final String content = shadow.document().content();
+            final int position = content.length() / 2;
+            final DefaultEdit.Builder builder = DefaultEdit.withDocumentId(documentId)
+                    .clientId(clientId)
+                    .clientVersion(shadow.clientVersion())
+                    .serverVersion(shadow.serverVersion())
+                    .checksum("")
+                    .unchanged(content.substring(0, position));
+            if (typed) {
+                builder.delete(content.substring(position, position + 1)).unchanged(content.substring(position + 1));
+            } else {
+                builder.add("x").unchanged(content.substring(position));
+            }
+            typed = !typed;
+            final Edit edit = builder.build();
+            return new DefaultPatchMessage(documentId, clientId, new LinkedList<Edit>(Collections.singleton(edit)));
+        }
+    }
+
+    @Benchmark
+    public void patchAndNotifySubscribers(final Engine engine, final Writer writer) {
+        engine.engine.patchAndNotifySubscribers(writer.typeOrRemoveCharacter(engine));
+    }
+
+    /**
+     * A subscriber that acknowledges, by removing them, the edits that it has been sent.
+     */
+    private static final class AcknowledgingSubscriber implements Subscriber<String> {
+
+        private final ServerInMemoryDataStore store;
+        private final String documentId;
+        private final String clientId;
+
+        private AcknowledgingSubscriber(final ServerInMemoryDataStore store,
+                                        final String documentId,
+                                        final String clientId) {
+            this.store = store;
+            this.documentId = documentId;
+            this.clientId = clientId;
+        }
+
+        @Override
+        public String clientId() {
+            return clientId;
+        }
+
+        @Override
+        public String channel() {
+            return documentId;
+        }
+
+        @Override
+        public void patched(final PatchMessage patchMessage) {
+            store.removeEdits(documentId, clientId);
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.benchmark;
+
+import org.jboss.aerogear.sync.PatchMessage;
+import org.jboss.aerogear.sync.server.DefaultServerSynchronizer;
+import org.jboss.aerogear.sync.server.ServerInMemoryDataStore;
+import org.jboss.aerogear.sync.server.ServerSyncEngine;
+import org.jboss.aerogear.sync.server.Subscriber;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures subscribing to, and unsubscribing from, a single document with many subscribers.
+ *
+ * {@code joinStorm} subscribes all the subscribers to a new engine one after another and then removes them by
+ * closing their channels, like a broadcast that everyone joins at once and later leaves. {@code churn} keeps
+ * all the subscribers subscribed while every benchmark thread repeatedly subscribes and unsubscribes a
+ * subscriber of its own, which shows the cost of a join or leave on a crowded document under contention:
+ * <pre>
+ *     java -jar benchmarks/target/benchmarks.jar SubscriberJoinBenchmark -t 4
+ * </pre>
+ */
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SubscriberJoinBenchmark {
+
+    private static final String DOCUMENT_ID = "document";
+
+    @State(Scope.Benchmark)
+    public static class Subscribers {
+
+        @Param({"10000"})
+        public int subscribers;
+
+        private final AtomicInteger threads = new AtomicInteger();
+        private ChannelSubscriber[] joining;
+        private ServerSyncEngine<String> engine;
+
+        @Setup
+        public void setup() {
+            joining = new ChannelSubscriber[subscribers];
+            engine = newEngine();
+            for (int s = 0; s < subscribers; s++) {
+                joining[s] = new ChannelSubscriber("client-" + s);
+                engine.addSubscriber(new ChannelSubscriber("member-" + s), DOCUMENT_ID);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Churner {
+
+        private ChannelSubscriber subscriber;
+
+        @Setup
+        public void setup(final Subscribers subscribers) {
+            subscriber = new ChannelSubscriber("churner-" + subscribers.threads.getAndIncrement());
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public ServerSyncEngine<String> joinStorm(final Subscribers subscribers) {
+        final ServerSyncEngine<String> engine = newEngine();
+        for (ChannelSubscriber subscriber : subscribers.joining) {
+            engine.addSubscriber(subscriber, DOCUMENT_ID);
+        }
+        for (ChannelSubscriber subscriber : subscribers.joining) {
+            engine.removeSubscribers(subscriber.channel());
+        }
+        return engine;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Threads(Threads.MAX)
+    public void churn(final Subscribers subscribers, final Churner churner) {
+        subscribers.engine.addSubscriber(churner.subscriber, DOCUMENT_ID);
+        subscribers.engine.removeSubscriber(churner.subscriber, DOCUMENT_ID);
+    }
+
+    private static ServerSyncEngine<String> newEngine() {
+        return new ServerSyncEngine<String>(new DefaultServerSynchronizer(), new ServerInMemoryDataStore());
+    }
+
+    /**
+     * A subscriber that has a channel of its own, like a client with its own connection.
+     */
+    private static final class ChannelSubscriber implements Subscriber<Object> {
+
+        private final String clientId;
+        private final Object channel = new Object();
+
+        private ChannelSubscriber(final String clientId) {
+            this.clientId = clientId;
+        }
+
+        @Override
+        public String clientId() {
+            return clientId;
+        }
+
+        @Override
+        public Object channel() {
+            return channel;
+        }
+
+        @Override
+        public void patched(final PatchMessage patchMessage) {
+        }
+    }
+
+}
@@ -19,13 +19,12 @@ package org.jboss.aerogear.sync.client;
 import org.jboss.aerogear.sync.BackupShadowDocument;
 import org.jboss.aerogear.sync.ClientDocument;
 import org.jboss.aerogear.sync.Edit;
+import org.jboss.aerogear.sync.EditLog;
 import org.jboss.aerogear.sync.ShadowDocument;
 
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 
 public class ClientInMemoryDataStore implements ClientDataStore<String> {
@@ -34,7 +33,7 @@ public class ClientInMemoryDataStore implements ClientDataStore<String> {
     private final ConcurrentMap<Id, ClientDocument<String>> documents = new ConcurrentHashMap<Id, ClientDocument<String>>();
     private final ConcurrentMap<Id, ShadowDocument<String>> shadows = new ConcurrentHashMap<Id, ShadowDocument<String>>();
     private final ConcurrentMap<Id, BackupShadowDocument<String>> backups = new ConcurrentHashMap<Id, BackupShadowDocument<String>>();
-    private final ConcurrentHashMap<Id, Queue<Edit>> pendingEdits = new ConcurrentHashMap<Id, Queue<Edit>>();
+    private final ConcurrentHashMap<Id, EditLog> pendingEdits = new ConcurrentHashMap<Id, EditLog>();
 
     @Override
     public void saveShadowDocument(final ShadowDocument<String> shadowDocument) {
@@ -68,66 +67,42 @@ public class ClientInMemoryDataStore implements ClientDataStore<String> {
 
     @Override
     public void saveEdits(final Edit edit) {
-        final Id id = id(edit.documentId(), edit.clientId());
-        final Queue<Edit> newEdits = new ConcurrentLinkedQueue<Edit>();
-        while (true) {
-            final Queue<Edit> currentEdits = pendingEdits.get(id);
-            if (currentEdits == null) {
-                newEdits.add(edit);
-                final Queue<Edit> previous = pendingEdits.putIfAbsent(id, newEdits);
-                if (previous != null) {
-                    newEdits.addAll(previous);
-                    if (pendingEdits.replace(id, previous, newEdits)) {
-                        break;
-                    }
-                } else {
-                    break;
-                }
-            } else {
-                newEdits.addAll(currentEdits);
-                newEdits.add(edit);
-                if (pendingEdits.replace(id, currentEdits, newEdits)) {
-                    break;
-                }
-            }
-        }
+        editLog(id(edit.documentId(), edit.clientId())).append(edit);
     }
 
     @Override
     public void removeEdit(final Edit edit) {
-        final Id id = id(edit.documentId(), edit.clientId());
-        while (true) {
-            final Queue<Edit> currentEdits = pendingEdits.get(id);
-            if (currentEdits == null) {
-                break;
-            }
-            final Queue<Edit> newEdits = new ConcurrentLinkedQueue<Edit>();
-            newEdits.addAll(currentEdits);
-            for (Iterator<Edit> iter = newEdits.iterator(); iter.hasNext();) {
-                final Edit oldEdit = iter.next();
-                if (oldEdit.clientVersion() <= edit.clientVersion()) {
-                    iter.remove();
-                }
-            }
-            if (pendingEdits.replace(id, currentEdits, newEdits)) {
-                break;
-            }
+        final EditLog editLog = pendingEdits.get(id(edit.documentId(), edit.clientId()));
+        if (editLog != null) {
+            editLog.removeUpTo(edit.clientVersion());
         }
     }
 
-
     @Override
     public Queue<Edit> getEdits(final String documentId, final String clientId) {
-        final Queue<Edit> edits = pendingEdits.get(id(documentId, clientId));
-        if (edits == null) {
+        final EditLog editLog = pendingEdits.get(id(documentId, clientId));
+        if (editLog == null) {
             return EMPTY_QUEUE;
         }
-        return edits;
+        return editLog.snapshot();
     }
 
     @Override
     public void removeEdits(final String documentId, final String clientId) {
-        pendingEdits.remove(id(documentId, clientId));
+        final EditLog editLog = pendingEdits.get(id(documentId, clientId));
+        if (editLog != null) {
+            editLog.clear();
+        }
+    }
+
+    private EditLog editLog(final Id id) {
+        final EditLog editLog = pendingEdits.get(id);
+        if (editLog != null) {
+            return editLog;
+        }
+        final EditLog newEditLog = new EditLog();
+        final EditLog previous = pendingEdits.putIfAbsent(id, newEditLog);
+        return previous == null ? newEditLog : previous;
     }
 
     private static Id id(final ClientDocument<String> document) {
@@ -19,6 +19,7 @@ package org.jboss.aerogear.sync.client;
 import org.jboss.aerogear.sync.BackupShadowDocument;
 import org.jboss.aerogear.sync.ClientDocument;
 import org.jboss.aerogear.sync.DefaultBackupShadowDocument;
+import org.jboss.aerogear.sync.DefaultClientDocument;
 import org.jboss.aerogear.sync.DefaultPatchMessage;
 import org.jboss.aerogear.sync.DefaultShadowDocument;
 import org.jboss.aerogear.sync.Document;
@@ -72,8 +73,7 @@ public class ClientSyncEngine<T> extends Observable {
         final ShadowDocument<T> shadow = getShadowDocument(document.id(), document.clientId());
         final Edit edit = serverDiff(document, shadow);
         saveEdits(edit);
-        final ShadowDocument<T> patchedShadow = diffPatchShadow(shadow, edit);
-        saveShadow(incrementClientVersion(patchedShadow));
+        saveShadow(incrementClientVersion(advanceShadow(shadow, document.content())));
         return getPendingEdits(document.id(), document.clientId());
     }
 
@@ -92,8 +92,21 @@ public class ClientSyncEngine<T> extends Observable {
         saveBackupShadow(patchedShadow);
     }
 
-    private ShadowDocument<T> diffPatchShadow(final ShadowDocument<T> shadow, final Edit edit) {
-        return clientSynchronizer.patchShadow(edit, shadow);
+    /**
+     * Sets the content of the shadow to the content that it was just diffed against.
+     *
+     * Patching the shadow with the edit from that diff would produce exactly this content, so there is no need
+     * to create and apply patches. The versions of the passed in shadow are carried forward as they are.
+     *
+     * @param shadow the shadow to advance.
+     * @param content the content that the shadow was diffed against.
+     * @return {@link ShadowDocument} a new shadow with the passed in content.
+     */
+    private ShadowDocument<T> advanceShadow(final ShadowDocument<T> shadow, final T content) {
+        final ClientDocument<T> document = shadow.document();
+        return newShadowDoc(shadow.serverVersion(),
+                shadow.clientVersion(),
+                new DefaultClientDocument<T>(document.id(), document.clientId(), content));
     }
 
 
@@ -113,6 +126,8 @@ public class ClientSyncEngine<T> extends Observable {
             if (allVersionsMatch(edit, shadow) || isSeedVersion(edit)) {
                 final ShadowDocument<T> patchedShadow = clientSynchronizer.patchShadow(edit, shadow);
                 if (isSeedVersion(edit)) {
+                    // the server reset its shadow, so it can no longer apply the edits made against the old one.
+                    dataStore.removeEdits(edit.documentId(), edit.clientId());
                     shadow = saveShadowAndRemoveEdit(withClientVersion(patchedShadow, 0), edit);
                 } else {
                     shadow = saveShadowAndRemoveEdit(incrementServerVersion(patchedShadow), edit);
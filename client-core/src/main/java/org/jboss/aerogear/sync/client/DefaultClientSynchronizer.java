@@ -67,8 +67,8 @@ public class DefaultClientSynchronizer implements ClientSynchronizer<String> {
 
     @Override
     public ShadowDocument<String> patchShadow(final Edit edit, final ShadowDocument<String> shadowDocument) {
-        final LinkedList<Patch> patches = patchesFrom(edit);
         final ClientDocument<String> doc = shadowDocument.document();
+        final LinkedList<Patch> patches = patchesFrom(edit, doc.content());
         //TODO: results also contains a boolean array. Not sure what we should do with it.
         final Object[] results = diffMatchPatch.patchApply(patches, doc.content());
         final ClientDocument<String> patchedDocument = new DefaultClientDocument<String>(doc.id(), doc.clientId(), (String) results[0]);
@@ -77,20 +77,36 @@ public class DefaultClientSynchronizer implements ClientSynchronizer<String> {
 
     @Override
     public ClientDocument<String> patchDocument(final Edit edit, final ClientDocument<String> document) {
-        final LinkedList<Patch> patches = patchesFrom(edit);
+        final LinkedList<Patch> patches = patchesFrom(edit, document.content());
         //TODO: results also contains a boolean array. Not sure what we should do with it.
         final Object[] results = diffMatchPatch.patchApply(patches, document.content());
         return new DefaultClientDocument<String>(document.id(), document.clientId(), (String) results[0]);
     }
 
-    private LinkedList<Patch> patchesFrom(final Edit edit) {
-        return diffMatchPatch.patchMake(asDiffUtilDiffs(edit.diffs()));
+    private LinkedList<Patch> patchesFrom(final Edit edit, final String content) {
+        return diffMatchPatch.patchMake(asDiffUtilDiffs(edit.diffs(), content));
     }
 
-    private static LinkedList<DiffMatchPatch.Diff> asDiffUtilDiffs(final LinkedList<Diff> diffs) {
+    /**
+     * Converts diffs, taking the text of compact diffs from the content that they are applied to. The
+     * {@code UNCHANGED} and {@code DELETE} diffs of an edit span that content from start to end.
+     */
+    private static LinkedList<DiffMatchPatch.Diff> asDiffUtilDiffs(final LinkedList<Diff> diffs, final String content) {
         final LinkedList<DiffMatchPatch.Diff> dsf = new LinkedList<DiffMatchPatch.Diff>();
+        int index = 0;
         for (Diff d : diffs) {
-            dsf.add(diff(diffutilOp(d.operation()), d.text()));
+            String text = d.text();
+            if (text == null) {
+                if (index + d.length() > content.length()) {
+                    throw new IllegalArgumentException("Compact diff of length " + d.length() + " at index " + index
+                            + " exceeds the content length " + content.length());
+                }
+                text = content.substring(index, index + d.length());
+            }
+            if (d.operation() != Diff.Operation.ADD) {
+                index += text.length();
+            }
+            dsf.add(diff(diffutilOp(d.operation()), text));
         }
         return dsf;
     }
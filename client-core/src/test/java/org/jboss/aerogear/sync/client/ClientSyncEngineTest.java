@@ -83,6 +83,23 @@ public class ClientSyncEngineTest {
         assertThat(diffs.get(3).text(), is("}"));
     }
 
+    @Test
+    public void diffAdvancesShadow() {
+        final String documentId = "1234";
+        final String clientId = "client2";
+        final String originalVersion = "{\"id\": 9999}";
+        final String updatedVersion = "{\"id\": 6666}";
+        engine.addDocument(clientDoc(documentId, clientId, originalVersion));
+
+        engine.diff(clientDoc(documentId, clientId, updatedVersion));
+        final ShadowDocument<String> shadowDocument = dataStore.getShadowDocument(documentId, clientId);
+        assertThat(shadowDocument.document().id(), equalTo(documentId));
+        assertThat(shadowDocument.document().clientId(), equalTo(clientId));
+        assertThat(shadowDocument.document().content(), equalTo(updatedVersion));
+        assertThat(shadowDocument.serverVersion(), is(0L));
+        assertThat(shadowDocument.clientVersion(), is(1L));
+    }
+
     @Test
     public void patch() {
         final String documentId = "1234";
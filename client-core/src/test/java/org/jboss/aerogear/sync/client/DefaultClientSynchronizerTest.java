@@ -74,6 +74,22 @@ public class DefaultClientSynchronizerTest {
         assertThat(patchedShadow.document().content(), equalTo(updatedVersion));
     }
 
+    @Test
+    public void patchShadowCompactDiffs() {
+        final String documentId = "1234";
+        final String clientId = "client1";
+        final ShadowDocument<String> clientShadow = shadowDocument(documentId, clientId, "Do or do not, there is no try.");
+
+        final Edit edit = DefaultEdit.withDocumentId(documentId)
+                .clientId(clientId)
+                .diff(new DefaultDiff(Diff.Operation.UNCHANGED, 29))
+                .diff(new DefaultDiff(Diff.Operation.DELETE, 1))
+                .add("!")
+                .build();
+        final ShadowDocument<String> patchedShadow = clientSynchronizer.patchShadow(edit, clientShadow);
+        assertThat(patchedShadow.document().content(), equalTo("Do or do not, there is no try!"));
+    }
+
     @Test
     public void patchDocument() {
         final String documentId = "1234";
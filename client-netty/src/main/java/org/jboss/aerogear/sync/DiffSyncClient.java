@@ -18,9 +18,11 @@ package org.jboss.aerogear.sync;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoop;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
@@ -28,6 +30,7 @@ import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.http.DefaultHttpHeaders;
 import io.netty.handler.codec.http.HttpClientCodec;
 import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketClientHandshakerFactory;
 import io.netty.handler.codec.http.websocketx.WebSocketVersion;
@@ -35,6 +38,8 @@ import io.netty.handler.codec.http.websocketx.extensions.compression.WebSocketCl
 import org.jboss.aerogear.sync.client.ClientInMemoryDataStore;
 import org.jboss.aerogear.sync.client.ClientSyncEngine;
 import org.jboss.aerogear.sync.client.DefaultClientSynchronizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -43,17 +48,32 @@ import java.util.Observer;
 
 /**
  * A Netty based WebSocket client that is able to handle differential synchronization edits.
+ * <p>
+ * All access to the underlying {@link ClientSyncEngine} happens on the event loop of the client's channel,
+ * which allows many clients to share a single {@link EventLoopGroup}, see {@link Builder#eventLoopGroup}.
+ * <p>
+ * A client that is built with {@link Builder#compactDiffs} asks the server for compact diffs, and sends its own
+ * edits in compact form once the server has shown that it reads them, see {@link JsonMapper#toCompactJson}.
+ * <p>
+ * A client that asks for the {@link BinaryMapper#SUBPROTOCOL} subprotocol with {@link Builder#subprotocols}, and
+ * whose server selects it, exchanges all messages as binary frames instead of JSON, see {@link BinaryMapper}.
  */
 public final class DiffSyncClient<T> extends Observable {
 
+    private static final Logger logger = LoggerFactory.getLogger(DiffSyncClient.class);
+
     private final String host;
     private final int port;
     private final String path;
     private final URI uri;
     private final ClientSyncEngine<T> syncEngine;
     private final String subprotocols;
+    private final boolean sharedGroup;
+    private final boolean compactDiffs;
     private EventLoopGroup group;
     private Channel channel;
+    private DiffSyncClientHandler syncHandler;
+    private volatile boolean binary;
 
     private DiffSyncClient(final Builder builder) {
         host = builder.host;
@@ -62,6 +82,9 @@ public final class DiffSyncClient<T> extends Observable {
         uri = builder.uri;
         subprotocols = builder.subprotocols;
         syncEngine = builder.engine;
+        group = builder.group;
+        sharedGroup = builder.group != null;
+        compactDiffs = builder.compactDiffs;
         if (builder.observer != null) {
             syncEngine.addObserver(builder.observer);
         }
@@ -69,9 +92,12 @@ public final class DiffSyncClient<T> extends Observable {
     
     public DiffSyncClient<T> connect() throws InterruptedException {
         final DiffSyncClientHandler diffSyncClientHandler = new DiffSyncClientHandler(syncEngine);
+        syncHandler = diffSyncClientHandler;
         final WebSocketClientHandler handler = newWebSocketClientHandler();
         final Bootstrap b = new Bootstrap();
-        group = new NioEventLoopGroup();
+        if (!sharedGroup) {
+            group = new NioEventLoopGroup();
+        }
         b.group(group).channel(NioSocketChannel.class);
         b.handler(new ChannelInitializer<SocketChannel>() {
             @Override
@@ -88,7 +114,8 @@ public final class DiffSyncClient<T> extends Observable {
 
         channel = b.connect(host, port).sync().channel();
         handler.handshakeFuture().sync();
-        System.out.println("SyncClient connected to " + host + ':' + port);
+        binary = BinaryMapper.SUBPROTOCOL.equals(handler.subprotocol());
+        logger.info("SyncClient connected to " + host + ':' + port);
         return this;
     }
 
@@ -101,38 +128,124 @@ public final class DiffSyncClient<T> extends Observable {
                 new DefaultHttpHeaders()));
     }
 
+    /**
+     * Adds the passed in document to the client's sync engine and sends it to the server.
+     * <p>
+     * If called from outside the client's event loop the work is handed over to the event loop, like
+     * {@link #diffAndSend(ClientDocument)} does.
+     *
+     * @param document the document to add.
+     */
     public void addDocument(final ClientDocument<T> document) {
+        final EventLoop eventLoop = channel.eventLoop();
+        if (!eventLoop.inEventLoop()) {
+            eventLoop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    addDocument(document);
+                }
+            });
+            return;
+        }
         syncEngine.addDocument(document);
-        if (channel.isOpen()) {
+        if (channel.isOpen() && binary) {
+            channel.writeAndFlush(binaryFrame(BinaryMapper.toBinary(document)));
+        } else if (channel.isOpen()) {
             final ObjectNode docMsg = message("add");
             docMsg.put("id", document.id());
             docMsg.put("clientId", document.clientId());
             docMsg.put("content", document.content().toString());
+            if (compactDiffs) {
+                docMsg.put("compact", true);
+            }
             channel.writeAndFlush(new TextWebSocketFrame(docMsg.toString()));
         } else {
             //TODO: store the messages in a queue. 
         }
     }
     
+    /**
+     * Detaches this client from a document, so that the server stops sending it updates and releases the shadow
+     * documents and pending edits it keeps for the client. The document itself stays on the server and can be
+     * added again later.
+     *
+     * @param documentId the id of the document to detach from.
+     * @param clientId the client id that was used to add the document.
+     */
+    public void detachDocument(final String documentId, final String clientId) {
+        if (channel.isOpen() && binary) {
+            channel.writeAndFlush(binaryFrame(BinaryMapper.toBinaryDetach(documentId, clientId)));
+        } else if (channel.isOpen()) {
+            final ObjectNode detachMsg = message("detach");
+            detachMsg.put("id", documentId);
+            detachMsg.put("clientId", clientId);
+            channel.writeAndFlush(new TextWebSocketFrame(detachMsg.toString()));
+        }
+    }
+
+    /**
+     * Diffs the passed in document against the shadow document and sends the resulting edits to the server.
+     * <p>
+     * If called from outside the client's event loop the work is handed over to the event loop, so that
+     * the diff does not race with patches that are received from the server.
+     *
+     * @param document the updated document.
+     */
     public void diffAndSend(final ClientDocument<T> document) {
+        final EventLoop eventLoop = channel.eventLoop();
+        if (!eventLoop.inEventLoop()) {
+            eventLoop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    diffAndSend(document);
+                }
+            });
+            return;
+        }
         final PatchMessage patchMessage = syncEngine.diff(document);
-        if (channel.isOpen()) {
-            channel.writeAndFlush(new TextWebSocketFrame(JsonMapper.toJson(patchMessage)));
+        if (channel.isOpen() && binary) {
+            channel.writeAndFlush(binaryFrame(BinaryMapper.toBinary(patchMessage)));
+        } else if (channel.isOpen()) {
+            channel.writeAndFlush(new TextWebSocketFrame(sendCompact()
+                    ? JsonMapper.toCompactJson(patchMessage)
+                    : JsonMapper.toJson(patchMessage)));
         } else {
             //TODO: store edits in a queue. 
         }
     }
     
+    private boolean sendCompact() {
+        return compactDiffs && syncHandler.serverReadsCompact();
+    }
+
+    private static BinaryWebSocketFrame binaryFrame(final byte[] message) {
+        return new BinaryWebSocketFrame(Unpooled.wrappedBuffer(message));
+    }
+
     private static ObjectNode message(final String type) {
         final ObjectNode jsonNode = JsonMapper.newObjectNode();
         jsonNode.put("msgType", type);
         return jsonNode;
     }
     
+    /**
+     * Returns the event loop that this client's channel is registered with.
+     * <p>
+     * Tasks that need a consistent view of the client's documents, for example reading the latest
+     * patched content and creating a new edit from it, can be run on this event loop.
+     *
+     * @return {@code EventLoop} the event loop of this client's channel.
+     */
+    public EventLoop eventLoop() {
+        return channel.eventLoop();
+    }
+
     public void disconnect() {
         channel.close();
-        group.shutdownGracefully();
-        System.out.println("SyncClient disconnected");
+        if (!sharedGroup) {
+            group.shutdownGracefully();
+        }
+        logger.info("SyncClient disconnected");
     }
     
     public static <T> Builder<T> forHost(final String host) {
@@ -149,6 +262,8 @@ public final class DiffSyncClient<T> extends Observable {
         private String subprotocols;
         private ClientSyncEngine<T> engine;
         private Observer observer;
+        private EventLoopGroup group;
+        private boolean compactDiffs;
         
         public Builder(final String host) {
             this.host = host;
@@ -169,6 +284,14 @@ public final class DiffSyncClient<T> extends Observable {
             return this;
         }
         
+        /**
+         * Specifies the WebSocket subprotocols to ask the server for, as a comma separated list. Asking for
+         * {@link BinaryMapper#SUBPROTOCOL} makes the client exchange binary messages with a server that selects it,
+         * and JSON with one that does not.
+         *
+         * @param subprotocols the subprotocols to ask for.
+         * @return {@code Builder} to allow method chaining.
+         */
         public Builder<T> subprotocols(final String subprotocols) {
             this.subprotocols = subprotocols;
             return this;
@@ -184,6 +307,34 @@ public final class DiffSyncClient<T> extends Observable {
             return this;
         }
         
+        /**
+         * Specifies an {@link EventLoopGroup} that this client should use instead of creating its own.
+         * <p>
+         * This allows a large number of clients to share the same event loops. A shared group is not shut down
+         * when the client disconnects, that is the responsibility of the caller.
+         *
+         * @param group the {@link EventLoopGroup} to be used.
+         * @return {@code Builder} to allow method chaining.
+         */
+        public Builder<T> eventLoopGroup(final EventLoopGroup group) {
+            this.group = group;
+            return this;
+        }
+
+        /**
+         * Specifies whether diffs should be exchanged in compact form, where unchanged and deleted text is sent
+         * as its length and taken from the shadow document by the receiver. Edits are only sent in compact form
+         * once the server has replied in compact form, so this can also be enabled for servers that do not
+         * support it.
+         *
+         * @param compactDiffs {@code true} to ask for compact diffs.
+         * @return {@code Builder} to allow method chaining.
+         */
+        public Builder<T> compactDiffs(final boolean compactDiffs) {
+            this.compactDiffs = compactDiffs;
+            return this;
+        }
+
         public DiffSyncClient<T> build() {
             if (engine == null) {
                 engine = new ClientSyncEngine(new DefaultClientSynchronizer(), new ClientInMemoryDataStore());
@@ -16,14 +16,15 @@
  */
 package org.jboss.aerogear.sync;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketFrame;
 import org.jboss.aerogear.sync.client.ClientSyncEngine;
-import org.jboss.aerogear.sync.server.MessageType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,6 +33,7 @@ public class DiffSyncClientHandler extends SimpleChannelInboundHandler<WebSocket
     private static final Logger logger = LoggerFactory.getLogger(DiffSyncClientHandler.class);
 
     private final ClientSyncEngine<?> syncEngine;
+    private volatile boolean serverReadsCompact;
 
     public DiffSyncClientHandler(final ClientSyncEngine<?> syncEngine) {
         this.syncEngine = syncEngine;
@@ -46,24 +48,41 @@ public class DiffSyncClientHandler extends SimpleChannelInboundHandler<WebSocket
         }
 
         if (frame instanceof TextWebSocketFrame) {
-            logger.info("TextWebSocketFrame: " + ((TextWebSocketFrame)frame).text());
-            final JsonNode json = JsonMapper.asJsonNode(((TextWebSocketFrame) frame).text());
-            logger.info("json: " + json);
-            switch (MessageType.from(json.get("msgType").asText())) {
-            case PATCH:
-                final PatchMessage serverPatchMessage = JsonMapper.fromJson(json.toString(), DefaultPatchMessage.class);
-                logger.info("Edits: " + serverPatchMessage);
-                patch(serverPatchMessage);
-                break;
-            case UNKNOWN:
-                unknownMessageType(ctx, json);
-                break;
-            }
+            handleMessage(ctx, readMessage(frame.content()));
+        } else if (frame instanceof BinaryWebSocketFrame) {
+            handleMessage(ctx, readBinaryMessage(frame.content()));
         } else {
             ctx.fireChannelRead(frame);
         }
     }
 
+    private void handleMessage(final ChannelHandlerContext ctx, final SyncMessage message) {
+        logger.debug("Received " + message);
+        switch (message.type()) {
+        case PATCH:
+            if (message.compact()) {
+                serverReadsCompact = true;
+            }
+            final PatchMessage serverPatchMessage = message.patchMessage();
+            logger.debug("Edits: " + serverPatchMessage);
+            patch(serverPatchMessage);
+            break;
+        case UNKNOWN:
+            unknownMessageType(ctx, message);
+            break;
+        }
+    }
+
+    /**
+     * Returns whether the server has sent a patch message in compact form, which means that it reads compact
+     * diffs too.
+     *
+     * @return {@code true} if edits can be sent to the server in compact form.
+     */
+    public boolean serverReadsCompact() {
+        return serverReadsCompact;
+    }
+
     private void patch(final PatchMessage clientEdit) {
         syncEngine.patch(clientEdit);
     }
@@ -73,8 +92,37 @@ public class DiffSyncClientHandler extends SimpleChannelInboundHandler<WebSocket
         logger.error("Caught exception", cause);
     }
 
-    private static void unknownMessageType(final ChannelHandlerContext ctx, final JsonNode json) {
-        ctx.channel().writeAndFlush(textFrame("{\"result\": \"Unknown msgType '" + json.get("msgType").asText() + "'\"}"));
+    private static void unknownMessageType(final ChannelHandlerContext ctx, final SyncMessage message) {
+        if (message.msgType() == null) {
+            // not a sync message, for example the reply to an unknown message, which must not be replied to.
+            logger.warn("Ignoring message without msgType: " + message);
+            return;
+        }
+        ctx.channel().writeAndFlush(textFrame("{\"result\": \"Unknown msgType '" + message.msgType() + "'\"}"));
+    }
+
+    /**
+     * Decodes a message straight from the content of a frame, without copying it into a string first.
+     */
+    private static SyncMessage readMessage(final ByteBuf content) {
+        if (content.hasArray()) {
+            return JsonMapper.readMessage(content.array(),
+                    content.arrayOffset() + content.readerIndex(),
+                    content.readableBytes());
+        }
+        return JsonMapper.readMessage(new ByteBufInputStream(content));
+    }
+
+    /**
+     * Decodes a binary message straight from the content of a frame, see {@link BinaryMapper}.
+     */
+    private static SyncMessage readBinaryMessage(final ByteBuf content) {
+        if (content.hasArray()) {
+            return BinaryMapper.readMessage(content.array(),
+                    content.arrayOffset() + content.readerIndex(),
+                    content.readableBytes());
+        }
+        return BinaryMapper.readMessage(new ByteBufInputStream(content));
     }
 
     private static TextWebSocketFrame textFrame(final String text) {
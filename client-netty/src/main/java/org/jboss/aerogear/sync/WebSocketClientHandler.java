@@ -6,15 +6,19 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.PongWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketClientHandshaker;
 import io.netty.handler.codec.http.websocketx.WebSocketFrame;
 import io.netty.util.CharsetUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class WebSocketClientHandler extends SimpleChannelInboundHandler<Object> {
-    
+
+    private static final Logger logger = LoggerFactory.getLogger(WebSocketClientHandler.class);
     private final WebSocketClientHandshaker handshaker;
     private ChannelPromise handshakeFuture;
 
@@ -26,6 +30,15 @@ public class WebSocketClientHandler extends SimpleChannelInboundHandler<Object>
         return handshakeFuture;
     }
 
+    /**
+     * Returns the subprotocol that the server selected during the handshake.
+     *
+     * @return {@code String} the selected subprotocol, or {@code null} if none was selected.
+     */
+    public String subprotocol() {
+        return handshaker.actualSubprotocol();
+    }
+
     @Override
     public void handlerAdded(final ChannelHandlerContext ctx) {
         handshakeFuture = ctx.newPromise();
@@ -38,7 +51,7 @@ public class WebSocketClientHandler extends SimpleChannelInboundHandler<Object>
 
     @Override
     public void channelInactive(final ChannelHandlerContext ctx) {
-        System.out.println("WebSocket Client disconnected!");
+        logger.debug("WebSocket Client disconnected!");
     }
 
     @Override
@@ -46,7 +59,7 @@ public class WebSocketClientHandler extends SimpleChannelInboundHandler<Object>
         final Channel ch = ctx.channel();
         if (!handshaker.isHandshakeComplete()) {
             handshaker.finishHandshake(ch, (FullHttpResponse) msg);
-            System.out.println("WebSocket Client connected!");
+            logger.debug("WebSocket Client connected!");
             handshakeFuture.setSuccess();
             return;
         }
@@ -61,19 +74,22 @@ public class WebSocketClientHandler extends SimpleChannelInboundHandler<Object>
         final WebSocketFrame frame = (WebSocketFrame) msg;
         if (frame instanceof TextWebSocketFrame) {
             TextWebSocketFrame textFrame = (TextWebSocketFrame) frame;
-            System.out.println("WebSocket Client received message: " + textFrame.text());
+            logger.debug("WebSocket Client received message: " + textFrame.text());
+            ctx.fireChannelRead(frame.retain());
+        } else if (frame instanceof BinaryWebSocketFrame) {
+            logger.debug("WebSocket Client received binary message");
             ctx.fireChannelRead(frame.retain());
         } else if (frame instanceof PongWebSocketFrame) {
-            System.out.println("WebSocket Client received pong");
+            logger.debug("WebSocket Client received pong");
         } else if (frame instanceof CloseWebSocketFrame) {
-            System.out.println("WebSocket Client received closing");
+            logger.debug("WebSocket Client received closing");
             ch.close();
         }
     }
 
     @Override
     public void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) {
-        cause.printStackTrace();
+        logger.error("Caught exception", cause);
         if (!handshakeFuture.isDone()) {
             handshakeFuture.setFailure(cause);
         }
@@ -0,0 +1,334 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Encodes and decodes sync messages in a binary format, which peers select with the {@link #SUBPROTOCOL} WebSocket
+ * subprotocol and exchange as binary frames. JSON, see {@link JsonMapper}, stays the default.
+ * <p>
+ * A message starts with the version of the format and the type of the message, followed by the document id and the
+ * client id. An {@code add} message then has the content of the document, a {@code patch} message its edits and a
+ * {@code detach} message nothing else. Strings are written as the varint of their UTF-8 length plus one, zero
+ * standing for {@code null}, followed by their bytes. Counts are varints, versions zigzag varints as a seed edit
+ * has client version -1.
+ * <p>
+ * Diffs are always compact: {@code UNCHANGED} and {@code DELETE} diffs are written as the length of their text,
+ * which the receiver takes from its shadow, see {@link Diff#text()}. Only {@code ADD} diffs carry their text.
+ */
+public final class BinaryMapper {
+
+    /**
+     * The WebSocket subprotocol that selects this format.
+     */
+    public static final String SUBPROTOCOL = "aerogear-sync-binary";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int VERSION = 1;
+    private static final int ADD_MESSAGE = 1;
+    private static final int PATCH_MESSAGE = 2;
+    private static final int DETACH_MESSAGE = 3;
+    private static final int UNCHANGED_DIFF = 0;
+    private static final int ADD_DIFF = 1;
+    private static final int DELETE_DIFF = 2;
+
+    private BinaryMapper() {
+    }
+
+    /**
+     * Encodes a patch message.
+     *
+     * @param patchMessage the patch message to encode.
+     * @return {@code byte[]} the encoded patch message.
+     */
+    public static byte[] toBinary(final PatchMessage patchMessage) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writePatchMessage(patchMessage, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes an encoded patch message to a stream.
+     *
+     * @param patchMessage the patch message to encode.
+     * @param out the stream to write to. It is not flushed or closed.
+     */
+    public static void writePatchMessage(final PatchMessage patchMessage, final OutputStream out) {
+        try {
+            writeHeader(PATCH_MESSAGE, patchMessage.documentId(), patchMessage.clientId(), out);
+            int edits = 0;
+            for (Edit edit : patchMessage.edits()) {
+                if (edit != null) {
+                    edits++;
+                }
+            }
+            writeVarint(edits, out);
+            for (Edit edit : patchMessage.edits()) {
+                if (edit == null) {
+                    continue;
+                }
+                writeVarint(zigzag(edit.clientVersion()), out);
+                writeVarint(zigzag(edit.serverVersion()), out);
+                writeString(edit.checksum(), out);
+                writeVarint(edit.diffs().size(), out);
+                for (Diff diff : edit.diffs()) {
+                    switch (diff.operation()) {
+                        case ADD:
+                            out.write(ADD_DIFF);
+                            writeString(diff.text(), out);
+                            break;
+                        case DELETE:
+                            out.write(DELETE_DIFF);
+                            writeVarint(diff.length(), out);
+                            break;
+                        default:
+                            out.write(UNCHANGED_DIFF);
+                            writeVarint(diff.length(), out);
+                            break;
+                    }
+                }
+            }
+        } catch (final IOException e) {
+            throw new RuntimeException("error trying to encode patch message [" + patchMessage + ']', e);
+        }
+    }
+
+    /**
+     * Encodes an {@code add} message, which adds a client to a document.
+     *
+     * @param document the document to add, its content is sent as a string.
+     * @return {@code byte[]} the encoded message.
+     */
+    public static byte[] toBinary(final ClientDocument<?> document) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            writeHeader(ADD_MESSAGE, document.id(), document.clientId(), out);
+            writeString(document.content() == null ? null : document.content().toString(), out);
+        } catch (final IOException e) {
+            throw new RuntimeException("error trying to encode document [" + document + ']', e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Encodes a {@code detach} message, which detaches a client from a document.
+     *
+     * @param documentId the id of the document.
+     * @param clientId the id of the client.
+     * @return {@code byte[]} the encoded message.
+     */
+    public static byte[] toBinaryDetach(final String documentId, final String clientId) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            writeHeader(DETACH_MESSAGE, documentId, clientId, out);
+        } catch (final IOException e) {
+            throw new RuntimeException("error trying to encode detach of document [" + documentId + ']', e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a message.
+     *
+     * @param bytes the array containing the message.
+     * @param offset the offset of the message in the array.
+     * @param length the length of the message.
+     * @return {@link SyncMessage} the decoded message, which has an unknown type if its type is not recognized.
+     * @throws IllegalArgumentException if the message is truncated or malformed, or has an unsupported version.
+     */
+    public static SyncMessage readMessage(final byte[] bytes, final int offset, final int length) {
+        return readMessage(new ByteArrayInputStream(bytes, offset, length));
+    }
+
+    /**
+     * Decodes a message from a stream, see {@link #readMessage(byte[], int, int)}.
+     *
+     * The stream has to hold the whole message, as the lengths and counts in the message are checked against the
+     * number of bytes that are {@link InputStream#available() available} before anything is allocated for them.
+     *
+     * @param in the stream to read the message from. It is not closed.
+     * @return {@link SyncMessage} the decoded message.
+     */
+    public static SyncMessage readMessage(final InputStream in) {
+        try {
+            final int version = readByte(in);
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported binary message version " + version);
+            }
+            final int type = readByte(in);
+            final String documentId = readString(in);
+            final String clientId = readString(in);
+            final Queue<Edit> edits = new ConcurrentLinkedQueue<Edit>();
+            switch (type) {
+                case ADD_MESSAGE:
+                    return new SyncMessage("add", documentId, clientId, readString(in), true, edits);
+                case PATCH_MESSAGE:
+                    readEdits(documentId, clientId, in, edits);
+                    return new SyncMessage("patch", documentId, clientId, null, true, edits);
+                case DETACH_MESSAGE:
+                    return new SyncMessage("detach", documentId, clientId, null, true, edits);
+                default:
+                    return new SyncMessage(null, documentId, clientId, null, true, edits);
+            }
+        } catch (final EOFException e) {
+            throw new IllegalArgumentException("Truncated binary message", e);
+        } catch (final IOException e) {
+            throw new RuntimeException("error trying to decode binary message", e);
+        }
+    }
+
+    private static void readEdits(final String documentId,
+                                  final String clientId,
+                                  final InputStream in,
+                                  final Queue<Edit> edits) throws IOException {
+        final int count = readSize(in);
+        for (int i = 0; i < count; i++) {
+            final DefaultEdit.Builder builder = DefaultEdit.withDocumentId(documentId)
+                    .clientId(clientId)
+                    .clientVersion(unzigzag(readVarlong(in)))
+                    .serverVersion(unzigzag(readVarlong(in)))
+                    .checksum(readString(in));
+            final int diffs = readSize(in);
+            for (int j = 0; j < diffs; j++) {
+                final int operation = readByte(in);
+                switch (operation) {
+                    case ADD_DIFF:
+                        builder.add(readString(in));
+                        break;
+                    case DELETE_DIFF:
+                        builder.diff(new DefaultDiff(Diff.Operation.DELETE, readVarint(in)));
+                        break;
+                    case UNCHANGED_DIFF:
+                        builder.diff(new DefaultDiff(Diff.Operation.UNCHANGED, readVarint(in)));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown diff operation " + operation);
+                }
+            }
+            edits.add(builder.build());
+        }
+    }
+
+    private static void writeHeader(final int type,
+                                    final String documentId,
+                                    final String clientId,
+                                    final OutputStream out) throws IOException {
+        out.write(VERSION);
+        out.write(type);
+        writeString(documentId, out);
+        writeString(clientId, out);
+    }
+
+    private static void writeString(final String value, final OutputStream out) throws IOException {
+        if (value == null) {
+            out.write(0);
+            return;
+        }
+        final byte[] bytes = value.getBytes(UTF_8);
+        writeVarint(bytes.length + 1, out);
+        out.write(bytes);
+    }
+
+    private static String readString(final InputStream in) throws IOException {
+        final int length = readVarint(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        checkRemaining(length, in);
+        final byte[] bytes = new byte[length];
+        int read = 0;
+        while (read < length) {
+            final int n = in.read(bytes, read, length - read);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            read += n;
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    private static void writeVarint(final long value, final OutputStream out) throws IOException {
+        long v = value;
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) (v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    private static int readVarint(final InputStream in) throws IOException {
+        final long value = readVarlong(in);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Length " + value + " is out of range");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Reads the number of edits or diffs that follow. Each of them takes at least one byte, so the count can not
+     * exceed the number of remaining bytes.
+     */
+    private static int readSize(final InputStream in) throws IOException {
+        final int size = readVarint(in);
+        checkRemaining(size, in);
+        return size;
+    }
+
+    private static void checkRemaining(final int size, final InputStream in) throws IOException {
+        final int remaining = in.available();
+        if (size > remaining) {
+            throw new IllegalArgumentException("Size " + size + " exceeds the " + remaining + " remaining bytes");
+        }
+    }
+
+    private static long readVarlong(final InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = readByte(in);
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    private static int readByte(final InputStream in) throws IOException {
+        final int b = in.read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        return b;
+    }
+
+    private static long zigzag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
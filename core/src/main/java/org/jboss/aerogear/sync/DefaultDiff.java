@@ -20,10 +20,32 @@ public class DefaultDiff implements Diff {
 
     private final Operation operation;
     private final String text;
+    private final int length;
 
     public DefaultDiff(final Operation operation, final String text) {
         this.operation = operation;
         this.text = text;
+        length = text == null ? 0 : text.length();
+    }
+
+    /**
+     * Creates a diff in compact form, which only knows the length of its text, see {@link Diff#text()}.
+     *
+     * @param operation the operation of the diff, {@code UNCHANGED} or {@code DELETE}.
+     * @param length the length of the text of the diff.
+     * @throws IllegalArgumentException if the operation is {@code ADD}, whose text is not known to the receiver,
+     *                                  or if the length is negative.
+     */
+    public DefaultDiff(final Operation operation, final int length) {
+        if (operation == Operation.ADD) {
+            throw new IllegalArgumentException("An ADD diff cannot be compact, its text is required");
+        }
+        if (length < 0) {
+            throw new IllegalArgumentException("length must not be negative, was " + length);
+        }
+        this.operation = operation;
+        this.length = length;
+        text = null;
     }
 
     @Override
@@ -36,6 +58,11 @@ public class DefaultDiff implements Diff {
         return text;
     }
 
+    @Override
+    public int length() {
+        return length;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -63,6 +90,9 @@ public class DefaultDiff implements Diff {
 
     @Override
     public String toString() {
+        if (text == null) {
+            return "DefaultDiff[operation=" + operation + ", length=" + length + ']';
+        }
         return "DefaultDiff[operation=" + operation + ", text=" + text + ']';
     }
 }
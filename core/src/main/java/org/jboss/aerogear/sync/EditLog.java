@@ -0,0 +1,219 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync;
+
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+
+/**
+ * The pending edits of a single client for a single document.
+ *
+ * Edits are appended to the end of a linked list and removed from its front, both in constant time. Reading the
+ * edits returns a snapshot that is not affected by later appends or removals, also in constant time, as the
+ * nodes of the list are never changed once they are published apart from linking the next node.
+ *
+ * Edits are expected to be appended in the order of their client version, which is the order in which both the
+ * client and the server engines create them. This allows {@link #removeUpTo(long)} to only look at the front of
+ * the log.
+ */
+public final class EditLog {
+
+    private static final State EMPTY = new State(null, null, 0);
+    private volatile State state = EMPTY;
+
+    /**
+     * Appends an edit to the end of this log.
+     *
+     * @param edit the edit to append.
+     */
+    public synchronized void append(final Edit edit) {
+        final Node node = new Node(edit);
+        final State current = state;
+        if (current.size == 0) {
+            state = new State(node, node, 1);
+        } else {
+            current.tail.next = node;
+            state = new State(current.head, node, current.size + 1);
+        }
+    }
+
+    /**
+     * Removes the edits from the front of this log that have a client version less than or equal to the passed
+     * in client version.
+     *
+     * @param clientVersion the client version up to which edits are removed.
+     */
+    public synchronized void removeUpTo(final long clientVersion) {
+        final State current = state;
+        Node head = current.head;
+        int size = current.size;
+        while (size > 0 && head.edit.clientVersion() <= clientVersion) {
+            head = head.next;
+            size--;
+        }
+        if (size != current.size) {
+            state = size == 0 ? EMPTY : new State(head, current.tail, size);
+        }
+    }
+
+    /**
+     * Removes all edits from this log.
+     */
+    public synchronized void clear() {
+        state = EMPTY;
+    }
+
+    /**
+     * Returns the number of edits in this log.
+     *
+     * @return {@code int} the number of edits.
+     */
+    public int size() {
+        return state.size;
+    }
+
+    /**
+     * Returns the edits in this log, oldest first.
+     *
+     * The returned queue belongs to the caller. Changing it does not change this log, and changes to this log
+     * are not visible in it.
+     *
+     * @return {@code Queue<Edit>} the edits in this log.
+     */
+    public Queue<Edit> snapshot() {
+        return new Snapshot(state);
+    }
+
+    private static final class Node {
+
+        private final Edit edit;
+        private volatile Node next;
+
+        Node(final Edit edit) {
+            this.edit = edit;
+        }
+    }
+
+    private static final class State {
+
+        private final Node head;
+        private final Node tail;
+        private final int size;
+
+        State(final Node head, final Node tail, final int size) {
+            this.head = head;
+            this.tail = tail;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A queue that reads the nodes of a {@link State} until it is modified, and is copied to a list of its own
+     * at that point.
+     */
+    private static final class Snapshot extends AbstractQueue<Edit> {
+
+        private final State state;
+        private LinkedList<Edit> edits;
+
+        Snapshot(final State state) {
+            this.state = state;
+        }
+
+        @Override
+        public Iterator<Edit> iterator() {
+            if (edits != null) {
+                return edits.iterator();
+            }
+            return new NodeIterator();
+        }
+
+        @Override
+        public int size() {
+            return edits != null ? edits.size() : state.size;
+        }
+
+        @Override
+        public boolean offer(final Edit edit) {
+            return copy().offer(edit);
+        }
+
+        @Override
+        public Edit poll() {
+            return isEmpty() ? null : copy().poll();
+        }
+
+        @Override
+        public Edit peek() {
+            if (edits != null) {
+                return edits.peek();
+            }
+            return state.size == 0 ? null : state.head.edit;
+        }
+
+        private LinkedList<Edit> copy() {
+            if (edits == null) {
+                final LinkedList<Edit> copy = new LinkedList<Edit>();
+                Node node = state.head;
+                for (int i = 0; i < state.size; i++) {
+                    copy.add(node.edit);
+                    node = node.next;
+                }
+                edits = copy;
+            }
+            return edits;
+        }
+
+        private final class NodeIterator implements Iterator<Edit> {
+
+            private Node next = state.head;
+            private int index;
+            private int removed;
+            private boolean canRemove;
+
+            @Override
+            public boolean hasNext() {
+                return index < state.size;
+            }
+
+            @Override
+            public Edit next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final Edit edit = next.edit;
+                next = next.next;
+                index++;
+                canRemove = true;
+                return edit;
+            }
+
+            @Override
+            public void remove() {
+                if (!canRemove) {
+                    throw new IllegalStateException();
+                }
+                copy().remove(index - removed - 1);
+                removed++;
+                canRemove = false;
+            }
+        }
+    }
+}
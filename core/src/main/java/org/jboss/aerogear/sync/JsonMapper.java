@@ -16,8 +16,10 @@
  */
 package org.jboss.aerogear.sync;
 
+import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.ObjectCodec;
 import com.fasterxml.jackson.core.Version;
 import com.fasterxml.jackson.databind.DeserializationContext;
@@ -32,6 +34,12 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.jboss.aerogear.sync.DefaultEdit.Builder;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
@@ -68,6 +76,21 @@ public final class JsonMapper {
         }
     }
 
+    /**
+     * Transforms from an already parsed JSON tree to the type specified.
+     *
+     * @param json the json tree to be transformed.
+     * @param type the Java type that the JSON should be transformed to.
+     * @return T an instance of the type populated with data from the json tree.
+     */
+    public static <T> T fromJson(final JsonNode json, final Class<T> type) {
+        try {
+            return om.treeToValue(json, type);
+        } catch (final Exception e) {
+            throw new RuntimeException("error trying to parse json [" + json + ']', e);
+        }
+    }
+
     /**
      * Transforms from Java object notation to JSON.
      *
@@ -82,6 +105,108 @@ public final class JsonMapper {
         }
     }
 
+    /**
+     * Writes the JSON of a Java object to a stream as UTF-8, without creating an intermediate string.
+     *
+     * @param obj the Java object to transform into JSON.
+     * @param out the stream to write the JSON to. It is flushed but not closed.
+     */
+    public static void toJson(final Object obj, final OutputStream out) {
+        try {
+            final JsonGenerator generator = om.getFactory().createGenerator(out, JsonEncoding.UTF8);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            try {
+                om.writeValue(generator, obj);
+            } finally {
+                // returns the generator's buffers for reuse, the stream is left open.
+                generator.close();
+            }
+        } catch (final Exception e) {
+            throw new RuntimeException("error trying to write json [" + obj + ']', e);
+        }
+    }
+
+    /**
+     * Transforms a patch message to JSON in compact form, where {@code UNCHANGED} and {@code DELETE} diffs carry
+     * the length of their text instead of the text itself. The receiver takes that text from the shadow that the
+     * edit is applied to, see {@link Diff#text()}, so a small change to a large document stays small on the wire.
+     * <p>
+     * The message has a {@code compact} field to let the receiver know that the sender reads compact diffs too.
+     * Only send compact messages to a peer that has announced this, as older peers require the text of every diff.
+     *
+     * @param patchMessage the patch message to transform.
+     * @return {@code String} the compact json representation of the patch message.
+     */
+    public static String toCompactJson(final PatchMessage patchMessage) {
+        try {
+            final StringWriter writer = new StringWriter();
+            final JsonGenerator generator = om.getFactory().createGenerator(writer);
+            try {
+                writePatchMessage(patchMessage, generator, true);
+            } finally {
+                generator.close();
+            }
+            return writer.toString();
+        } catch (final Exception e) {
+            throw new RuntimeException("error trying to write json [" + patchMessage + ']', e);
+        }
+    }
+
+    private static void writePatchMessage(final PatchMessage patchMessage,
+                                          final JsonGenerator jgen,
+                                          final boolean compact) throws IOException {
+        jgen.writeStartObject();
+        jgen.writeStringField("msgType", "patch");
+        jgen.writeStringField("id", patchMessage.documentId());
+        jgen.writeStringField("clientId", patchMessage.clientId());
+        if (compact) {
+            jgen.writeBooleanField("compact", true);
+        }
+        jgen.writeArrayFieldStart("edits");
+        for (Edit edit : patchMessage.edits()) {
+            if (edit == null) {
+                continue;
+            }
+            jgen.writeStartObject();
+            jgen.writeStringField("clientId", edit.clientId());
+            jgen.writeStringField("id", edit.documentId());
+            jgen.writeNumberField("clientVersion", edit.clientVersion());
+            jgen.writeNumberField("serverVersion", edit.serverVersion());
+            jgen.writeStringField("checksum", edit.checksum());
+            jgen.writeFieldName("diffs");
+            writeDiffs(edit.diffs(), jgen, compact);
+            jgen.writeEndObject();
+        }
+        jgen.writeEndArray();
+        jgen.writeEndObject();
+    }
+
+    /**
+     * Writes the diffs of an edit as a JSON array. In compact form {@code UNCHANGED} and {@code DELETE} diffs are
+     * written with their length only. Diffs that were received in compact form, and have no text, are always
+     * written that way.
+     *
+     * @param diffs the diffs to write.
+     * @param jgen the generator to write the JSON to.
+     * @param compact whether the diffs should be written in compact form.
+     * @throws IOException if writing to the generator fails.
+     */
+    public static void writeDiffs(final List<Diff> diffs, final JsonGenerator jgen, final boolean compact)
+            throws IOException {
+        jgen.writeStartArray();
+        for (Diff diff : diffs) {
+            jgen.writeStartObject();
+            jgen.writeStringField("operation", diff.operation().toString());
+            if (diff.text() == null || compact && diff.operation() != Diff.Operation.ADD) {
+                jgen.writeNumberField("length", diff.length());
+            } else {
+                jgen.writeStringField("text", diff.text());
+            }
+            jgen.writeEndObject();
+        }
+        jgen.writeEndArray();
+    }
+
     public static String toString(final JsonNode jsonNode) {
         try {
             return om.writeValueAsString(jsonNode);
@@ -104,6 +229,209 @@ public final class JsonMapper {
         }
     }
 
+    /**
+     * Decodes a sync message, reading its type, its document or its edits in a single pass over the JSON tokens
+     * without building a tree.
+     *
+     * @param json the JSON of the message.
+     * @return {@link SyncMessage} the decoded message.
+     */
+    public static SyncMessage readMessage(final String json) {
+        try {
+            return readMessage(om.getFactory().createParser(json));
+        } catch (final IOException e) {
+            throw new RuntimeException("error trying to parse json [" + json + ']', e);
+        }
+    }
+
+    /**
+     * Decodes a sync message from UTF-8 encoded bytes, see {@link #readMessage(String)}.
+     *
+     * @param bytes the array containing the JSON of the message.
+     * @param offset the offset of the message in the array.
+     * @param length the length of the message.
+     * @return {@link SyncMessage} the decoded message.
+     */
+    public static SyncMessage readMessage(final byte[] bytes, final int offset, final int length) {
+        try {
+            return readMessage(om.getFactory().createParser(bytes, offset, length));
+        } catch (final IOException e) {
+            throw new RuntimeException("error trying to parse json message", e);
+        }
+    }
+
+    /**
+     * Decodes a sync message from a stream of UTF-8 encoded bytes, see {@link #readMessage(String)}.
+     *
+     * @param in the stream to read the JSON of the message from. It is not closed.
+     * @return {@link SyncMessage} the decoded message.
+     */
+    public static SyncMessage readMessage(final InputStream in) {
+        try {
+            return readMessage(om.getFactory().createParser(in));
+        } catch (final IOException e) {
+            throw new RuntimeException("error trying to parse json message", e);
+        }
+    }
+
+    private static SyncMessage readMessage(final JsonParser jp) throws IOException {
+        try {
+            if (jp.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON object at " + jp.getCurrentLocation());
+            }
+            return readObject(jp);
+        } finally {
+            jp.close();
+        }
+    }
+
+    /**
+     * Reads the fields of a message from a parser positioned at the start of the message object, or at its first
+     * field. The edits are built once the whole message has been read, as they take the document and client ids of
+     * the message which may follow them.
+     */
+    private static SyncMessage readObject(final JsonParser jp) throws IOException {
+        String msgType = null;
+        String documentId = null;
+        String clientId = null;
+        String content = null;
+        boolean compact = false;
+        List<EditFields> editFields = null;
+        JsonToken token = jp.getCurrentToken() == JsonToken.START_OBJECT ? jp.nextToken() : jp.getCurrentToken();
+        for (; token == JsonToken.FIELD_NAME; token = jp.nextToken()) {
+            final String field = jp.getCurrentName();
+            final JsonToken value = jp.nextToken();
+            if ("msgType".equals(field)) {
+                msgType = textValue(jp);
+            } else if ("id".equals(field)) {
+                documentId = textValue(jp);
+            } else if ("clientId".equals(field)) {
+                clientId = textValue(jp);
+            } else if ("content".equals(field)) {
+                if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+                    content = toString(jp.<JsonNode>readValueAsTree());
+                } else {
+                    content = textValue(jp);
+                }
+            } else if ("compact".equals(field)) {
+                compact = value == JsonToken.VALUE_TRUE;
+            } else if ("edits".equals(field)) {
+                editFields = readEdits(jp);
+            } else {
+                jp.skipChildren();
+            }
+        }
+        final Queue<Edit> edits = new ConcurrentLinkedQueue<Edit>();
+        if (editFields != null) {
+            for (EditFields fields : editFields) {
+                edits.add(fields.build(documentId, clientId));
+            }
+        }
+        return new SyncMessage(msgType, documentId, clientId, content, compact, edits);
+    }
+
+    private static List<EditFields> readEdits(final JsonParser jp) throws IOException {
+        final List<EditFields> edits = new ArrayList<EditFields>();
+        if (jp.getCurrentToken() != JsonToken.START_ARRAY) {
+            jp.skipChildren();
+            return edits;
+        }
+        while (jp.nextToken() != JsonToken.END_ARRAY) {
+            if (jp.getCurrentToken() != JsonToken.START_OBJECT) {
+                jp.skipChildren();
+                continue;
+            }
+            final EditFields edit = new EditFields();
+            while (jp.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = jp.getCurrentName();
+                jp.nextToken();
+                if ("clientVersion".equals(field)) {
+                    edit.clientVersion = jp.getValueAsLong();
+                } else if ("serverVersion".equals(field)) {
+                    edit.serverVersion = jp.getValueAsLong();
+                } else if ("checksum".equals(field)) {
+                    edit.checksum = textValue(jp);
+                } else if ("diffs".equals(field)) {
+                    readDiffs(jp, edit.diffs);
+                } else {
+                    jp.skipChildren();
+                }
+            }
+            edits.add(edit);
+        }
+        return edits;
+    }
+
+    private static void readDiffs(final JsonParser jp, final LinkedList<Diff> diffs) throws IOException {
+        if (jp.getCurrentToken() != JsonToken.START_ARRAY) {
+            jp.skipChildren();
+            return;
+        }
+        while (jp.nextToken() != JsonToken.END_ARRAY) {
+            if (jp.getCurrentToken() != JsonToken.START_OBJECT) {
+                jp.skipChildren();
+                continue;
+            }
+            String operation = null;
+            String text = null;
+            int length = -1;
+            while (jp.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = jp.getCurrentName();
+                jp.nextToken();
+                if ("operation".equals(field)) {
+                    operation = textValue(jp);
+                } else if ("text".equals(field)) {
+                    text = textValue(jp);
+                } else if ("length".equals(field)) {
+                    length = jp.getValueAsInt(-1);
+                } else {
+                    jp.skipChildren();
+                }
+            }
+            diffs.add(newDiff(Diff.Operation.valueOf(operation), text, length));
+        }
+    }
+
+    /**
+     * Creates a diff with its text, or a compact diff if it only has a length.
+     */
+    private static Diff newDiff(final Diff.Operation operation, final String text, final int length) {
+        if (text == null && length >= 0) {
+            return new DefaultDiff(operation, length);
+        }
+        return new DefaultDiff(operation, text);
+    }
+
+    private static String textValue(final JsonParser jp) throws IOException {
+        final JsonToken token = jp.getCurrentToken();
+        if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+            jp.skipChildren();
+            return null;
+        }
+        return token == JsonToken.VALUE_NULL ? null : jp.getText();
+    }
+
+    /**
+     * The fields of an edit that has been read before the ids of the message it belongs to are known.
+     */
+    private static final class EditFields {
+
+        private long clientVersion;
+        private long serverVersion;
+        private String checksum;
+        private final LinkedList<Diff> diffs = new LinkedList<Diff>();
+
+        Edit build(final String documentId, final String clientId) {
+            return DefaultEdit.withDocumentId(documentId)
+                    .clientId(clientId)
+                    .clientVersion(clientVersion)
+                    .serverVersion(serverVersion)
+                    .checksum(checksum)
+                    .diffs(diffs)
+                    .build();
+        }
+    }
+
     public static ObjectNode newObjectNode() {
         return om.createObjectNode();
     }
@@ -116,34 +444,8 @@ public final class JsonMapper {
 
         @Override
         public DefaultPatchMessage deserialize(final JsonParser jp, final DeserializationContext ctxt) throws IOException {
-            final ObjectCodec oc = jp.getCodec();
-            final JsonNode node = oc.readTree(jp);
-            final String documentId = node.get("id").asText();
-            final String clientId = node.get("clientId").asText();
-            final JsonNode jsonEdits = node.get("edits");
-            final Queue<Edit> edits = new ConcurrentLinkedQueue<Edit>();
-            if (jsonEdits.isArray()) {
-                for (JsonNode edit : jsonEdits) {
-                    if (edit.isNull()) {
-                        continue;
-                    }
-                    final Builder eb = DefaultEdit.withDocumentId(documentId).clientId(clientId);
-                    eb.clientVersion(edit.get("clientVersion").asLong());
-                    eb.serverVersion(edit.get("serverVersion").asLong());
-                    eb.checksum(edit.get("checksum").asText());
-                    final JsonNode diffsNode = edit.get("diffs");
-                    if (diffsNode.isArray()) {
-                        for (JsonNode d : diffsNode) {
-                            if (d.isNull()) {
-                                continue;
-                            }
-                            eb.diff(new DefaultDiff(Diff.Operation.valueOf(d.get("operation").asText()), d.get("text").asText()));
-                        }
-                    }
-                    edits.add(eb.build());
-                }
-            }
-            return new DefaultPatchMessage(documentId, clientId, edits);
+            final SyncMessage message = readObject(jp);
+            return new DefaultPatchMessage(message.documentId(), message.clientId(), message.edits());
         }
     }
 
@@ -153,35 +455,7 @@ public final class JsonMapper {
         public void serialize(final PatchMessage patchMessage,
                               final JsonGenerator jgen,
                               final SerializerProvider provider) throws IOException {
-            jgen.writeStartObject();
-            jgen.writeStringField("msgType", "patch");
-            jgen.writeStringField("id", patchMessage.documentId());
-            jgen.writeStringField("clientId", patchMessage.clientId());
-            jgen.writeArrayFieldStart("edits");
-            for (Edit edit : patchMessage.edits()) {
-                if (edit == null) {
-                    continue;
-                }
-                jgen.writeStartObject();
-                jgen.writeStringField("clientId", edit.clientId());
-                jgen.writeStringField("id", edit.documentId());
-                jgen.writeNumberField("clientVersion", edit.clientVersion());
-                jgen.writeNumberField("serverVersion", edit.serverVersion());
-                jgen.writeStringField("checksum", edit.checksum());
-                jgen.writeArrayFieldStart("diffs");
-                if (!edit.diffs().isEmpty()) {
-                    for (Diff diff : edit.diffs()) {
-                        jgen.writeStartObject();
-                        jgen.writeStringField("operation", diff.operation().toString());
-                        jgen.writeStringField("text", diff.text());
-                        jgen.writeEndObject();
-                    }
-                    jgen.writeEndArray();
-                }
-                jgen.writeEndObject();
-            }
-            jgen.writeEndArray();
-            jgen.writeEndObject();
+            writePatchMessage(patchMessage, jgen, false);
         }
     }
 
@@ -199,7 +473,13 @@ public final class JsonMapper {
             final JsonNode diffsNode = edit.get("diffs");
             if (diffsNode.isArray()) {
                 for (JsonNode d : diffsNode) {
-                    eb.diff(new DefaultDiff(Diff.Operation.valueOf(d.get("operation").asText()), d.get("text").asText()));
+                    final Diff.Operation operation = Diff.Operation.valueOf(d.get("operation").asText());
+                    final JsonNode text = d.get("text");
+                    if (text == null && d.has("length")) {
+                        eb.diff(new DefaultDiff(operation, d.get("length").asInt()));
+                    } else {
+                        eb.diff(new DefaultDiff(operation, text.asText()));
+                    }
                 }
             }
             return eb.build();
@@ -219,16 +499,8 @@ public final class JsonMapper {
             jgen.writeNumberField("clientVersion", edit.clientVersion());
             jgen.writeNumberField("serverVersion", edit.serverVersion());
             jgen.writeStringField("checksum", edit.checksum());
-            jgen.writeArrayFieldStart("diffs");
-            if (!edit.diffs().isEmpty()) {
-                for (Diff diff : edit.diffs()) {
-                    jgen.writeStartObject();
-                    jgen.writeStringField("operation", diff.operation().toString());
-                    jgen.writeStringField("text", diff.text());
-                    jgen.writeEndObject();
-                }
-            }
-            jgen.writeEndArray();
+            jgen.writeFieldName("diffs");
+            writeDiffs(edit.diffs(), jgen, false);
         }
     }
 }
@@ -0,0 +1,115 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync;
+
+import org.jboss.aerogear.sync.server.MessageType;
+
+import java.util.Queue;
+
+/**
+ * A message exchanged between a sync client and a sync server, as decoded by
+ * {@link JsonMapper#readMessage(java.io.InputStream)}.
+ *
+ * Only the fields of the message's type are set: an {@code add} message has a document, a {@code patch} message
+ * has edits and a {@code detach} message only identifies the document and the client.
+ */
+public final class SyncMessage {
+
+    private final String msgType;
+    private final String documentId;
+    private final String clientId;
+    private final String content;
+    private final boolean compact;
+    private final Queue<Edit> edits;
+
+    SyncMessage(final String msgType,
+                final String documentId,
+                final String clientId,
+                final String content,
+                final boolean compact,
+                final Queue<Edit> edits) {
+        this.msgType = msgType;
+        this.documentId = documentId;
+        this.clientId = clientId;
+        this.content = content;
+        this.compact = compact;
+        this.edits = edits;
+    }
+
+    /**
+     * Returns the type of this message.
+     *
+     * @return {@link MessageType} the type of this message, {@link MessageType#UNKNOWN} if it is not recognized.
+     */
+    public MessageType type() {
+        return msgType == null ? MessageType.UNKNOWN : MessageType.from(msgType);
+    }
+
+    /**
+     * Returns the type of this message as it was sent.
+     *
+     * @return {@code String} the msgType field of this message, or {@code null} if it did not have one.
+     */
+    public String msgType() {
+        return msgType;
+    }
+
+    public String documentId() {
+        return documentId;
+    }
+
+    public String clientId() {
+        return clientId;
+    }
+
+    /**
+     * Returns whether the sender of this message reads diffs in compact form, see
+     * {@link JsonMapper#toCompactJson(PatchMessage)}.
+     *
+     * @return {@code true} if the message had a {@code compact} field set to {@code true}.
+     */
+    public boolean compact() {
+        return compact;
+    }
+
+    /**
+     * Returns the document of an {@code add} message. A JSON object or array content is returned as its JSON text.
+     *
+     * @return {@link Document} the document, with {@code null} content if the message did not have any.
+     */
+    public Document<String> document() {
+        return new DefaultDocument<String>(documentId, content);
+    }
+
+    /**
+     * Returns the patch message of a {@code patch} message.
+     *
+     * @return {@link PatchMessage} the patch message, without edits if the message did not have any.
+     */
+    public PatchMessage patchMessage() {
+        return new DefaultPatchMessage(documentId, clientId, edits);
+    }
+
+    Queue<Edit> edits() {
+        return edits;
+    }
+
+    @Override
+    public String toString() {
+        return "SyncMessage[msgType=" + msgType + ", documentId=" + documentId + ", clientId=" + clientId + ", compact=" + compact + ']';
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync;
+
+import org.jboss.aerogear.sync.server.MessageType;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.LinkedList;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class BinaryMapperTest {
+
+    @Test
+    public void readPatchMessage() {
+        final Edit edit = DefaultEdit.withDocumentId("1234")
+                .clientId("client1")
+                .clientVersion(-1)
+                .serverVersion(300)
+                .checksum("abc")
+                .unchanged("Do or do not, there is no try")
+                .delete(".")
+                .add("!\u00e9")
+                .build();
+        final PatchMessage patchMessage = new DefaultPatchMessage("1234", "client1",
+                new LinkedList<Edit>(Collections.singleton(edit)));
+        final byte[] bytes = BinaryMapper.toBinary(patchMessage);
+        final SyncMessage message = BinaryMapper.readMessage(bytes, 0, bytes.length);
+        assertThat(message.type(), is(MessageType.PATCH));
+        assertThat(message.compact(), is(true));
+        final PatchMessage decoded = message.patchMessage();
+        assertThat(decoded.documentId(), equalTo("1234"));
+        assertThat(decoded.clientId(), equalTo("client1"));
+        assertThat(decoded.edits().size(), is(1));
+        final Edit decodedEdit = decoded.edits().peek();
+        assertThat(decodedEdit.documentId(), equalTo("1234"));
+        assertThat(decodedEdit.clientId(), equalTo("client1"));
+        assertThat(decodedEdit.clientVersion(), is(-1L));
+        assertThat(decodedEdit.serverVersion(), is(300L));
+        assertThat(decodedEdit.checksum(), equalTo("abc"));
+        assertThat(decodedEdit.diffs().size(), is(3));
+        assertThat(decodedEdit.diffs().get(0).operation(), is(Diff.Operation.UNCHANGED));
+        assertThat(decodedEdit.diffs().get(0).text(), is(nullValue()));
+        assertThat(decodedEdit.diffs().get(0).length(), is(29));
+        assertThat(decodedEdit.diffs().get(1).operation(), is(Diff.Operation.DELETE));
+        assertThat(decodedEdit.diffs().get(1).length(), is(1));
+        assertThat(decodedEdit.diffs().get(2).operation(), is(Diff.Operation.ADD));
+        assertThat(decodedEdit.diffs().get(2).text(), equalTo("!\u00e9"));
+    }
+
+    @Test
+    public void readAddMessage() {
+        final byte[] bytes = BinaryMapper.toBinary(new DefaultClientDocument<String>("1234", "client1", "Fletch"));
+        final SyncMessage message = BinaryMapper.readMessage(bytes, 0, bytes.length);
+        assertThat(message.type(), is(MessageType.ADD));
+        assertThat(message.clientId(), equalTo("client1"));
+        assertThat(message.document().id(), equalTo("1234"));
+        assertThat(message.document().content(), equalTo("Fletch"));
+    }
+
+    @Test
+    public void readDetachMessage() {
+        final byte[] bytes = BinaryMapper.toBinaryDetach("1234", "client1");
+        final SyncMessage message = BinaryMapper.readMessage(bytes, 0, bytes.length);
+        assertThat(message.type(), is(MessageType.DETACH));
+        assertThat(message.documentId(), equalTo("1234"));
+        assertThat(message.clientId(), equalTo("client1"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readTruncatedMessage() {
+        final byte[] bytes = BinaryMapper.toBinaryDetach("1234", "client1");
+        BinaryMapper.readMessage(bytes, 0, bytes.length - 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readUnsupportedVersion() {
+        final byte[] bytes = BinaryMapper.toBinaryDetach("1234", "client1");
+        bytes[0] = 2;
+        BinaryMapper.readMessage(bytes, 0, bytes.length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readStringLongerThanMessage() {
+        final byte[] bytes = {1, 3, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 'a'};
+        BinaryMapper.readMessage(bytes, 0, bytes.length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readNegativeLength() {
+        // the length has its 64th bit set, its lower 32 bits alone would be a valid length of 5.
+        final byte[] bytes = {1, 3, (byte) 0x86, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80,
+                (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01, '1', '2', '3', '4', '5', 0};
+        BinaryMapper.readMessage(bytes, 0, bytes.length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readEditCountLargerThanMessage() {
+        final byte[] bytes = {1, 2, 0, 0, (byte) 0x80, (byte) 0x80, 0x40};
+        BinaryMapper.readMessage(bytes, 0, bytes.length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readDiffCountLargerThanMessage() {
+        final byte[] bytes = {1, 2, 0, 0, 1, 0, 0, 0, (byte) 0x80, (byte) 0x80, 0x40};
+        BinaryMapper.readMessage(bytes, 0, bytes.length);
+    }
+}
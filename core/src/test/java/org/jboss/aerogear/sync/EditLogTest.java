@@ -0,0 +1,116 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync;
+
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.Queue;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class EditLogTest {
+
+    @Test
+    public void append() {
+        final EditLog editLog = new EditLog();
+        final Edit editOne = edit(0);
+        final Edit editTwo = edit(1);
+        editLog.append(editOne);
+        editLog.append(editTwo);
+        final Queue<Edit> edits = editLog.snapshot();
+        assertThat(edits.size(), is(2));
+        final Iterator<Edit> iterator = edits.iterator();
+        assertThat(iterator.next(), sameInstance(editOne));
+        assertThat(iterator.next(), sameInstance(editTwo));
+        assertThat(iterator.hasNext(), is(false));
+    }
+
+    @Test
+    public void removeUpTo() {
+        final EditLog editLog = new EditLog();
+        editLog.append(edit(0));
+        editLog.append(edit(1));
+        final Edit editThree = edit(2);
+        editLog.append(editThree);
+        editLog.removeUpTo(1);
+        assertThat(editLog.size(), is(1));
+        assertThat(editLog.snapshot().peek(), sameInstance(editThree));
+        editLog.removeUpTo(2);
+        assertThat(editLog.size(), is(0));
+        assertThat(editLog.snapshot().peek(), is(nullValue()));
+    }
+
+    @Test
+    public void appendAfterRemovingAll() {
+        final EditLog editLog = new EditLog();
+        editLog.append(edit(0));
+        editLog.removeUpTo(0);
+        final Edit edit = edit(1);
+        editLog.append(edit);
+        assertThat(editLog.size(), is(1));
+        assertThat(editLog.snapshot().peek(), sameInstance(edit));
+    }
+
+    @Test
+    public void snapshotIsNotAffectedByLog() {
+        final EditLog editLog = new EditLog();
+        final Edit editOne = edit(0);
+        editLog.append(editOne);
+        final Queue<Edit> edits = editLog.snapshot();
+        editLog.append(edit(1));
+        editLog.removeUpTo(0);
+        assertThat(edits.size(), is(1));
+        assertThat(edits.peek(), sameInstance(editOne));
+        editLog.clear();
+        assertThat(edits.size(), is(1));
+    }
+
+    @Test
+    public void logIsNotAffectedBySnapshot() {
+        final EditLog editLog = new EditLog();
+        editLog.append(edit(0));
+        final Edit editTwo = edit(1);
+        editLog.append(editTwo);
+        final Queue<Edit> edits = editLog.snapshot();
+        final Iterator<Edit> iterator = edits.iterator();
+        iterator.next();
+        iterator.remove();
+        assertThat(iterator.next(), sameInstance(editTwo));
+        assertThat(edits.size(), is(1));
+        assertThat(edits.peek(), sameInstance(editTwo));
+        assertThat(edits.poll(), sameInstance(editTwo));
+        assertThat(edits.isEmpty(), is(true));
+        assertThat(editLog.size(), is(2));
+    }
+
+    @Test
+    public void clear() {
+        final EditLog editLog = new EditLog();
+        editLog.append(edit(0));
+        editLog.clear();
+        assertThat(editLog.size(), is(0));
+        assertThat(editLog.snapshot().isEmpty(), is(true));
+    }
+
+    private static Edit edit(final long clientVersion) {
+        return DefaultEdit.withDocumentId("1234").clientId("client1").clientVersion(clientVersion).build();
+    }
+}
@@ -35,6 +35,7 @@ import org.junit.Test;
 import java.util.List;
 import java.util.Queue;
 
+import static java.util.Arrays.asList;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.*;
@@ -45,13 +46,15 @@ public class ClientSyncEngineIntegrationTest {
 
     private ClientDataStore<String> dataStore;
     private ClientSyncEngine<String> clientSyncEngine;
+    private ServerInMemoryDataStore serverDataStore;
     private ServerSyncEngine<String> serverSyncEngine;
 
     @Before
     public void setup() {
         dataStore = new ClientInMemoryDataStore();
         clientSyncEngine = new ClientSyncEngine<String>(new DefaultClientSynchronizer(), dataStore);
-        serverSyncEngine = new ServerSyncEngine<String>(new DefaultServerSynchronizer(), new ServerInMemoryDataStore());
+        serverDataStore = new ServerInMemoryDataStore();
+        serverSyncEngine = new ServerSyncEngine<String>(new DefaultServerSynchronizer(), serverDataStore);
     }
 
     @Test
@@ -187,6 +190,70 @@ public class ClientSyncEngineIntegrationTest {
         assertThat(backupShadowDocument.shadow().document().content(), equalTo(secondVersion));
     }
 
+    @Test
+    public void readOnlyClientConvergesAtMaxPendingEdits() {
+        final String docId = "123456";
+        final Subscriber<?> writer = mock(Subscriber.class);
+        when(writer.clientId()).thenReturn("client1");
+        final Subscriber<?> reader = mock(Subscriber.class);
+        when(reader.clientId()).thenReturn("client2");
+        final String originalVersion = "Do or do not, there is no try.";
+        final List<String> versions = asList("Do or do not, there is no try!",
+                "Do or do nothing, there is no try!",
+                "Do or do nothing, there is no trying",
+                "Do, or do not. There is no try.",
+                "Do. Or do not. There is no try.");
+        serverSyncEngine.setMaxPendingEdits(2);
+
+        clientSyncEngine.addDocument(newClientDoc(docId, originalVersion, writer.clientId()));
+        clientSyncEngine.addDocument(newClientDoc(docId, originalVersion, reader.clientId()));
+        serverSyncEngine.addSubscriber(writer, newDoc(docId, originalVersion));
+        clientSyncEngine.patch(serverSyncEngine.addSubscriber(reader, newDoc(docId, originalVersion)));
+
+        for (String version : versions) {
+            serverSyncEngine.patch(clientSyncEngine.diff(newClientDoc(docId, version, writer.clientId())));
+            clientSyncEngine.patch(serverSyncEngine.diffs(docId, writer.clientId()));
+
+            // the reader only receives edits and never acknowledges them with a patch of its own.
+            clientSyncEngine.patch(serverSyncEngine.diffs(docId, reader.clientId()));
+            assertThat(dataStore.getClientDocument(docId, reader.clientId()).content(), equalTo(version));
+            assertThat(serverDataStore.getEdits(docId, reader.clientId()).size() <= 2, is(true));
+        }
+        assertThat(serverDataStore.getDocument(docId).content(), equalTo(versions.get(versions.size() - 1)));
+        assertThat(dataStore.getShadowDocument(docId, reader.clientId()).document().content(),
+                equalTo(serverDataStore.getShadowDocument(docId, reader.clientId()).document().content()));
+    }
+
+    @Test
+    public void patchAfterSyncStateRemoved() {
+        final String docId = "123456";
+        final Subscriber<?> subscriber = mock(Subscriber.class);
+        when(subscriber.clientId()).thenReturn("client1");
+        final String originalVersion = "Do or do not, there is no try.";
+
+        clientSyncEngine.addDocument(newClientDoc(docId, originalVersion, subscriber.clientId()));
+        clientSyncEngine.patch(serverSyncEngine.addSubscriber(subscriber, newDoc(docId, originalVersion)));
+        // the state of a client that is no longer subscribed is dropped when it is evicted.
+        serverDataStore.removeSyncState(docId, subscriber.clientId());
+        serverDataStore.updateDocument(newDoc(docId, "Yoda: Do or do not, there is no try."));
+
+        serverSyncEngine.patch(clientSyncEngine.diff(newClientDoc(docId, "Do or do not, there is no try!",
+                subscriber.clientId())));
+        clientSyncEngine.patch(serverSyncEngine.diffs(docId, subscriber.clientId()));
+
+        final String content = serverDataStore.getDocument(docId).content();
+        assertThat(content, equalTo("Yoda: Do or do not, there is no try!"));
+        assertThat(dataStore.getClientDocument(docId, subscriber.clientId()).content(), equalTo(content));
+        assertThat(dataStore.getShadowDocument(docId, subscriber.clientId()).document().content(), equalTo(content));
+        assertThat(dataStore.getEdits(docId, subscriber.clientId()).isEmpty(), is(true));
+
+        // the client continues from the new shadow.
+        serverSyncEngine.patch(clientSyncEngine.diff(newClientDoc(docId, "Yoda: Do, there is no try!",
+                subscriber.clientId())));
+        assertThat(serverDataStore.getDocument(docId).content(), equalTo("Yoda: Do, there is no try!"));
+        assertThat(serverDataStore.getEdits(docId, subscriber.clientId()).isEmpty(), is(true));
+    }
+
     private static ClientDocument<String> newClientDoc(final String documentId, final String content, final String clientId) {
         return new DefaultClientDocument<String>(documentId, clientId, content);
     }
@@ -0,0 +1,251 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server;
+
+import org.jboss.aerogear.sync.ClientDocument;
+import org.jboss.aerogear.sync.DefaultClientDocument;
+import org.jboss.aerogear.sync.DefaultDocument;
+import org.jboss.aerogear.sync.PatchMessage;
+import org.jboss.aerogear.sync.client.ClientInMemoryDataStore;
+import org.jboss.aerogear.sync.client.ClientSyncEngine;
+import org.jboss.aerogear.sync.client.DefaultClientSynchronizer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Exercises a single {@link ServerSyncEngine} from multiple threads.
+ *
+ * Every document has one client that writes to it and a number of clients that only read it. While the
+ * writer sends its edits, a second thread keeps asking the server for the diffs of the readers of the same
+ * document. Once done, all the readers must have the content of the writer.
+ *
+ * The same scenario is run with the subscribers of a document being notified by a fan-out executor.
+ */
+public class ServerSyncEngineConcurrencyTest {
+
+    private static final int DOCUMENTS = 4;
+    private static final int READERS = 8;
+    private static final int EDITS = 100;
+
+    private ServerSyncEngine<String> serverSyncEngine;
+    private ExecutorService executor;
+    private ExecutorService fanOutExecutor;
+
+    @Before
+    public void setup() {
+        serverSyncEngine = new ServerSyncEngine<String>(new DefaultServerSynchronizer(), new ServerInMemoryDataStore());
+        executor = Executors.newFixedThreadPool(DOCUMENTS * 2);
+        fanOutExecutor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+        fanOutExecutor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentPatchesAndDiffs() throws Exception {
+        patchAndDiffConcurrently();
+    }
+
+    @Test
+    public void concurrentPatchesAndDiffsWithFanOut() throws Exception {
+        serverSyncEngine.setFanOutExecutor(fanOutExecutor, 3);
+        patchAndDiffConcurrently();
+    }
+
+    private void patchAndDiffConcurrently() throws Exception {
+        final List<Client> writers = new ArrayList<Client>();
+        final List<List<Client>> readers = new ArrayList<List<Client>>();
+        for (int d = 0; d < DOCUMENTS; d++) {
+            final String documentId = UUID.randomUUID().toString();
+            final Client writer = addClient(documentId, "writer");
+            final List<Client> documentReaders = new ArrayList<Client>();
+            for (int r = 0; r < READERS; r++) {
+                documentReaders.add(addClient(documentId, "reader" + r));
+            }
+            writers.add(writer);
+            readers.add(documentReaders);
+        }
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int d = 0; d < DOCUMENTS; d++) {
+            final AtomicBoolean writing = new AtomicBoolean(true);
+            futures.add(executor.submit(new Writer(writers.get(d), start, writing)));
+            futures.add(executor.submit(new Poller(readers.get(d), start, writing, d)));
+        }
+        start.countDown();
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+
+        for (int d = 0; d < DOCUMENTS; d++) {
+            final String content = writers.get(d).content;
+            for (int e = 0; e < EDITS; e++) {
+                assertThat(content, containsString(token(e)));
+            }
+            for (Client reader : readers.get(d)) {
+                reader.patchReceived();
+                assertThat(reader.content, equalTo(content));
+            }
+        }
+    }
+
+    private Client addClient(final String documentId, final String clientId) {
+        final Client client = new Client(documentId, clientId);
+        client.engine.addDocument(new DefaultClientDocument<String>(documentId, clientId, "Start"));
+        client.engine.patch(serverSyncEngine.addSubscriber(client, new DefaultDocument<String>(documentId, "Start")));
+        return client;
+    }
+
+    private static String token(final int edit) {
+        return "<" + edit + '>';
+    }
+
+    /**
+     * Sends edits for a document, one at a time, processing the patches it has received before every edit.
+     */
+    private class Writer implements Callable<Void> {
+
+        private final Client client;
+        private final CountDownLatch start;
+        private final AtomicBoolean writing;
+
+        Writer(final Client client, final CountDownLatch start, final AtomicBoolean writing) {
+            this.client = client;
+            this.start = start;
+            this.writing = writing;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            start.await();
+            try {
+                for (int e = 0; e < EDITS; e++) {
+                    client.patchReceived();
+                    final String content = client.content + token(e);
+                    final PatchMessage patchMessage = client.engine.diff(
+                            new DefaultClientDocument<String>(client.documentId, client.clientId, content));
+                    serverSyncEngine.patchAndNotifySubscribers(patchMessage);
+                }
+                client.patchReceived();
+            } finally {
+                writing.set(false);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Requests the diffs of randomly chosen readers of a document while the writer of that document is busy.
+     */
+    private class Poller implements Callable<Void> {
+
+        private final List<Client> clients;
+        private final CountDownLatch start;
+        private final AtomicBoolean writing;
+        private final Random random;
+
+        Poller(final List<Client> clients, final CountDownLatch start, final AtomicBoolean writing, final long seed) {
+            this.clients = clients;
+            this.start = start;
+            this.writing = writing;
+            random = new Random(seed);
+        }
+
+        @Override
+        public Void call() throws Exception {
+            start.await();
+            for (int i = 0; i < EDITS && writing.get(); i++) {
+                final Client client = clients.get(random.nextInt(clients.size()));
+                client.patched(serverSyncEngine.diffs(client.documentId, client.clientId));
+                Thread.yield();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A client that queues the patches it receives from the server until they are processed by the thread
+     * that owns the client.
+     */
+    private static class Client implements Subscriber<String>, Observer {
+
+        private final ClientSyncEngine<String> engine;
+        private final ConcurrentLinkedQueue<PatchMessage> received = new ConcurrentLinkedQueue<PatchMessage>();
+        private final String documentId;
+        private final String clientId;
+        private volatile String content;
+
+        Client(final String documentId, final String clientId) {
+            this.documentId = documentId;
+            this.clientId = clientId;
+            engine = new ClientSyncEngine<String>(new DefaultClientSynchronizer(), new ClientInMemoryDataStore());
+            engine.addObserver(this);
+        }
+
+        @Override
+        public String clientId() {
+            return clientId;
+        }
+
+        @Override
+        public String channel() {
+            return documentId;
+        }
+
+        @Override
+        public void patched(final PatchMessage patchMessage) {
+            received.add(patchMessage);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void update(final Observable observable, final Object arg) {
+            content = ((ClientDocument<String>) arg).content();
+        }
+
+        void patchReceived() {
+            PatchMessage patchMessage;
+            while ((patchMessage = received.poll()) != null) {
+                engine.patch(patchMessage);
+            }
+        }
+    }
+
+}
@@ -85,6 +85,19 @@ public class ServerSyncEngineIntegrationTest {
         assertThat(shadowDocument.document().id(), equalTo(documentId));
     }
 
+    @Test
+    public void detachSubscriber() {
+        final String documentId = UUID.randomUUID().toString();
+        final MockSubscriber subscriber = new MockSubscriber("client1");
+        serverSyncEngine.addSubscriber(subscriber, newDoc(documentId, "What!"));
+        serverSyncEngine.addSubscriber(new MockSubscriber("client2"), newDoc(documentId, "What!"));
+        serverSyncEngine.detachSubscriber(subscriber, documentId);
+        assertThat(serverSyncEngine.subscribers(documentId).size(), is(1));
+        assertThat(dataStore.getShadowDocument(documentId, "client1"), is(nullValue()));
+        assertThat(dataStore.getShadowDocument(documentId, "client2"), is(notNullValue()));
+        assertThat(dataStore.getDocument(documentId).content(), equalTo("What!"));
+    }
+
     @Test
     public void patchOneVersion() {
         final String documentId = UUID.randomUUID().toString();
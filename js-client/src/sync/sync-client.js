@@ -9,6 +9,8 @@ Sync.Client = function ( config ) {
 
     var ws,
         sendQueue = [],
+        // set once the server has sent a compact patch message, which means it reads compact diffs too.
+        serverReadsCompact = false,
         that = this,
         syncEngine = config.syncEngine || new Sync.Engine();
 
@@ -26,7 +28,7 @@ Sync.Client = function ( config ) {
             console.log ( 'WebSocket opened. SendQueue.length=', sendQueue.length );
             while ( sendQueue.length ) {
                 var task = sendQueue.pop();
-                if ( task.type === 'add' ) {
+                if ( task.type !== 'patch' ) {
                     send ( task.type, task.msg );
                 } else {
                     that.sendEdits( task.msg );
@@ -62,6 +64,9 @@ Sync.Client = function ( config ) {
     };
 
     this.patch = function( data ) {
+        if ( data.compact ) {
+            serverReadsCompact = true;
+        }
         syncEngine.patch( data );
     };
 
@@ -86,7 +91,7 @@ Sync.Client = function ( config ) {
     this.sendEdits = function( edit ) {
         if ( ws.readyState === WebSocket.OPEN ) {
             console.log( 'sending edits:', edit );
-            ws.send( JSON.stringify( edit ) );
+            ws.send( JSON.stringify( config.compactDiffs && serverReadsCompact ? syncEngine.compact( edit ) : edit ) );
         } else {
             console.log("Client is not connected. Add edit to queue");
             if ( sendQueue.length === 0 ) {
@@ -110,7 +115,11 @@ Sync.Client = function ( config ) {
     };
 
     this.removeDoc = function( doc ) {
-        console.log( "removing  doc from engine" );
+        if ( ws.readyState === 0 ) {
+            sendQueue.push( { type: 'detach', msg: doc } );
+        } else if ( ws.readyState === 1 ) {
+            send( 'detach', doc );
+        }
     };
 
     this.update = function( docId ) {
@@ -121,7 +130,7 @@ Sync.Client = function ( config ) {
         } else {
             while ( sendQueue.length ) {
                 var task = sendQueue.shift();
-                if ( task.type === 'add' ) {
+                if ( task.type !== 'patch' ) {
                     send ( task.type, task.msg );
                 } else {
                     that.sendEdits( task.msg );
@@ -132,6 +141,10 @@ Sync.Client = function ( config ) {
 
     var send = function ( msgType, doc ) {
         var json = { msgType: msgType, id: doc.id, clientId: doc.clientId, content: doc.content };
+        if ( msgType === 'add' && config.compactDiffs ) {
+            // asks the server for compact diffs, where unchanged and deleted text is sent as its length.
+            json.compact = true;
+        }
         console.log ( 'sending ' + JSON.stringify ( json ) );
         ws.send( JSON.stringify ( json ) );
     };
@@ -114,12 +114,59 @@ Sync.Engine = function () {
         }.bind(this));
     };
 
-    this._asDiffMatchPathDiffs = function( diffs ) {
+    /**
+     * Converts diffs to diff_match_patch diffs. Compact diffs, which have a length instead of a text, take
+     * their text from the content that they are applied to.
+     *
+     * @param diffs the diffs of an edit.
+     * @param content the content that the diffs are applied to.
+     */
+    this._asDiffMatchPathDiffs = function( diffs, content ) {
+        var index = 0;
         return diffs.map(function ( value ) {
-            return [this._asDmpOperation ( value.operation ), value.text];
+            var text = value.text;
+            if ( text === undefined || text === null ) {
+                if ( index + value.length > content.length ) {
+                    throw "Compact diff of length '" + value.length + "' at index '" + index + "' exceeds the content length '" + content.length + "'";
+                }
+                text = content.substring( index, index + value.length );
+            }
+            if ( value.operation !== 'ADD' ) {
+                index += text.length;
+            }
+            return [this._asDmpOperation ( value.operation ), text];
         }.bind(this));
     };
 
+    /**
+     * Returns a copy of a patch message in compact form, where UNCHANGED and DELETE diffs only carry
+     * the length of their text. Only send compact messages to a server that has sent one itself.
+     *
+     * @param patchMsg the patch message to compact.
+     * @returns {object} the compact patch message.
+     */
+    this.compact = function( patchMsg ) {
+        return {
+            msgType: patchMsg.msgType,
+            id: patchMsg.id,
+            clientId: patchMsg.clientId,
+            compact: true,
+            edits: patchMsg.edits.map(function( edit ) {
+                return {
+                    clientVersion: edit.clientVersion,
+                    serverVersion: edit.serverVersion,
+                    checksum: edit.checksum,
+                    diffs: edit.diffs.map(function( diff ) {
+                        if ( diff.operation === 'ADD' || diff.text === undefined ) {
+                            return diff;
+                        }
+                        return { operation: diff.operation, length: diff.text.length };
+                    })
+                };
+            })
+        };
+    };
+
     this._asDmpOperation = function( op ) {
         if ( op === 'DELETE' ) {
             return -1;
@@ -169,6 +216,8 @@ Sync.Engine = function () {
                 // Good ,  Patch the shadow
                 this.applyEditsToShadow( edit, shadow );
                 if ( this._isSeeded( edit ) ) {
+                    // the server reset its shadow, so it can no longer apply the edits made against the old one.
+                    this._removeEdits( patchMsg.id );
                     shadow.clientVersion = 0;
                 } else if ( edit.clientVersion >= 0 ) {
                     shadow.serverVersion++;
@@ -194,7 +243,7 @@ Sync.Engine = function () {
         var doc, diffs, patches, patchResult;
 
         doc = typeof shadow.content === 'string' ? shadow.content : JSON.stringify( shadow.content );
-        diffs = this._asDiffMatchPathDiffs( edits.diffs );
+        diffs = this._asDiffMatchPathDiffs( edits.diffs, doc );
         patches = dmp.patch_make( doc, diffs );
 
         patchResult = dmp.patch_apply( patches, doc );
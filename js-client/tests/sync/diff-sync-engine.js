@@ -128,6 +128,38 @@
         equal( shadow.clientVersion, 0, 'Client version should not have been updated.' );
     });
 
+    test( 'patch shadow - compact diffs', function() {
+        var engine = Sync.Engine();
+        var dmp = new diff_match_patch();
+        var content = { name: 'Fletch' };
+        var doc = { id: 1234, clientId: 'client1', content: content };
+        var shadow;
+        engine.addDocument( doc );
+        doc.content.name = 'John Coctolstol';
+
+        shadow = engine.getShadow( doc.id );
+
+        var patchMsg = engine.compact({
+            msgType: 'patch',
+            id: doc.id,
+            clientId: shadow.clientId,
+            edits: [{
+                clientVersion: shadow.clientVersion,
+                serverVersion: shadow.serverVersion,
+                checksum: '',
+                diffs: engine._asAeroGearDiffs( dmp.diff_main( JSON.stringify( shadow.content ), JSON.stringify( doc.content ) ) )
+            }]
+        });
+        equal( patchMsg.compact, true, 'compact messages should be marked as such' );
+        equal( patchMsg.edits[0].diffs[0].operation, 'UNCHANGED', 'operation should be UNCHANGED' );
+        equal( patchMsg.edits[0].diffs[0].length, 9, 'UNCHANGED diffs should only have their length' );
+        equal( patchMsg.edits[0].diffs[0].text, undefined, 'UNCHANGED diffs should not have text' );
+
+        updatedShadow = engine.patchShadow( patchMsg );
+        equal( JSON.stringify(updatedShadow.content), '{"name":"John Coctolstol"}', 'name should have been updated to John Coctolstol' );
+        equal( shadow.serverVersion, 1, 'Server version should have been updated.' );
+    });
+
     test( 'already seen edit should be deleted', function() {
         var engine = Sync.Engine();
         var dmp = new diff_match_patch();
@@ -0,0 +1,224 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server;
+
+import org.jboss.aerogear.sync.Document;
+import org.jboss.aerogear.sync.PatchMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+/**
+ * An asynchronous facade for a {@link ServerSyncEngine}.
+ * <p>
+ * Every operation returns a {@link CompletionStage} instead of blocking the calling thread. When created with a
+ * {@link StripedExecutor} the operations are run on the executor using the document id as key, so operations on
+ * the same document complete in the order they were called, while the calling thread, for example a transport
+ * I/O thread, is free to go on with other work. Any blocking done by the {@link ServerDataStore} of the engine
+ * then happens on the executor threads.
+ * <p>
+ * When created without an executor the operations are run on the calling thread and the returned stages are
+ * already completed, which suits in-memory data stores.
+ *
+ * @param <T> The type of document that this implementation can handle.
+ */
+public class AsyncServerSyncEngine<T> {
+
+    private final ServerSyncEngine<T> syncEngine;
+    private final StripedExecutor executor;
+
+    /**
+     * Creates a facade that runs the operations on the calling thread.
+     *
+     * @param syncEngine the sync engine to delegate to.
+     */
+    public AsyncServerSyncEngine(final ServerSyncEngine<T> syncEngine) {
+        this(syncEngine, null);
+    }
+
+    /**
+     * Creates a facade that runs the operations on the passed-in executor.
+     *
+     * @param syncEngine the sync engine to delegate to.
+     * @param executor the executor to run the operations on, or {@code null} to run them on the calling thread.
+     */
+    public AsyncServerSyncEngine(final ServerSyncEngine<T> syncEngine, final StripedExecutor executor) {
+        this.syncEngine = syncEngine;
+        this.executor = executor;
+    }
+
+    /**
+     * See {@link ServerSyncEngine#addSubscriber(Subscriber, Document)}.
+     *
+     * @param subscriber the subscriber to add.
+     * @param document the document that the subscriber subscribes to.
+     * @return {@code CompletionStage} completed with the {@link PatchMessage} for the subscriber.
+     */
+    public CompletionStage<PatchMessage> addSubscriber(final Subscriber<?> subscriber, final Document<T> document) {
+        return submit(document.id(), () -> syncEngine.addSubscriber(subscriber, document));
+    }
+
+    /**
+     * See {@link ServerSyncEngine#addSubscriber(Subscriber, String)}.
+     *
+     * @param subscriber the subscriber to add.
+     * @param documentId the id of the document that the subscriber subscribes to.
+     * @return {@code CompletionStage} completed once the subscriber has been added.
+     */
+    public CompletionStage<Void> addSubscriber(final Subscriber<?> subscriber, final String documentId) {
+        return submit(documentId, () -> {
+            syncEngine.addSubscriber(subscriber, documentId);
+            return null;
+        });
+    }
+
+    /**
+     * See {@link ServerSyncEngine#removeSubscriber(Subscriber, String)}.
+     *
+     * @param subscriber the subscriber to remove.
+     * @param documentId the id of the document that the subscriber is subscribed to.
+     * @return {@code CompletionStage} completed once the subscriber has been removed.
+     */
+    public CompletionStage<Void> removeSubscriber(final Subscriber<?> subscriber, final String documentId) {
+        return submit(documentId, () -> {
+            syncEngine.removeSubscriber(subscriber, documentId);
+            return null;
+        });
+    }
+
+    /**
+     * See {@link ServerSyncEngine#detachSubscriber(Subscriber, String)}.
+     *
+     * @param subscriber the subscriber to detach.
+     * @param documentId the id of the document that the subscriber is subscribed to.
+     * @return {@code CompletionStage} completed once the subscriber and the state of its client have been removed.
+     */
+    public CompletionStage<Void> detachSubscriber(final Subscriber<?> subscriber, final String documentId) {
+        return submit(documentId, () -> {
+            syncEngine.detachSubscriber(subscriber, documentId);
+            return null;
+        });
+    }
+
+    /**
+     * See {@link ServerSyncEngine#removeSubscribers(Object)}.
+     * <p>
+     * The subscriptions of the channel may span many documents, so every lane of the executor removes the
+     * subscriptions to the documents of that lane. Each removal runs after the operations that were already submitted
+     * for those documents, including subscriptions of the channel that are still queued.
+     *
+     * @param channel the channel of the subscribers to remove.
+     * @return {@code CompletionStage} completed once the subscribers have been removed.
+     */
+    public CompletionStage<Void> removeSubscribers(final Object channel) {
+        if (executor == null) {
+            final CompletableFuture<Void> future = new CompletableFuture<Void>();
+            complete(future, () -> {
+                syncEngine.removeSubscribers(channel);
+                return null;
+            });
+            return future;
+        }
+        final List<CompletableFuture<Void>> removals = new ArrayList<CompletableFuture<Void>>();
+        try {
+            executor.executeOnEachLane(documentIds -> {
+                final CompletableFuture<Void> removal = new CompletableFuture<Void>();
+                removals.add(removal);
+                return () -> complete(removal, () -> {
+                    syncEngine.removeSubscribers(channel, documentIds);
+                    return null;
+                });
+            });
+        } catch (final RuntimeException e) {
+            final CompletableFuture<Void> future = new CompletableFuture<Void>();
+            future.completeExceptionally(e);
+            return future;
+        }
+        return CompletableFuture.allOf(removals.toArray(new CompletableFuture<?>[removals.size()]));
+    }
+
+    /**
+     * See {@link ServerSyncEngine#patch(PatchMessage)}.
+     *
+     * @param patchMessage the changes made by a client.
+     * @return {@code CompletionStage} completed with the passed-in {@link PatchMessage} once it has been applied.
+     */
+    public CompletionStage<PatchMessage> patch(final PatchMessage patchMessage) {
+        return submit(patchMessage.documentId(), () -> syncEngine.patch(patchMessage));
+    }
+
+    /**
+     * See {@link ServerSyncEngine#patchAndNotifySubscribers(PatchMessage)}.
+     *
+     * @param patchMessage the changes made by a client.
+     * @return {@code CompletionStage} completed with the passed-in {@link PatchMessage} once it has been applied
+     * and the subscribers have been notified.
+     */
+    public CompletionStage<PatchMessage> patchAndNotifySubscribers(final PatchMessage patchMessage) {
+        return submit(patchMessage.documentId(), () -> {
+            syncEngine.patchAndNotifySubscribers(patchMessage);
+            return patchMessage;
+        });
+    }
+
+    /**
+     * See {@link ServerSyncEngine#diffs(String, String)}.
+     *
+     * @param documentId the document id.
+     * @param clientId the client id.
+     * @return {@code CompletionStage} completed with the {@link PatchMessage} of pending edits for the client.
+     */
+    public CompletionStage<PatchMessage> diffs(final String documentId, final String clientId) {
+        return submit(documentId, () -> syncEngine.diffs(documentId, clientId));
+    }
+
+    /**
+     * Returns the sync engine that this facade delegates to.
+     *
+     * @return {@code ServerSyncEngine} the underlying sync engine.
+     */
+    public ServerSyncEngine<T> syncEngine() {
+        return syncEngine;
+    }
+
+    private <R> CompletionStage<R> submit(final String documentId, final Supplier<R> operation) {
+        final CompletableFuture<R> future = new CompletableFuture<R>();
+        if (executor == null) {
+            complete(future, operation);
+        } else {
+            try {
+                executor.execute(documentId, () -> complete(future, operation));
+            } catch (final RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }
+        return future;
+    }
+
+    private static <R> void complete(final CompletableFuture<R> future, final Supplier<R> operation) {
+        try {
+            future.complete(operation.get());
+        } catch (final Throwable t) {
+            // an Error too, or the future would never complete and leave its callers waiting
+            future.completeExceptionally(t);
+        }
+    }
+
+}
@@ -0,0 +1,215 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server;
+
+import org.jboss.aerogear.sync.BackupShadowDocument;
+import org.jboss.aerogear.sync.ClientDocument;
+import org.jboss.aerogear.sync.DefaultBackupShadowDocument;
+import org.jboss.aerogear.sync.DefaultClientDocument;
+import org.jboss.aerogear.sync.DefaultShadowDocument;
+import org.jboss.aerogear.sync.Diff;
+import org.jboss.aerogear.sync.Edit;
+import org.jboss.aerogear.sync.ShadowDocument;
+import org.jboss.aerogear.sync.common.DiffMatchPatch;
+import org.jboss.aerogear.sync.common.DiffMatchPatch.Operation;
+
+import java.util.LinkedList;
+
+/**
+ * A backup shadow document that is stored relative to the current shadow document of the same client.
+ * <p>
+ * Right after a client's edits have been applied the backup shadow is the shadow itself, and it is kept as it is.
+ * Once the server diffs the shadow, the backup is stored as a reverse delta that turns the content of the shadow
+ * back into the content of the backup, which for large documents is much smaller than a copy of the content. The
+ * delta is made from the diffs of the server edit by swapping additions and deletions, so storing it does not
+ * diff the content again. The backup shadow document is only reconstructed when it is read, which the engine only
+ * does to recover from a dropped server packet.
+ * <p>
+ * The delta is only valid for the shadow content it was made against, so a backup has to be rebased whenever the
+ * content of the shadow changes. When the shadow changes in some other way, for example because a client edit was
+ * applied to it, the backup keeps a reference to the previous content of the shadow instead.
+ * <p>
+ * Every server diff without a client patch in between adds a delta to the chain, and reconstructing the backup
+ * applies all of them. Once the chain is {@link #MAX_DEPTH} deltas deep, it is replaced by a single delta that is
+ * diffed from the new shadow to the reconstructed backup.
+ */
+final class BackupShadowDelta {
+
+    static final int MAX_DEPTH = 16;
+
+    private static final DiffMatchPatch DIFF_MATCH_PATCH = DiffMatchPatch.builder().build();
+
+    private final BackupShadowDocument<String> backup;
+    private final long version;
+    private final long serverVersion;
+    private final long clientVersion;
+    private final String delta;
+    private final String anchor;
+    private final BackupShadowDelta base;
+    private final int depth;
+
+    private BackupShadowDelta(final BackupShadowDocument<String> backup) {
+        this.backup = backup;
+        version = backup.version();
+        serverVersion = backup.shadow().serverVersion();
+        clientVersion = backup.shadow().clientVersion();
+        delta = null;
+        anchor = null;
+        base = null;
+        depth = 0;
+    }
+
+    private BackupShadowDelta(final BackupShadowDelta base, final String delta, final String anchor) {
+        this(base, delta, anchor, base.backup == null ? base : null);
+    }
+
+    private BackupShadowDelta(final BackupShadowDelta source,
+                              final String delta,
+                              final String anchor,
+                              final BackupShadowDelta base) {
+        backup = null;
+        version = source.version;
+        serverVersion = source.serverVersion;
+        clientVersion = source.clientVersion;
+        this.delta = delta;
+        this.anchor = anchor;
+        this.base = base;
+        depth = base == null ? 1 : base.depth + 1;
+    }
+
+    /**
+     * Creates a backup that is stored relative to the passed in shadow.
+     *
+     * @param backup the backup shadow document to store.
+     * @param shadow the current shadow document of the client, or {@code null} if it has none.
+     * @return {@code BackupShadowDelta} the stored backup.
+     */
+    static BackupShadowDelta of(final BackupShadowDocument<String> backup, final ShadowDocument<String> shadow) {
+        final String content = backup.shadow().document().content();
+        if (shadow != null && content != null && content != shadow.document().content()
+                && content.equals(shadow.document().content())) {
+            return new BackupShadowDelta(backupShadow(backup.version(),
+                    backup.shadow().serverVersion(),
+                    backup.shadow().clientVersion(),
+                    shadow.document()));
+        }
+        return new BackupShadowDelta(backup);
+    }
+
+    /**
+     * Returns this backup stored relative to a new shadow.
+     *
+     * @param previous the shadow that this backup is stored relative to.
+     * @param shadow the shadow that replaces it.
+     * @param edit the server edit that was diffed from the previous shadow to the new one, or {@code null} if the
+     * shadow changed in some other way.
+     * @return {@code BackupShadowDelta} this backup if it does not depend on the content of the shadow, otherwise a
+     * new backup.
+     */
+    BackupShadowDelta rebase(final ShadowDocument<String> previous,
+                             final ShadowDocument<String> shadow,
+                             final Edit edit) {
+        if (previous == null || previous.document().content() == shadow.document().content() || anchor != null) {
+            return this;
+        }
+        if (backup != null && backup.shadow().document().content() != previous.document().content()) {
+            return this;
+        }
+        final String reverse = edit == null ? null : reverseDelta(edit);
+        if (reverse == null) {
+            return backup != null ? this : new BackupShadowDelta(this, null, previous.document().content());
+        }
+        if (depth >= MAX_DEPTH) {
+            return collapse(previous, shadow);
+        }
+        return new BackupShadowDelta(this, reverse, null);
+    }
+
+    /**
+     * Returns the number of deltas that are applied to reconstruct this backup.
+     */
+    int depth() {
+        return depth;
+    }
+
+    /**
+     * Replaces the chain of deltas with a single delta from the content of the new shadow.
+     */
+    private BackupShadowDelta collapse(final ShadowDocument<String> previous, final ShadowDocument<String> shadow) {
+        final String content = restore(previous).shadow().document().content();
+        final String delta = DIFF_MATCH_PATCH.diffToDelta(DIFF_MATCH_PATCH.diffMain(shadow.document().content(),
+                content));
+        return new BackupShadowDelta(this, delta, null, null);
+    }
+
+    /**
+     * Reconstructs the backup shadow document.
+     *
+     * @param shadow the shadow that this backup is stored relative to.
+     * @return {@code BackupShadowDocument} the backup shadow document.
+     */
+    BackupShadowDocument<String> restore(final ShadowDocument<String> shadow) {
+        if (backup != null) {
+            return backup;
+        }
+        final ClientDocument<String> document = shadow.document();
+        String content = document.content();
+        for (BackupShadowDelta current = this; current != null; current = current.base) {
+            content = current.anchor != null
+                    ? current.anchor
+                    : DIFF_MATCH_PATCH.diffText2(DIFF_MATCH_PATCH.diffFromDelta(content, current.delta));
+        }
+        return backupShadow(version,
+                serverVersion,
+                clientVersion,
+                new DefaultClientDocument<String>(document.id(), document.clientId(), content));
+    }
+
+    /**
+     * Creates the delta that undoes the passed in edit, or returns {@code null} if the edit is in compact form
+     * and does not carry the text that it deletes.
+     */
+    private static String reverseDelta(final Edit edit) {
+        final LinkedList<DiffMatchPatch.Diff> diffs = new LinkedList<DiffMatchPatch.Diff>();
+        for (Diff diff : edit.diffs()) {
+            if (diff.text() == null) {
+                return null;
+            }
+            switch (diff.operation()) {
+                case ADD:
+                    diffs.add(DiffMatchPatch.diff(Operation.DELETE, diff.text()));
+                    break;
+                case DELETE:
+                    diffs.add(DiffMatchPatch.diff(Operation.INSERT, diff.text()));
+                    break;
+                case UNCHANGED:
+                    diffs.add(DiffMatchPatch.diff(Operation.EQUAL, diff.text()));
+                    break;
+            }
+        }
+        return DIFF_MATCH_PATCH.diffToDelta(diffs);
+    }
+
+    private static BackupShadowDocument<String> backupShadow(final long version,
+                                                             final long serverVersion,
+                                                             final long clientVersion,
+                                                             final ClientDocument<String> document) {
+        return new DefaultBackupShadowDocument<String>(version,
+                new DefaultShadowDocument<String>(serverVersion, clientVersion, document));
+    }
+
+}
@@ -0,0 +1,115 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A table of document contents that hands out a single instance for all equal contents.
+ * <p>
+ * The shadows of the clients of a document mostly have the same content as the document or as
+ * each other, but contents that are patched or merged separately are equal without being the same instance. Every
+ * stored reference to a content retains it in this table, and releases it when it is replaced or removed. A content
+ * is dropped from the table once it is no longer retained, so the table only holds contents that are stored anyway.
+ *
+ * @param <T> The type of the document content.
+ */
+final class ContentTable<T> {
+
+    private final ConcurrentHashMap<T, Entry<T>> entries = new ConcurrentHashMap<T, Entry<T>>();
+
+    /**
+     * Retains the passed in content.
+     *
+     * @param content the content to retain, may be {@code null}.
+     * @return {@code T} the instance of the table that is equal to the content, which has to be released again.
+     */
+    T retain(final T content) {
+        if (content == null) {
+            return null;
+        }
+        while (true) {
+            final Entry<T> entry = entries.get(content);
+            if (entry == null) {
+                if (entries.putIfAbsent(content, new Entry<T>(content)) == null) {
+                    return content;
+                }
+            } else if (entry.retain()) {
+                return entry.content;
+            } else {
+                entries.remove(content, entry);
+            }
+        }
+    }
+
+    /**
+     * Releases a content that was returned by {@link #retain(Object)}.
+     *
+     * @param content the content to release, may be {@code null}.
+     */
+    void release(final T content) {
+        if (content == null) {
+            return;
+        }
+        final Entry<T> entry = entries.get(content);
+        if (entry != null && entry.content == content && entry.release()) {
+            entries.remove(content, entry);
+        }
+    }
+
+    /**
+     * Returns the number of distinct contents in this table.
+     *
+     * @return {@code int} the number of contents that are retained.
+     */
+    int size() {
+        return entries.size();
+    }
+
+    private static final class Entry<T> {
+
+        private final T content;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        Entry(final T content) {
+            this.content = content;
+        }
+
+        /**
+         * Adds a reference, unless the last reference has already been released.
+         */
+        boolean retain() {
+            while (true) {
+                final int current = references.get();
+                if (current == 0) {
+                    return false;
+                }
+                if (references.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Removes a reference and returns true if it was the last one.
+         */
+        boolean release() {
+            return references.decrementAndGet() == 0;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server;
+
+import org.jboss.aerogear.sync.Edit;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the server side diffs for a single document.
+ *
+ * Subscribers of a document often have shadows with identical content, and diffing the document against
+ * those shadows produces identical diffs. This cache stores one {@link Edit} per distinct shadow content for the
+ * current content of the document. When the content of the document changes all cached edits are discarded.
+ *
+ * The number of cached edits is bounded, with the least recently used edit being evicted first.
+ *
+ * @param <T> The type of the document content.
+ */
+final class DiffCache<T> {
+
+    private final LinkedHashMap<T, Edit> edits;
+    private T target;
+
+    DiffCache(final int maxEntries) {
+        edits = new LinkedHashMap<T, Edit>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<T, Edit> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached edit for the passed in document and shadow content.
+     *
+     * @param target the content of the document that was diffed.
+     * @param shadowContent the content of the shadow that the document was diffed against.
+     * @return {@link Edit} the cached edit or {@code null} if no edit has been cached.
+     */
+    synchronized Edit get(final T target, final T shadowContent) {
+        if (!isTarget(target)) {
+            return null;
+        }
+        return edits.get(shadowContent);
+    }
+
+    /**
+     * Caches the edit for the passed in document and shadow content. If the document content is not the
+     * content that the currently cached edits were created for, those edits are discarded first.
+     *
+     * @param target the content of the document that was diffed.
+     * @param shadowContent the content of the shadow that the document was diffed against.
+     * @param edit the edit produced by the diff.
+     */
+    synchronized void put(final T target, final T shadowContent, final Edit edit) {
+        if (!isTarget(target)) {
+            edits.clear();
+            this.target = target;
+        }
+        edits.put(shadowContent, edit);
+    }
+
+    synchronized int size() {
+        return edits.size();
+    }
+
+    private boolean isTarget(final T content) {
+        return target == content || target != null && target.equals(content);
+    }
+
+}
@@ -0,0 +1,115 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Determines which sync states and documents {@link ServerInMemoryDataStore#evict} removes from memory.
+ * <p>
+ * The sync state of a client, which is its shadow, backup shadow and pending edits, is evicted once it has not been
+ * used for the sync state idle time and the client is no longer subscribed to the document. A document is evicted
+ * once none of its clients has a sync state left and it has not been used for the document idle time, or, when
+ * there are more documents in memory than the maximum, in least recently used order.
+ */
+public final class EvictionPolicy {
+
+    private final long syncStateIdleTime;
+    private final long documentIdleTime;
+    private final int maxDocuments;
+
+    private EvictionPolicy(final Builder builder) {
+        syncStateIdleTime = builder.syncStateIdleTime;
+        documentIdleTime = builder.documentIdleTime;
+        maxDocuments = builder.maxDocuments;
+    }
+
+    /**
+     * The time after which the sync state of a client that is no longer subscribed is evicted. Zero means that
+     * sync states are never evicted.
+     *
+     * @return {@code long} the sync state idle time in milliseconds.
+     */
+    public long syncStateIdleTime() {
+        return syncStateIdleTime;
+    }
+
+    /**
+     * The time after which a document without sync states is evicted. Zero means that documents are not evicted
+     * because they are idle.
+     *
+     * @return {@code long} the document idle time in milliseconds.
+     */
+    public long documentIdleTime() {
+        return documentIdleTime;
+    }
+
+    /**
+     * The maximum number of documents that are kept in memory. Zero means that there is no limit.
+     *
+     * @return {@code int} the maximum number of documents.
+     */
+    public int maxDocuments() {
+        return maxDocuments;
+    }
+
+    @Override
+    public String toString() {
+        return "EvictionPolicy[syncStateIdleTime=" + syncStateIdleTime +
+                ", documentIdleTime=" + documentIdleTime +
+                ", maxDocuments=" + maxDocuments + ']';
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private long syncStateIdleTime;
+        private long documentIdleTime;
+        private int maxDocuments;
+
+        public Builder syncStateIdleTime(final long idleTime, final TimeUnit unit) {
+            if (idleTime < 0) {
+                throw new IllegalArgumentException("syncStateIdleTime must not be negative but was: " + idleTime);
+            }
+            syncStateIdleTime = unit.toMillis(idleTime);
+            return this;
+        }
+
+        public Builder documentIdleTime(final long idleTime, final TimeUnit unit) {
+            if (idleTime < 0) {
+                throw new IllegalArgumentException("documentIdleTime must not be negative but was: " + idleTime);
+            }
+            documentIdleTime = unit.toMillis(idleTime);
+            return this;
+        }
+
+        public Builder maxDocuments(final int maxDocuments) {
+            if (maxDocuments < 0) {
+                throw new IllegalArgumentException("maxDocuments must not be negative but was: " + maxDocuments);
+            }
+            this.maxDocuments = maxDocuments;
+            return this;
+        }
+
+        public EvictionPolicy build() {
+            return new EvictionPolicy(this);
+        }
+    }
+
+}
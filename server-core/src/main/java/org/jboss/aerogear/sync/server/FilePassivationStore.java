@@ -0,0 +1,109 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server;
+
+import org.jboss.aerogear.sync.DefaultDocument;
+import org.jboss.aerogear.sync.Document;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A {@link PassivationStore} that keeps each passivated document in a file of its own in a local directory.
+ * <p>
+ * The file is named after the URL encoded document id and holds the UTF-8 encoded content. Documents are written
+ * to a temporary file first and then moved into place, so a document that is reloaded is never partially written.
+ */
+public final class FilePassivationStore implements PassivationStore {
+
+    private static final String SUFFIX = ".doc";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+
+    /**
+     * Creates a store that uses the passed in directory, which is created if it does not exist.
+     *
+     * @param directory the directory to store documents in.
+     * @throws UncheckedIOException if the directory could not be created.
+     */
+    public FilePassivationStore(final Path directory) {
+        try {
+            this.directory = Files.createDirectories(directory);
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Could not create passivation directory " + directory, e);
+        }
+    }
+
+    @Override
+    public void passivate(final Document<String> document) {
+        final Path file = file(document.id());
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(directory, null, TMP_SUFFIX);
+            Files.write(tmp, document.content().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException e) {
+            deleteIfExists(tmp);
+            throw new UncheckedIOException("Could not passivate document " + document.id() + " to " + file, e);
+        }
+    }
+
+    @Override
+    public Document<String> activate(final String documentId) {
+        final Path file = file(documentId);
+        try {
+            final byte[] content = Files.readAllBytes(file);
+            Files.delete(file);
+            return new DefaultDocument<String>(documentId, new String(content, StandardCharsets.UTF_8));
+        } catch (final NoSuchFileException e) {
+            return null;
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Could not activate document " + documentId + " from " + file, e);
+        }
+    }
+
+    private Path file(final String documentId) {
+        try {
+            return directory.resolve(URLEncoder.encode(documentId, "UTF-8") + SUFFIX);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void deleteIfExists(final Path file) {
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (final IOException ignored) {
+                // the passivation already failed, which is what gets reported
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FilePassivationStore[directory=" + directory + ']';
+    }
+
+}
@@ -0,0 +1,44 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server;
+
+import org.jboss.aerogear.sync.Document;
+
+/**
+ * A store outside of the heap that a {@link ServerInMemoryDataStore} passivates evicted documents to, and that it
+ * reloads them from when they are used again.
+ */
+public interface PassivationStore {
+
+    /**
+     * Stores the passed in document, replacing an earlier passivated version of it.
+     *
+     * @param document the document to passivate.
+     * @throws java.io.UncheckedIOException if the document could not be stored.
+     */
+    void passivate(Document<String> document);
+
+    /**
+     * Removes a passivated document from this store and returns it.
+     *
+     * @param documentId the id of the document.
+     * @return {@code Document} the passivated document, or {@code null} if it was not passivated.
+     * @throws java.io.UncheckedIOException if the document could not be read.
+     */
+    Document<String> activate(String documentId);
+
+}
@@ -18,171 +18,495 @@ package org.jboss.aerogear.sync.server;
 
 import org.jboss.aerogear.sync.BackupShadowDocument;
 import org.jboss.aerogear.sync.ClientDocument;
+import org.jboss.aerogear.sync.DefaultClientDocument;
+import org.jboss.aerogear.sync.DefaultDocument;
+import org.jboss.aerogear.sync.DefaultShadowDocument;
 import org.jboss.aerogear.sync.Document;
 import org.jboss.aerogear.sync.Edit;
+import org.jboss.aerogear.sync.EditLog;
 import org.jboss.aerogear.sync.ShadowDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.Iterator;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
+/**
+ * A {@link ServerDataStore} that keeps everything in memory.
+ *
+ * The shadow, backup shadow and pending edits of a client are kept together in a single {@link SyncState}, and
+ * the sync states of a document are kept in a map of their own. Looking up the state of a client therefore takes
+ * two lookups with the plain document and client ids, instead of one lookup per kind of state with a key that
+ * combines both ids.
+ *
+ * Documents and shadows with equal content share a single content instance, see {@link ContentTable}. With many
+ * subscribers of a large document this keeps one copy of each version of the document in memory rather than one per
+ * subscriber. Backup shadows are stored relative to the shadow of the same client, see {@link BackupShadowDelta}.
+ *
+ * Nothing is removed from memory unless {@link #evict(EvictionPolicy, Function)} is called, usually periodically.
+ * Evicted documents can be passivated to a {@link PassivationStore}, from which they are reloaded on the next
+ * {@link #getDocument(String)}.
+ */
 public class ServerInMemoryDataStore implements ServerDataStore<String> {
 
+    private static final Logger logger = LoggerFactory.getLogger(ServerInMemoryDataStore.class);
     private static final Queue<Edit> EMPTY_QUEUE = new LinkedList<Edit>();
-    private final ConcurrentMap<String, Document<String>> documents = new ConcurrentHashMap<String, Document<String>>();
-    private final ConcurrentMap<Id, ShadowDocument<String>> shadows = new ConcurrentHashMap<Id, ShadowDocument<String>>();
-    private final ConcurrentMap<Id, BackupShadowDocument<String>> backups = new ConcurrentHashMap<Id, BackupShadowDocument<String>>();
-    private final ConcurrentHashMap<Id, Queue<Edit>> pendingEdits = new ConcurrentHashMap<Id, Queue<Edit>>();
+    private final ConcurrentMap<String, DocumentEntry> documents = new ConcurrentHashMap<String, DocumentEntry>();
+    private final ContentTable<String> contents = new ContentTable<String>();
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, SyncState>> syncStates =
+            new ConcurrentHashMap<String, ConcurrentHashMap<String, SyncState>>();
+    private final PassivationStore passivationStore;
+    private final Object passivationLock = new Object();
+    private final AtomicLong evictedSyncStates = new AtomicLong();
+    private final AtomicLong evictedDocuments = new AtomicLong();
+    private final AtomicLong passivatedDocuments = new AtomicLong();
+    private final AtomicLong reloadedDocuments = new AtomicLong();
+
+    /**
+     * Creates a data store that drops the documents it evicts.
+     */
+    public ServerInMemoryDataStore() {
+        this(null);
+    }
+
+    /**
+     * Creates a data store that passivates the documents it evicts.
+     *
+     * @param passivationStore the store to passivate evicted documents to, or {@code null} to drop them.
+     */
+    public ServerInMemoryDataStore(final PassivationStore passivationStore) {
+        this.passivationStore = passivationStore;
+    }
 
     @Override
     public void saveShadowDocument(final ShadowDocument<String> shadowDocument) {
-        shadows.put(id(shadowDocument.document()), shadowDocument);
+        final ShadowDocument<String> shared = shared(shadowDocument);
+        final SyncState syncState = syncState(shadowDocument.document());
+        final ShadowDocument<String> previous;
+        synchronized (syncState) {
+            previous = syncState.shadow;
+            if (syncState.backup != null) {
+                syncState.backup = syncState.backup.rebase(previous, shared, diffedEdit(syncState, previous, shared));
+            }
+            syncState.lastEdit = null;
+            syncState.shadow = shared;
+        }
+        release(previous);
+    }
+
+    /**
+     * Returns the edit that was saved right before the passed in shadow, if the engine diffed the previous shadow
+     * to produce it. The versions of such an edit are those of the previous shadow, and diffing increments the
+     * server version of the shadow.
+     */
+    private static Edit diffedEdit(final SyncState syncState,
+                                   final ShadowDocument<String> previous,
+                                   final ShadowDocument<String> shadow) {
+        final Edit edit = syncState.lastEdit;
+        if (edit == null || previous == null
+                || edit.serverVersion() != previous.serverVersion()
+                || edit.clientVersion() != previous.clientVersion()
+                || shadow.serverVersion() != previous.serverVersion() + 1) {
+            return null;
+        }
+        return edit;
     }
 
     @Override
     public ShadowDocument<String> getShadowDocument(final String documentId, final String clientId) {
-        return shadows.get(id(documentId, clientId));
+        final SyncState syncState = getSyncState(documentId, clientId);
+        return syncState == null ? null : syncState.shadow;
     }
 
     @Override
     public void saveBackupShadowDocument(final BackupShadowDocument<String> backupShadow) {
-        backups.put(id(backupShadow.shadow().document()), backupShadow);
+        final SyncState syncState = syncState(backupShadow.shadow().document());
+        synchronized (syncState) {
+            syncState.backup = BackupShadowDelta.of(backupShadow, syncState.shadow);
+        }
     }
 
     @Override
     public BackupShadowDocument<String> getBackupShadowDocument(final String documentId, final String clientId) {
-        return backups.get(id(documentId, clientId));
+        final SyncState syncState = getSyncState(documentId, clientId);
+        if (syncState == null) {
+            return null;
+        }
+        synchronized (syncState) {
+            return syncState.backup == null ? null : syncState.backup.restore(syncState.shadow);
+        }
     }
 
     @Override
     public boolean saveDocument(final Document<String> document) {
-        return documents.putIfAbsent(document.id(), document) == null;
+        final Document<String> shared = shared(document);
+        if (getDocument(document.id()) == null
+                && documents.putIfAbsent(document.id(), new DocumentEntry(shared)) == null) {
+            return true;
+        }
+        contents.release(shared.content());
+        return false;
     }
 
     @Override
     public void updateDocument(final Document<String> document) {
-        documents.put(document.id(), document);
+        final DocumentEntry previous = documents.put(document.id(), new DocumentEntry(shared(document)));
+        if (previous != null) {
+            contents.release(previous.document.content());
+        }
     }
 
     @Override
     public Document<String> getDocument(final String documentId) {
-        return documents.get(documentId);
+        final DocumentEntry entry = documents.get(documentId);
+        if (entry != null) {
+            entry.touch();
+            return entry.document;
+        }
+        return passivationStore == null ? null : reload(documentId);
+    }
+
+    private Document<String> reload(final String documentId) {
+        synchronized (passivationLock) {
+            final DocumentEntry entry = documents.get(documentId);
+            if (entry != null) {
+                return entry.document;
+            }
+            final Document<String> document = passivationStore.activate(documentId);
+            if (document == null) {
+                return null;
+            }
+            final Document<String> shared = shared(document);
+            documents.put(documentId, new DocumentEntry(shared));
+            reloadedDocuments.incrementAndGet();
+            return shared;
+        }
     }
 
     @Override
     public void saveEdits(final Edit edit) {
-        final Id id = id(edit.documentId(), edit.clientId());
-        final Queue<Edit> newEdits = new ConcurrentLinkedQueue<Edit>();
-        while (true) {
-            final Queue<Edit> currentEdits = pendingEdits.get(id);
-            if (currentEdits == null) {
-                newEdits.add(edit);
-                final Queue<Edit> previous = pendingEdits.putIfAbsent(id, newEdits);
-                if (previous != null) {
-                    newEdits.addAll(previous);
-                    if (pendingEdits.replace(id, previous, newEdits)) {
-                        break;
-                    }
-                } else {
-                    break;
-                }
-            } else {
-                newEdits.addAll(currentEdits);
-                newEdits.add(edit);
-                if (pendingEdits.replace(id, currentEdits, newEdits)) {
-                    break;
-                }
-            }
+        final SyncState syncState = syncState(edit.documentId(), edit.clientId());
+        synchronized (syncState) {
+            syncState.edits.append(edit);
+            syncState.lastEdit = edit;
         }
     }
 
     @Override
     public void removeEdit(final Edit edit) {
-        final Id id = id(edit.documentId(), edit.clientId());
-        while (true) {
-            final Queue<Edit> currentEdits = pendingEdits.get(id);
-            if (currentEdits == null) {
-                break;
-            }
-            final Queue<Edit> newEdits = new ConcurrentLinkedQueue<Edit>();
-            newEdits.addAll(currentEdits);
-            for (Iterator<Edit> iter = newEdits.iterator(); iter.hasNext();) {
-                final Edit oldEdit = iter.next();
-                if (oldEdit.clientVersion() <= edit.clientVersion()) {
-                    iter.remove();
-                }
-            }
-            if (pendingEdits.replace(id, currentEdits, newEdits)) {
-                break;
-            }
+        final SyncState syncState = getSyncState(edit.documentId(), edit.clientId());
+        if (syncState != null) {
+            syncState.edits.removeUpTo(edit.clientVersion());
         }
     }
 
     @Override
     public Queue<Edit> getEdits(final String documentId, final String clientId) {
-        final Queue<Edit> edits = pendingEdits.get(id(documentId, clientId));
-        if (edits == null) {
+        final SyncState syncState = getSyncState(documentId, clientId);
+        if (syncState == null) {
             return EMPTY_QUEUE;
         }
-        return edits;
+        return syncState.edits.snapshot();
     }
 
     @Override
     public void removeEdits(final String documentId, final String clientId) {
-        pendingEdits.remove(id(documentId, clientId));
+        final SyncState syncState = getSyncState(documentId, clientId);
+        if (syncState != null) {
+            syncState.edits.clear();
+        }
     }
 
-    private static Id id(final ClientDocument<String> document) {
-        return id(document.id(), document.clientId());
+    @Override
+    public void removeSyncState(final String documentId, final String clientId) {
+        final ConcurrentHashMap<String, SyncState> clients = syncStates.get(documentId);
+        if (clients == null) {
+            return;
+        }
+        final SyncState syncState = clients.remove(clientId);
+        if (syncState != null) {
+            synchronized (syncState) {
+                release(syncState.shadow);
+            }
+        }
+        syncStates.computeIfPresent(documentId, (id, c) -> c.isEmpty() ? null : c);
     }
 
-    private static Id id(final String documentId, final String clientId) {
-        return new Id(documentId, clientId);
+    /**
+     * Removes the shadows, backup shadows and pending edits of all clients of the specified document. The
+     * document itself is kept.
+     *
+     * State that is saved for the document while it is being removed may or may not be removed, so this should
+     * only be called once the document no longer has any subscribers.
+     *
+     * @param documentId the id of the document.
+     */
+    public void removeSyncStates(final String documentId) {
+        final ConcurrentHashMap<String, SyncState> clients = syncStates.remove(documentId);
+        if (clients == null) {
+            return;
+        }
+        for (SyncState syncState : clients.values()) {
+            synchronized (syncState) {
+                release(syncState.shadow);
+            }
+        }
     }
 
-    private static class Id {
+    /**
+     * Evicts the sync states and documents that the passed in policy selects.
+     *
+     * A sync state is only evicted if its client is not subscribed to the document, and a document is only evicted
+     * if none of its clients has a sync state. Evicted documents are passivated if this data store has a
+     * {@link PassivationStore}. A document that can not be passivated is kept in memory.
+     *
+     * @param policy the policy that selects what is evicted.
+     * @param subscribedClients returns the ids of the clients that are subscribed to a document.
+     */
+    public void evict(final EvictionPolicy policy, final Function<String, Set<String>> subscribedClients) {
+        final long now = System.nanoTime();
+        if (policy.syncStateIdleTime() > 0) {
+            final long idleTime = TimeUnit.MILLISECONDS.toNanos(policy.syncStateIdleTime());
+            for (Map.Entry<String, ConcurrentHashMap<String, SyncState>> entry : syncStates.entrySet()) {
+                evictSyncStates(entry.getKey(), entry.getValue(), now, idleTime, subscribedClients);
+            }
+        }
+        if (policy.documentIdleTime() > 0) {
+            final long idleTime = TimeUnit.MILLISECONDS.toNanos(policy.documentIdleTime());
+            for (Map.Entry<String, DocumentEntry> entry : documents.entrySet()) {
+                if (now - entry.getValue().lastAccess >= idleTime && !hasSyncStates(entry.getKey())) {
+                    evictDocument(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        if (policy.maxDocuments() > 0 && documents.size() > policy.maxDocuments()) {
+            evictLeastRecentlyUsed(policy.maxDocuments(), now);
+        }
+    }
 
-        private final String clientId;
-        private final String documentId;
+    private void evictSyncStates(final String documentId,
+                                 final ConcurrentHashMap<String, SyncState> clients,
+                                 final long now,
+                                 final long idleTime,
+                                 final Function<String, Set<String>> subscribedClients) {
+        Set<String> subscribed = null;
+        for (Map.Entry<String, SyncState> entry : clients.entrySet()) {
+            final SyncState syncState = entry.getValue();
+            if (now - syncState.lastAccess < idleTime) {
+                continue;
+            }
+            if (subscribed == null) {
+                subscribed = subscribedClients.apply(documentId);
+            }
+            if (!subscribed.contains(entry.getKey()) && clients.remove(entry.getKey(), syncState)) {
+                synchronized (syncState) {
+                    release(syncState.shadow);
+                }
+                evictedSyncStates.incrementAndGet();
+            }
+        }
+        syncStates.computeIfPresent(documentId, (id, c) -> c.isEmpty() ? null : c);
+    }
+
+    private void evictLeastRecentlyUsed(final int maxDocuments, final long now) {
+        final List<Map.Entry<String, DocumentEntry>> candidates = new ArrayList<Map.Entry<String, DocumentEntry>>();
+        for (Map.Entry<String, DocumentEntry> entry : documents.entrySet()) {
+            if (!hasSyncStates(entry.getKey())) {
+                candidates.add(entry);
+            }
+        }
+        candidates.sort((a, b) -> Long.compare(now - b.getValue().lastAccess, now - a.getValue().lastAccess));
+        for (Map.Entry<String, DocumentEntry> candidate : candidates) {
+            if (documents.size() <= maxDocuments) {
+                return;
+            }
+            evictDocument(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    private void evictDocument(final String documentId, final DocumentEntry entry) {
+        synchronized (passivationLock) {
+            if (passivationStore != null) {
+                try {
+                    passivationStore.passivate(entry.document);
+                } catch (final UncheckedIOException e) {
+                    logger.warn("Keeping document [" + documentId + "] in memory", e);
+                    return;
+                }
+            }
+            if (!documents.remove(documentId, entry)) {
+                if (passivationStore != null) {
+                    // the document was updated while it was passivated, the passivated content is stale.
+                    passivationStore.activate(documentId);
+                }
+                return;
+            }
+        }
+        contents.release(entry.document.content());
+        evictedDocuments.incrementAndGet();
+        if (passivationStore != null) {
+            passivatedDocuments.incrementAndGet();
+        }
+    }
+
+    private boolean hasSyncStates(final String documentId) {
+        final ConcurrentHashMap<String, SyncState> clients = syncStates.get(documentId);
+        return clients != null && !clients.isEmpty();
+    }
+
+    /**
+     * Returns the number of sync states that have been evicted.
+     *
+     * @return {@code long} the number of evicted sync states.
+     */
+    public long evictedSyncStates() {
+        return evictedSyncStates.get();
+    }
+
+    /**
+     * Returns the number of documents that have been evicted, including the passivated ones.
+     *
+     * @return {@code long} the number of evicted documents.
+     */
+    public long evictedDocuments() {
+        return evictedDocuments.get();
+    }
+
+    /**
+     * Returns the number of evicted documents that have been passivated.
+     *
+     * @return {@code long} the number of passivated documents.
+     */
+    public long passivatedDocuments() {
+        return passivatedDocuments.get();
+    }
 
-        Id(final String documentId, final String clientId) {
-            this.clientId = clientId;
-            this.documentId = documentId;
+    /**
+     * Returns the number of passivated documents that have been reloaded.
+     *
+     * @return {@code long} the number of reloaded documents.
+     */
+    public long reloadedDocuments() {
+        return reloadedDocuments.get();
+    }
+
+    /**
+     * Returns the number of distinct contents that are stored.
+     *
+     * @return {@code int} the number of distinct document and shadow contents.
+     */
+    public int distinctContents() {
+        return contents.size();
+    }
+
+    private Document<String> shared(final Document<String> document) {
+        final String content = contents.retain(document.content());
+        if (content == document.content()) {
+            return document;
         }
+        return new DefaultDocument<String>(document.id(), content);
+    }
 
-        public String clientId() {
-            return clientId;
+    private ShadowDocument<String> shared(final ShadowDocument<String> shadow) {
+        final ClientDocument<String> document = shadow.document();
+        final String content = contents.retain(document.content());
+        if (content == document.content()) {
+            return shadow;
         }
+        return new DefaultShadowDocument<String>(shadow.serverVersion(),
+                shadow.clientVersion(),
+                new DefaultClientDocument<String>(document.id(), document.clientId(), content));
+    }
 
-        public String getDocumentId() {
-            return documentId;
+    private void release(final ShadowDocument<String> shadow) {
+        if (shadow != null) {
+            contents.release(shadow.document().content());
         }
+    }
 
-        @Override
-        public boolean equals(final Object o) {
-            if (this == o) {
-                return true;
+    private SyncState getSyncState(final String documentId, final String clientId) {
+        final ConcurrentHashMap<String, SyncState> clients = syncStates.get(documentId);
+        final SyncState syncState = clients == null ? null : clients.get(clientId);
+        if (syncState != null) {
+            syncState.touch();
+        }
+        return syncState;
+    }
+
+    private SyncState syncState(final ClientDocument<String> document) {
+        return syncState(document.id(), document.clientId());
+    }
+
+    private SyncState syncState(final String documentId, final String clientId) {
+        while (true) {
+            final ConcurrentHashMap<String, SyncState> clients = clients(documentId);
+            SyncState syncState = clients.get(clientId);
+            if (syncState == null) {
+                final SyncState newSyncState = new SyncState();
+                final SyncState previous = clients.putIfAbsent(clientId, newSyncState);
+                syncState = previous == null ? newSyncState : previous;
             }
-            if (!(o instanceof Id)) {
-                return false;
+            syncState.touch();
+            // eviction removes the map of a document once it is empty, retry if it was removed before the put.
+            if (syncStates.get(documentId) == clients) {
+                return syncState;
             }
+        }
+    }
+
+    private ConcurrentHashMap<String, SyncState> clients(final String documentId) {
+        final ConcurrentHashMap<String, SyncState> clients = syncStates.get(documentId);
+        if (clients != null) {
+            return clients;
+        }
+        final ConcurrentHashMap<String, SyncState> newClients = new ConcurrentHashMap<String, SyncState>();
+        final ConcurrentHashMap<String, SyncState> previous = syncStates.putIfAbsent(documentId, newClients);
+        return previous == null ? newClients : previous;
+    }
 
-            final Id id = (Id) o;
+    /**
+     * The state that is kept for a single client of a single document. The shadow and backup shadow are replaced
+     * while holding the lock of the state, so that the content of the shadow is released exactly once and the
+     * backup is always stored relative to the current shadow. The last saved edit is kept until the next shadow is
+     * saved, so that the backup can be rebased using the diffs of that edit.
+     */
+    private static final class SyncState {
 
-            if (clientId != null ? !clientId.equals(id.clientId) : id.clientId != null) {
-                return false;
-            }
-            return documentId != null ? documentId.equals(id.documentId) : id.documentId == null;
+        private final EditLog edits = new EditLog();
+        private volatile ShadowDocument<String> shadow;
+        private BackupShadowDelta backup;
+        private Edit lastEdit;
+        private volatile long lastAccess = System.nanoTime();
+
+        void touch() {
+            lastAccess = System.nanoTime();
+        }
+    }
+
+    /**
+     * A document together with the time it was last used.
+     */
+    private static final class DocumentEntry {
+
+        private final Document<String> document;
+        private volatile long lastAccess = System.nanoTime();
+
+        DocumentEntry(final Document<String> document) {
+            this.document = document;
         }
 
-        @Override
-        public int hashCode() {
-            int result = clientId != null ? clientId.hashCode() : 0;
-            result = 31 * result + (documentId != null ? documentId.hashCode() : 0);
-            return result;
+        void touch() {
+            lastAccess = System.nanoTime();
         }
     }
 }
@@ -20,15 +20,44 @@ import org.jboss.aerogear.sync.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
 /**
  * The server side of the differential synchronization implementation.
  *
+ * All operations that read or modify a document, its shadows or its pending edits are serialized per document.
+ * Each document is mapped to one of a fixed number of lock stripes using its id, so operations on the same
+ * document run one after another while operations on documents in different stripes run in parallel.
+ * Subscribers are notified while the document lock is held, so {@link Subscriber#patched} should not block.
+ *
+ * Documents can be given a notification window, see {@link #setNotificationWindow(String, long, TimeUnit)}. Patches
+ * for such a document are still applied immediately, but the subscribers are notified at most once per window
+ * with the changes of all the patches received during that window.
+ *
+ * By default subscribers are notified one after another by the thread that patched the document. With a fan-out
+ * executor, see {@link #setFanOutExecutor(Executor, int)}, the diffs for the subscribers of a document are computed
+ * and delivered by several threads at once. Either way a notification completes before the document lock is
+ * released, so every subscriber receives its patch messages in order.
+ *
+ * A subscriber whose shadow already has the content of the document is not notified, unless one of its patches is
+ * being acknowledged, so patches that do not change the document are not diffed and sent to every subscriber.
+ * Subscribers whose shadows have the same content share the diff that a notification computes for that content.
+ *
  * @param <T> The type of document that this implementation can handle.
  */
 public class ServerSyncEngine<T> {
@@ -37,14 +66,114 @@ public class ServerSyncEngine<T> {
     private static final int SEEDED_CLIENT_VERSION = -1;
     private static final int SEEDED_SERVER_VERSION = 1;
     private static final LinkedList<Edit> EMPTY_EDITS = new LinkedList<Edit>();
-    private static final ConcurrentHashMap<String, Set<Subscriber<?>>> subscribers =
-            new ConcurrentHashMap<String, Set<Subscriber<?>>>();
+    private static final int DIFF_CACHE_SIZE = 16;
+    private static final int DOCUMENT_LOCK_STRIPES = 256;
+    private static final int MIN_SUBSCRIBERS_PER_TASK = 4;
     private final ServerSynchronizer<T> synchronizer;
     private final ServerDataStore<T> dataStore;
+    private final SubscriberRegistry subscribers = new SubscriberRegistry();
+    private final Object[] documentLocks = newDocumentLocks(DOCUMENT_LOCK_STRIPES);
+    private final ScheduledExecutorService notificationScheduler;
+    private final ConcurrentHashMap<String, Long> notificationWindows = new ConcurrentHashMap<String, Long>();
+    private final ConcurrentHashMap<String, Set<String>> scheduledNotifications =
+            new ConcurrentHashMap<String, Set<String>>();
+    private volatile long defaultNotificationWindow;
+    private volatile Executor fanOutExecutor;
+    private volatile int fanOutParallelism = 1;
+    private volatile int maxPendingEdits;
 
     public ServerSyncEngine(final ServerSynchronizer<T> synchronizer, final ServerDataStore<T> dataStore) {
+        this(synchronizer, dataStore, null);
+    }
+
+    /**
+     * Creates a new engine that supports notification windows.
+     *
+     * @param synchronizer the synchronizer to use.
+     * @param dataStore the data store to use.
+     * @param notificationScheduler the scheduler that runs the notifications of documents with a notification window.
+     */
+    public ServerSyncEngine(final ServerSynchronizer<T> synchronizer,
+                            final ServerDataStore<T> dataStore,
+                            final ScheduledExecutorService notificationScheduler) {
         this.synchronizer = synchronizer;
         this.dataStore = dataStore;
+        this.notificationScheduler = notificationScheduler;
+    }
+
+    /**
+     * Sets the notification window for all documents that do not have a notification window of their own.
+     *
+     * @param window the length of the window, zero to notify subscribers immediately.
+     * @param unit the time unit of the window.
+     * @throws IllegalStateException if this engine was created without a notification scheduler.
+     */
+    public void setNotificationWindow(final long window, final TimeUnit unit) {
+        checkNotificationScheduler();
+        defaultNotificationWindow = unit.toMillis(window);
+    }
+
+    /**
+     * Sets the notification window for the specified document.
+     *
+     * Subscribers of the document are notified once at the end of the window that starts with the first patch
+     * received after the previous notification. This trades a little latency for a lot less diffs when clients
+     * send many small patches, like when a user is typing.
+     *
+     * @param documentId the id of the document.
+     * @param window the length of the window, zero to notify subscribers immediately.
+     * @param unit the time unit of the window.
+     * @throws IllegalStateException if this engine was created without a notification scheduler.
+     */
+    public void setNotificationWindow(final String documentId, final long window, final TimeUnit unit) {
+        checkNotificationScheduler();
+        notificationWindows.put(documentId, unit.toMillis(window));
+    }
+
+    /**
+     * Sets the executor used to notify the subscribers of a document in parallel.
+     *
+     * The subscribers are split into at most {@code parallelism} groups of at least a few subscribers each. The
+     * notifying thread handles the first group itself and hands the others to the executor, running any group
+     * that the executor has not started yet once it is done with its own. This means that a busy, or even
+     * saturated, executor slows a notification down but never blocks it.
+     *
+     * @param executor the executor to notify subscribers with, or {@code null} to notify them sequentially.
+     * @param parallelism the maximum number of groups the subscribers of a document are split into.
+     * @throws IllegalArgumentException if parallelism is less than one.
+     */
+    public void setFanOutExecutor(final Executor executor, final int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1, was " + parallelism);
+        }
+        fanOutParallelism = parallelism;
+        fanOutExecutor = executor;
+    }
+
+    /**
+     * Sets the maximum number of unacknowledged edits that are queued for a client.
+     *
+     * A client acknowledges the edits it received from the server with its next patch. Once a client has this many
+     * edits pending the server resyncs it: the next message sends the pending edits one last time followed by a seed
+     * edit, which brings the client to the current content of the document whatever its client version is. The
+     * pending edits are then dropped and the shadow of the client is reset to the content of the document. This
+     * bounds both the memory used for a slow or disconnected client and the size of the messages that are resent to
+     * it, while a client that never patches, for example one that only reads a document, keeps receiving updates.
+     *
+     * @param maxPendingEdits the maximum number of pending edits per client, or zero for no limit.
+     * @throws IllegalArgumentException if maxPendingEdits is negative.
+     */
+    public void setMaxPendingEdits(final int maxPendingEdits) {
+        if (maxPendingEdits < 0) {
+            throw new IllegalArgumentException("maxPendingEdits must not be negative, was " + maxPendingEdits);
+        }
+        this.maxPendingEdits = maxPendingEdits;
+    }
+
+    private void checkNotificationScheduler() {
+        if (notificationScheduler == null) {
+            throw new IllegalStateException("Notification windows require an engine with a notification scheduler");
+        }
     }
 
     /**
@@ -53,13 +182,22 @@ public class ServerSyncEngine<T> {
      * A server does not create a new document itself, this would be created by a client
      * and a first revision is added to this synchronization engine by this method call.
      *
+     * The subscriber is only added once its shadow has been created, which is not the case when the document has
+     * no content and does not exist yet either.
+     *
      * @param subscriber the subscriber to add
      * @param document the document that the subscriber subscribes to. Will be added to the underlying
      *                 datastore if it does not already exist in the datastore.
      */
     public PatchMessage addSubscriber(final Subscriber<?> subscriber, final Document<T> document) {
-        addSubscriber(subscriber, document.id());
-        return addDocument(document, subscriber.clientId());
+        synchronized (documentLock(document.id())) {
+            final PatchMessage patchMessage = addDocument(document, subscriber.clientId());
+            // there is nothing to subscribe to yet if neither the client nor the server have the document
+            if (getShadowDocument(document.id(), subscriber.clientId()) != null) {
+                subscribers.add(document.id(), subscriber);
+            }
+            return patchMessage;
+        }
     }
 
     private PatchMessage addDocument(final Document<T> document, final String clientId) {
@@ -71,7 +209,7 @@ public class ServerSyncEngine<T> {
                 final ShadowDocument<T> shadow = addShadowForClient(document.id(), clientId);
                 logger.debug("Document with id [" + document.id() + "] already exists.");
                 final Edit edit = serverDiff(shadow.document(), seededShadowFrom(shadow, document));
-                updateDocument(patchDocument(shadow));
+                updateDocument(patchDocument(shadow, shadow));
                 return new DefaultPatchMessage(document.id(), clientId, new LinkedList<Edit>(Collections.singleton(edit)));
             }
         }
@@ -94,46 +232,73 @@ public class ServerSyncEngine<T> {
      * @param documentId the id of the document that the subscriber wants to subscribe.
      */
     public void addSubscriber(final Subscriber<?> subscriber, final String documentId) {
-        final Set<Subscriber<?>> newSub = Collections.newSetFromMap(new ConcurrentHashMap<Subscriber<?>, Boolean>());
-        newSub.add(subscriber);
-        while(true) {
-            final Set<Subscriber<?>> currentClients = subscribers.get(documentId);
-            if (currentClients == null) {
-                final Set<Subscriber<?>> previous = subscribers.putIfAbsent(documentId, newSub);
-                if (previous != null) {
-                    newSub.addAll(previous);
-                    if (subscribers.replace(documentId, previous, newSub)) {
-                        break;
-                    }
-                }
-            } else {
-                newSub.addAll(currentClients);
-                if (subscribers.replace(documentId, currentClients, newSub)) {
-                    break;
-                }
-            }
+        synchronized (documentLock(documentId)) {
+            subscribers.add(documentId, subscriber);
         }
     }
 
+    /**
+     * Removes a subscriber from a document.
+     *
+     * @param subscriber the {@link Subscriber} to remove.
+     * @param documentId the id of the document that the subscriber is subscribed to.
+     */
     public void removeSubscriber(final Subscriber<?> subscriber, final String documentId) {
-        while (true) {
-            final Set<Subscriber<?>> currentClients = subscribers.get(documentId);
-            if (currentClients == null || currentClients.isEmpty()) {
-                break;
-            }
-            final Set<Subscriber<?>> newClients = Collections.newSetFromMap(new ConcurrentHashMap<Subscriber<?>, Boolean>());
-            newClients.addAll(currentClients);
-            final boolean removed = newClients.remove(subscriber);
-            if (removed) {
-                if (subscribers.replace(documentId, currentClients, newClients)) {
-                    break;
+        subscribers.remove(documentId, subscriber);
+    }
+
+    /**
+     * Removes a subscriber from a document together with the state that is kept for its client, which is its
+     * shadow document, backup shadow document and pending edits. This is what a client asks for when it detaches
+     * from a document.
+     *
+     * The state is kept if the client is still subscribed to the document through another channel, for example
+     * after it reconnected.
+     *
+     * @param subscriber the {@link Subscriber} to remove.
+     * @param documentId the id of the document that the subscriber is subscribed to.
+     */
+    public void detachSubscriber(final Subscriber<?> subscriber, final String documentId) {
+        synchronized (documentLock(documentId)) {
+            subscribers.remove(documentId, subscriber);
+            for (Subscriber<?> remaining : subscribers(documentId)) {
+                if (remaining.clientId().equals(subscriber.clientId())) {
+                    return;
                 }
             }
+            dataStore.removeSyncState(documentId, subscriber.clientId());
         }
     }
 
+    /**
+     * Removes the subscribers that use the passed-in channel from all the documents they are subscribed to,
+     * for example when the connection that they share has been closed.
+     *
+     * @param channel the channel of the subscribers, as returned by {@link Subscriber#channel()}.
+     */
+    public void removeSubscribers(final Object channel) {
+        subscribers.removeChannel(channel);
+    }
+
+    /**
+     * Removes the subscribers that use the passed-in channel from the documents whose id matches, which allows the
+     * subscriptions of a channel to be removed in parts, for example one for each lane of a {@link StripedExecutor}.
+     *
+     * @param channel the channel of the subscribers, as returned by {@link Subscriber#channel()}.
+     * @param documentIds matches the ids of the documents to remove the subscribers from.
+     */
+    public void removeSubscribers(final Object channel, final Predicate<String> documentIds) {
+        subscribers.removeChannel(channel, documentIds);
+    }
+
+    /**
+     * Returns the subscribers of a document.
+     *
+     * @param documentId the id of the document.
+     * @return {@code Set} a read-only view of the subscribers, empty if the document has no subscribers.
+     */
     public Set<Subscriber<?>> subscribers(final String documentId) {
-        return subscribers.get(documentId);
+        return subscribers.subscribers(documentId);
     }
 
     private ShadowDocument<T> seededShadowFrom(final ShadowDocument<T> shadow, final Document<T> doc) {
@@ -151,23 +316,33 @@ public class ServerSyncEngine<T> {
      * @return {@link Edit} The server edits, or updates, that were generated by this diff .
      */
     public Edit diff(final String documentId, final String clientId) {
-        final Document<T> document = getDocument(documentId);
-        final Edit edit = serverDiffs(document, clientId);
-        diffPatchShadow(getShadowDocument(documentId, clientId), edit);
-        return edit;
+        synchronized (documentLock(documentId)) {
+            final Document<T> document = getDocument(documentId);
+            return serverDiffs(document, clientId);
+        }
     }
 
     /**
      * Performs the server side patching for a specific client.
      *
+     * A client whose shadow no longer exists, for example because its sync state was evicted while it was
+     * disconnected, is reseeded, see {@link #reseedMissingShadow(PatchMessage)}.
+     *
      * @param patchMessage the changes made by a client.
      * @return {@link PatchMessage} to allow method chaining
      */
     public PatchMessage patch(final PatchMessage patchMessage) {
-        final ShadowDocument<T> patchedShadow = patchShadow(patchMessage);
-        updateDocument(patchDocument(patchedShadow));
-        saveBackupShadow(patchedShadow);
-        return patchMessage;
+        synchronized (documentLock(patchMessage.documentId())) {
+            final ShadowDocument<T> shadow = getShadowDocument(patchMessage.documentId(), patchMessage.clientId());
+            if (shadow == null) {
+                reseedMissingShadow(patchMessage);
+                return patchMessage;
+            }
+            final ShadowDocument<T> patchedShadow = patchShadow(shadow, patchMessage);
+            updateDocument(patchDocument(shadow, patchedShadow));
+            saveBackupShadow(patchedShadow);
+            return patchMessage;
+        }
     }
 
     /**
@@ -177,33 +352,329 @@ public class ServerSyncEngine<T> {
      * @param patchMessage the changes made by a client.
      */
     public void patchAndNotifySubscribers(final PatchMessage patchMessage) {
-        notifySubscribers(patch(patchMessage));
+        synchronized (documentLock(patchMessage.documentId())) {
+            final Edit peek = patch(patchMessage).edits().peek();
+            if (peek == null) {
+                // edits could be null as a client is allowed to send an patch message
+                // that only contains an acknowledgement that it has received a specific
+                // version from the server.
+                return;
+            }
+            final String documentId = peek.documentId();
+            final long window = notificationWindow(documentId);
+            if (window > 0) {
+                scheduleNotification(documentId, patchMessage.clientId(), window);
+            } else {
+                notifySubscribers(documentId, Collections.singleton(patchMessage.clientId()));
+            }
+        }
     }
 
-    private void notifySubscribers(final PatchMessage clientPatchMessage) {
-        final Edit peek = clientPatchMessage.edits().peek();
-        if (peek == null) {
-            // edits could be null as a client is allowed to send an patch message
-            // that only contains an acknowledgement that it has received a specific
-            // version from the server.
+    private long notificationWindow(final String documentId) {
+        final Long window = notificationWindows.get(documentId);
+        return window == null ? defaultNotificationWindow : window;
+    }
+
+    /**
+     * Schedules the notification of the subscribers of the specified document, unless one is already scheduled in
+     * which case the changes will be picked up by that notification.
+     *
+     * The ids of the clients that patched the document during the window are collected so that the notification
+     * acknowledges their patches. The set is only accessed while holding the document lock.
+     */
+    private void scheduleNotification(final String documentId, final String clientId, final long window) {
+        final Set<String> scheduled = scheduledNotifications.get(documentId);
+        if (scheduled != null) {
+            scheduled.add(clientId);
             return;
         }
-        final String documentId = peek.documentId();
+        final Set<String> patchers = new HashSet<String>();
+        patchers.add(clientId);
+        scheduledNotifications.put(documentId, patchers);
+        try {
+            notificationScheduler.schedule(newNotification(documentId), window, TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException e) {
+            scheduledNotifications.remove(documentId);
+            notifySubscribers(documentId, patchers);
+        }
+    }
+
+    private Runnable newNotification(final String documentId) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                synchronized (documentLock(documentId)) {
+                    final Set<String> patchers = scheduledNotifications.remove(documentId);
+                    try {
+                        notifySubscribers(documentId, patchers == null ? Collections.<String>emptySet() : patchers);
+                    } catch (final RuntimeException e) {
+                        logger.error("Failed to notify subscribers of document [" + documentId + ']', e);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Notifies the subscribers of the specified document of the changes to the document.
+     *
+     * @param documentId the id of the document.
+     * @param patchers the ids of the clients whose patches are acknowledged by this notification. These clients are
+     *                 always notified, as the server edits are what tells a client that its edits have been applied.
+     */
+    private void notifySubscribers(final String documentId, final Set<String> patchers) {
+        final Document<T> document = getDocument(documentId);
         final Set<Subscriber<?>> subscribers = subscribers(documentId);
+        // only lives as long as this notification, the next one is for different document content anyway
+        final DiffCache<T> diffCache = new DiffCache<T>(DIFF_CACHE_SIZE);
+        final Executor executor = fanOutExecutor;
+        final int tasks = Math.min(fanOutParallelism, subscribers.size() / MIN_SUBSCRIBERS_PER_TASK);
+        if (executor == null || tasks < 2) {
+            notifySubscribers(document, subscribers, patchers, diffCache);
+        } else {
+            final List<Subscriber<?>> list = new ArrayList<Subscriber<?>>(subscribers);
+            notifySubscribers(document, list, patchers, diffCache, executor, tasks);
+        }
+    }
+
+    private void notifySubscribers(final Document<T> document,
+                                   final Collection<Subscriber<?>> subscribers,
+                                   final Set<String> patchers,
+                                   final DiffCache<T> diffCache) {
         for (Subscriber<?> subscriber: subscribers) {
-            final PatchMessage patchMessage = diffs(documentId, subscriber.clientId());
-            logger.debug("Sending to [" + subscriber.clientId() + "] : " + patchMessage);
+            final String clientId = subscriber.clientId();
+            final ShadowDocument<T> shadow = getShadowDocument(document.id(), clientId);
+            if (shadow == null) {
+                // the client has no state to diff against, for example because it was removed or evicted.
+                continue;
+            }
+            if (!patchers.contains(clientId) && isUpToDate(shadow, document)) {
+                continue;
+            }
+            final PatchMessage patchMessage = pendingEdits(document, shadow, diffCache);
+            logger.debug("Sending to [" + clientId + "] : " + patchMessage);
             subscriber.patched(patchMessage);
         }
     }
 
+    /**
+     * Returns true if the shadow has the same content as the document, in which case a diff would not contain any
+     * changes. The content of a shadow is usually the very instance of the document content it was last diffed
+     * against, so the equals check tends to be an identity check.
+     */
+    private static <T> boolean isUpToDate(final ShadowDocument<T> shadow, final Document<T> document) {
+        final T shadowContent = shadow.document().content();
+        return shadowContent == null ? document.content() == null : shadowContent.equals(document.content());
+    }
+
+    /**
+     * Notifies the subscribers in the specified number of tasks, the first of which is run by the calling thread.
+     *
+     * Returns only when all tasks have completed, the caller holds the document lock so the next notification of
+     * the document cannot overtake this one. Every subscriber belongs to exactly one task, and the diffs of a
+     * subscriber only touch the shadow and pending edits of that subscriber, so the tasks do not interfere.
+     */
+    private void notifySubscribers(final Document<T> document,
+                                   final List<Subscriber<?>> subscribers,
+                                   final Set<String> patchers,
+                                   final DiffCache<T> diffCache,
+                                   final Executor executor,
+                                   final int tasks) {
+        final List<FutureTask<Void>> notifications = new ArrayList<FutureTask<Void>>(tasks);
+        final int size = subscribers.size();
+        for (int i = 0; i < tasks; i++) {
+            final List<Subscriber<?>> group = subscribers.subList(i * size / tasks, (i + 1) * size / tasks);
+            notifications.add(new FutureTask<Void>(new Runnable() {
+                @Override
+                public void run() {
+                    notifySubscribers(document, group, patchers, diffCache);
+                }
+            }, null));
+        }
+        for (int i = 1; i < tasks; i++) {
+            try {
+                executor.execute(notifications.get(i));
+            } catch (final RejectedExecutionException e) {
+                // run by the calling thread below
+            }
+        }
+        for (FutureTask<Void> notification : notifications) {
+            // does nothing for a notification that has already been started by the executor
+            notification.run();
+        }
+        awaitNotifications(notifications);
+    }
+
+    private static void awaitNotifications(final List<FutureTask<Void>> notifications) {
+        Throwable failure = null;
+        boolean interrupted = false;
+        for (FutureTask<Void> notification : notifications) {
+            while (true) {
+                try {
+                    notification.get();
+                    break;
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                } catch (final ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure != null) {
+            throw new IllegalStateException(failure);
+        }
+    }
+
     public PatchMessage diffs(final String documentId, final String clientId) {
-        diff(documentId, clientId);
-        return new DefaultPatchMessage(documentId, clientId, dataStore.getEdits(documentId, clientId));
+        synchronized (documentLock(documentId)) {
+            return pendingEdits(getDocument(documentId), getShadowDocument(documentId, clientId), null);
+        }
+    }
+
+    private PatchMessage pendingEdits(final Document<T> document,
+                                      final ShadowDocument<T> shadow,
+                                      final DiffCache<T> diffCache) {
+        final String clientId = shadow.document().clientId();
+        if (hasMaxPendingEdits(document.id(), clientId)) {
+            return reseed(document, shadow);
+        }
+        serverDiffs(document, shadow, diffCache);
+        return new DefaultPatchMessage(document.id(), clientId, dataStore.getEdits(document.id(), clientId));
+    }
+
+    /**
+     * Returns true if the client has as many unacknowledged edits as are allowed.
+     */
+    private boolean hasMaxPendingEdits(final String documentId, final String clientId) {
+        final int max = maxPendingEdits;
+        return max > 0 && dataStore.getEdits(documentId, clientId).size() >= max;
+    }
+
+    /**
+     * Replaces the pending edits of a client with a seed edit and resets the shadow of the client to the content
+     * of the document.
+     *
+     * The seed edit is diffed against the shadow, which has the content that the client reaches by applying the
+     * pending edits. The pending edits are therefore sent once more ahead of the seed edit, for a client that
+     * missed some of them, and are then dropped. Like the seed edit sent when a client adds a document, the client
+     * applies it whatever its client version is and then continues with client version zero.
+     */
+    private PatchMessage reseed(final Document<T> document, final ShadowDocument<T> shadow) {
+        final String clientId = shadow.document().clientId();
+        final LinkedList<Edit> edits = new LinkedList<Edit>(dataStore.getEdits(document.id(), clientId));
+        final ShadowDocument<T> seeded = newShadowDoc(shadow.serverVersion(), SEEDED_CLIENT_VERSION, shadow.document());
+        edits.add(serverDiff(document, seeded));
+        dataStore.removeEdits(document.id(), clientId);
+        final ShadowDocument<T> reseeded = advanceShadow(newShadowDoc(shadow.serverVersion(), 0, shadow.document()),
+                document.content());
+        saveBackupShadow(saveShadow(reseeded));
+        logger.debug("Reseeded [" + clientId + "] after " + (edits.size() - 1) + " unacknowledged edits");
+        return new DefaultPatchMessage(document.id(), clientId, edits);
+    }
+
+    /**
+     * Recreates the shadow of a client that patches a document without the server having a shadow for it.
+     *
+     * The edits of the client are applied to the document directly, except for compact edits whose text is
+     * taken from the shadow that was lost. The client gets a new shadow with the content of the document, and a
+     * seed edit is queued ahead of the next server edit. The seed deletes the content of the client's shadow after
+     * its last edit and adds the content of the document. That content is the text of the edit's unchanged and added
+     * diffs, so the seed carries the deleted text like any other diff. Only when the edit is in compact form, which
+     * clients send once they read compact diffs themselves, is the deletion sent as a length.
+     */
+    private void reseedMissingShadow(final PatchMessage patchMessage) {
+        final String documentId = patchMessage.documentId();
+        final String clientId = patchMessage.clientId();
+        Document<T> document = getDocument(documentId);
+        if (document == null || patchMessage.edits().isEmpty()) {
+            logger.warn("Ignoring patch of client [" + clientId + "] for document [" + documentId
+                    + "] which has no shadow for it");
+            return;
+        }
+        Edit last = null;
+        for (Edit edit : patchMessage.edits()) {
+            if (!isCompact(edit)) {
+                document = synchronizer.patchDocument(edit, document);
+            }
+            last = edit;
+        }
+        updateDocument(document);
+        final ShadowDocument<T> shadow = newShadowDoc(last.serverVersion(), 0,
+                newClientDocument(documentId, clientId, document.content()));
+        dataStore.removeEdits(documentId, clientId);
+        saveBackupShadow(saveShadow(shadow));
+        saveEdits(seedEdit(shadow, last));
+        logger.info("Reseeded client [" + clientId + "] of document [" + documentId + "] which had no shadow");
+    }
+
+    private Edit seedEdit(final ShadowDocument<T> shadow, final Edit last) {
+        final DefaultEdit.Builder seed = DefaultEdit.withDocumentId(shadow.document().id())
+                .clientId(shadow.document().clientId())
+                .serverVersion(shadow.serverVersion())
+                .clientVersion(SEEDED_CLIENT_VERSION)
+                .diff(patchedContent(last));
+        // diffing the shadow against itself yields its content as unchanged text.
+        for (Diff diff : serverDiff(shadow.document(), shadow).diffs()) {
+            seed.add(diff.text());
+        }
+        return seed.build();
     }
 
-    private void diffPatchShadow(final ShadowDocument<T> shadow, final Edit edit) {
-        saveShadow(synchronizer.patchShadow(edit, shadow));
+    /**
+     * Returns a {@code DELETE} diff of the content that the passed in edit produces on the client, in compact form
+     * if the edit is.
+     */
+    private static Diff patchedContent(final Edit edit) {
+        if (isCompact(edit)) {
+            int length = 0;
+            for (Diff diff : edit.diffs()) {
+                if (diff.operation() != Diff.Operation.DELETE) {
+                    length += diff.length();
+                }
+            }
+            return new DefaultDiff(Diff.Operation.DELETE, length);
+        }
+        final StringBuilder content = new StringBuilder();
+        for (Diff diff : edit.diffs()) {
+            if (diff.operation() != Diff.Operation.DELETE) {
+                content.append(diff.text());
+            }
+        }
+        return new DefaultDiff(Diff.Operation.DELETE, content.toString());
+    }
+
+    private static boolean isCompact(final Edit edit) {
+        for (Diff diff : edit.diffs()) {
+            if (diff.text() == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Object documentLock(final String documentId) {
+        final int hash = documentId.hashCode();
+        return documentLocks[(hash ^ hash >>> 16) & documentLocks.length - 1];
+    }
+
+    private static Object[] newDocumentLocks(final int stripes) {
+        final Object[] locks = new Object[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new Object();
+        }
+        return locks;
     }
 
     private ShadowDocument<T> addShadowForClient(final String documentId, final String clientId) {
@@ -214,6 +685,8 @@ public class ServerSyncEngine<T> {
         final Document<T> document = getDocument(documentId);
         final ClientDocument<T> clientDocument = newClientDocument(documentId, clientId, document.content());
         final ShadowDocument<T> shadowDocument = newShadowDoc(0, clientVersion, clientDocument);
+        // edits for an earlier shadow of the client can not be applied to the new one.
+        dataStore.removeEdits(documentId, clientId);
         saveShadow(shadowDocument);
         saveBackupShadow(shadowDocument);
         return shadowDocument;
@@ -224,15 +697,64 @@ public class ServerSyncEngine<T> {
     }
 
     private Edit serverDiffs(final Document<T> document, final String clientId) {
-        final ShadowDocument<T> shadow = getShadowDocument(document.id(), clientId);
-        final Edit newEdit = serverDiff(document, shadow);
+        return serverDiffs(document, getShadowDocument(document.id(), clientId), null);
+    }
+
+    private Edit serverDiffs(final Document<T> document,
+                             final ShadowDocument<T> shadow,
+                             final DiffCache<T> diffCache) {
+        final Edit newEdit = diffCache == null
+                ? serverDiff(document, shadow)
+                : cachedServerDiff(document, shadow, diffCache);
         saveEdits(newEdit);
-        saveShadow(incrementServerVersion(shadow));
+        saveShadow(advanceShadow(incrementServerVersion(shadow), document.content()));
         return newEdit;
     }
 
-    private ShadowDocument<T> patchShadow(final PatchMessage patchMessage) {
-        ShadowDocument<T> shadow = getShadowDocument(patchMessage.documentId(), patchMessage.clientId());
+    /**
+     * Performs a server diff, reusing the diffs of an earlier call for a shadow with the same content.
+     *
+     * The diffs and checksum only depend on the content of the document and the shadow, so a cached edit
+     * only needs to be stamped with the client id and versions of the passed in shadow.
+     */
+    private Edit cachedServerDiff(final Document<T> document,
+                                  final ShadowDocument<T> shadow,
+                                  final DiffCache<T> cache) {
+        final T shadowContent = shadow.document().content();
+        final Edit cached = cache.get(document.content(), shadowContent);
+        if (cached != null) {
+            return DefaultEdit.withDocumentId(document.id())
+                    .clientId(shadow.document().clientId())
+                    .serverVersion(shadow.serverVersion())
+                    .clientVersion(shadow.clientVersion())
+                    .checksum(cached.checksum())
+                    .diffs(cached.diffs())
+                    .build();
+        }
+        final Edit edit = serverDiff(document, shadow);
+        cache.put(document.content(), shadowContent, edit);
+        return edit;
+    }
+
+    /**
+     * Sets the content of the shadow to the content that it was just diffed against.
+     *
+     * Patching the shadow with the edit from that diff would produce exactly this content, so there is no need
+     * to create and apply patches. The versions of the passed in shadow are carried forward as they are.
+     *
+     * @param shadow the shadow to advance.
+     * @param content the content that the shadow was diffed against.
+     * @return {@link ShadowDocument} a new shadow with the passed in content.
+     */
+    private ShadowDocument<T> advanceShadow(final ShadowDocument<T> shadow, final T content) {
+        final ClientDocument<T> document = shadow.document();
+        return newShadowDoc(shadow.serverVersion(),
+                shadow.clientVersion(),
+                newClientDocument(document.id(), document.clientId(), content));
+    }
+
+    private ShadowDocument<T> patchShadow(final ShadowDocument<T> currentShadow, final PatchMessage patchMessage) {
+        ShadowDocument<T> shadow = currentShadow;
         final Iterator<Edit> iterator = patchMessage.edits().iterator();
         while (iterator.hasNext()) {
             final Edit edit = iterator.next();
@@ -292,15 +814,46 @@ public class ServerSyncEngine<T> {
                 && edit.clientVersion() == shadowDocument.clientVersion();
     }
 
-    private Document<T> patchDocument(final ShadowDocument<T> shadowDocument) {
-        final Document<T> document = getDocument(shadowDocument.document().id());
-        final Edit edit = clientDiffs(document, shadowDocument);
-        final Document<T> patched = synchronizer.patchDocument(edit, document);
+    /**
+     * Applies the changes in the patched shadow to the server document.
+     *
+     * If the document has not changed since the shadow was last synchronized the client edits were applied to
+     * content identical to the document, which means that the patched shadow content is the patched document and
+     * there is no need to diff the document against the shadow.
+     *
+     * @param shadow the shadow as it was before the client edits were applied.
+     * @param patchedShadow the shadow with the client edits applied.
+     * @return {@link Document} the patched document.
+     */
+    private Document<T> patchDocument(final ShadowDocument<T> shadow, final ShadowDocument<T> patchedShadow) {
+        final Document<T> document = getDocument(patchedShadow.document().id());
+        final Document<T> patched;
+        if (unchangedSinceSync(document, shadow, patchedShadow)) {
+            patched = new DefaultDocument<T>(document.id(), patchedShadow.document().content());
+        } else {
+            final Edit edit = clientDiffs(document, patchedShadow);
+            patched = synchronizer.patchDocument(edit, document);
+        }
         saveDocument(patched);
         logger.info("Patched Document [" + patched.id() + "] content: " + patched.content());
         return patched;
     }
 
+    /**
+     * Determines if the passed in document still has the content of the shadow, and the client edits were
+     * applied to that shadow rather than to a restored backup shadow.
+     */
+    private static <T> boolean unchangedSinceSync(final Document<T> document,
+                                                  final ShadowDocument<T> shadow,
+                                                  final ShadowDocument<T> patchedShadow) {
+        if (patchedShadow.serverVersion() != shadow.serverVersion()) {
+            return false;
+        }
+        final T content = document.content();
+        final T shadowContent = shadow.document().content();
+        return content == shadowContent || content != null && content.equals(shadowContent);
+    }
+
     private Document<T> getDocument(final String documentId) {
         return dataStore.getDocument(documentId);
     }
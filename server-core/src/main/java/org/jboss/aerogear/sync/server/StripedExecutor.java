@@ -0,0 +1,126 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Executes tasks on a fixed number of single threaded lanes, where the lane of a task is chosen by its key.
+ *
+ * Tasks submitted with the same key, for example the same document id, are run one after another in the
+ * order that they were submitted. Tasks with keys that map to different lanes are run in parallel.
+ */
+public class StripedExecutor {
+
+    private final ExecutorService[] lanes;
+
+    /**
+     * Creates a new executor.
+     *
+     * @param lanes the number of lanes, that is threads, of this executor.
+     * @param name the name prefix for the threads of this executor.
+     */
+    public StripedExecutor(final int lanes, final String name) {
+        if (lanes < 1) {
+            throw new IllegalArgumentException("lanes must be greater than zero but was: " + lanes);
+        }
+        this.lanes = new ExecutorService[lanes];
+        for (int i = 0; i < lanes; i++) {
+            this.lanes[i] = Executors.newSingleThreadExecutor(new LaneThreadFactory(name + '-' + i));
+        }
+    }
+
+    /**
+     * Executes the passed-in task after all tasks previously submitted with the same key have completed.
+     *
+     * @param key the key that determines the lane of the task.
+     * @param task the task to execute.
+     */
+    public void execute(final String key, final Runnable task) {
+        lanes[lane(key)].execute(task);
+    }
+
+    /**
+     * Executes a task on every lane, each after all tasks previously submitted to its lane have completed. This is
+     * for work that concerns keys in all lanes, like removing everything that belongs to a connection, without it
+     * overtaking the tasks already submitted for those keys.
+     *
+     * @param tasks creates the task for a lane, passed a predicate that matches the keys of that lane.
+     */
+    public void executeOnEachLane(final Function<Predicate<String>, Runnable> tasks) {
+        for (int i = 0; i < lanes.length; i++) {
+            final int lane = i;
+            lanes[lane].execute(tasks.apply(key -> lane(key) == lane));
+        }
+    }
+
+    /**
+     * Initiates an orderly shutdown, tasks already submitted are executed but no new tasks are accepted.
+     */
+    public void shutdown() {
+        for (ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+    }
+
+    /**
+     * Blocks until all lanes have completed their tasks after a shutdown, or the timeout occurs.
+     *
+     * @param timeout the maximum time to wait for each lane.
+     * @param unit the time unit of the timeout argument.
+     * @return {@code true} if all lanes terminated and {@code false} if the timeout elapsed before termination.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        for (ExecutorService lane : lanes) {
+            if (!lane.awaitTermination(timeout, unit)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int lane(final String key) {
+        final int hash = key.hashCode();
+        return ((hash ^ hash >>> 16) & Integer.MAX_VALUE) % lanes.length;
+    }
+
+    private static class LaneThreadFactory implements ThreadFactory {
+
+        private final String name;
+        private final AtomicInteger threads = new AtomicInteger();
+
+        LaneThreadFactory(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final int thread = threads.getAndIncrement();
+            final Thread t = new Thread(runnable, thread == 0 ? name : name + '-' + thread);
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+}
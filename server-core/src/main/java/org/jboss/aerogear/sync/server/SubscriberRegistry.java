@@ -0,0 +1,161 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * The subscribers of the documents of a single {@link ServerSyncEngine}.
+ *
+ * The subscribers of a document are kept in a concurrent set, so adding or removing a subscriber takes constant
+ * time no matter how many subscribers the document has, and notifying subscribers iterates over the set itself
+ * instead of a copy. Subscriptions are also indexed by the channel of the subscriber, so that all subscriptions
+ * made over a connection can be removed at once when it is closed.
+ *
+ * Iteration is weakly consistent. A subscriber that is added or removed while the subscribers of a document are
+ * being notified may or may not be notified.
+ */
+final class SubscriberRegistry {
+
+    private final ConcurrentHashMap<String, Set<Subscriber<?>>> byDocument =
+            new ConcurrentHashMap<String, Set<Subscriber<?>>>();
+    private final ConcurrentHashMap<Object, Set<Subscription>> byChannel =
+            new ConcurrentHashMap<Object, Set<Subscription>>();
+
+    /**
+     * Subscribes the passed in subscriber to the specified document.
+     *
+     * @param documentId the id of the document.
+     * @param subscriber the subscriber to add.
+     */
+    void add(final String documentId, final Subscriber<?> subscriber) {
+        byDocument.compute(documentId, (id, subscribers) -> {
+            final Set<Subscriber<?>> set = subscribers == null ? ConcurrentHashMap.newKeySet() : subscribers;
+            set.add(subscriber);
+            return set;
+        });
+        final Object channel = subscriber.channel();
+        if (channel != null) {
+            byChannel.compute(channel, (c, subscriptions) -> {
+                final Set<Subscription> set = subscriptions == null ? ConcurrentHashMap.newKeySet() : subscriptions;
+                set.add(new Subscription(documentId, subscriber));
+                return set;
+            });
+        }
+    }
+
+    /**
+     * Unsubscribes the passed in subscriber from the specified document.
+     *
+     * @param documentId the id of the document.
+     * @param subscriber the subscriber to remove.
+     */
+    void remove(final String documentId, final Subscriber<?> subscriber) {
+        removeFromDocument(documentId, subscriber);
+        final Object channel = subscriber.channel();
+        if (channel != null) {
+            final Subscription subscription = new Subscription(documentId, subscriber);
+            byChannel.computeIfPresent(channel, (c, subscriptions) -> {
+                subscriptions.remove(subscription);
+                return subscriptions.isEmpty() ? null : subscriptions;
+            });
+        }
+    }
+
+    /**
+     * Removes all the subscriptions of subscribers that use the passed in channel.
+     *
+     * @param channel the channel, as returned by {@link Subscriber#channel()}.
+     */
+    void removeChannel(final Object channel) {
+        final Set<Subscription> subscriptions = byChannel.remove(channel);
+        if (subscriptions == null) {
+            return;
+        }
+        for (Subscription subscription : subscriptions) {
+            removeFromDocument(subscription.documentId, subscription.subscriber);
+        }
+    }
+
+    /**
+     * Removes the subscriptions of subscribers that use the passed in channel to the documents whose id matches.
+     *
+     * @param channel the channel, as returned by {@link Subscriber#channel()}.
+     * @param documentIds matches the ids of the documents to remove the subscriptions from.
+     */
+    void removeChannel(final Object channel, final Predicate<String> documentIds) {
+        final Set<Subscription> subscriptions = byChannel.get(channel);
+        if (subscriptions == null) {
+            return;
+        }
+        for (Subscription subscription : subscriptions) {
+            if (documentIds.test(subscription.documentId)) {
+                remove(subscription.documentId, subscription.subscriber);
+            }
+        }
+    }
+
+    private void removeFromDocument(final String documentId, final Subscriber<?> subscriber) {
+        byDocument.computeIfPresent(documentId, (id, subscribers) -> {
+            subscribers.remove(subscriber);
+            return subscribers.isEmpty() ? null : subscribers;
+        });
+    }
+
+    /**
+     * Returns a read-only view of the subscribers of the specified document.
+     *
+     * @param documentId the id of the document.
+     * @return {@code Set} the subscribers of the document, empty if it has none.
+     */
+    Set<Subscriber<?>> subscribers(final String documentId) {
+        final Set<Subscriber<?>> subscribers = byDocument.get(documentId);
+        return subscribers == null ? Collections.<Subscriber<?>>emptySet() : Collections.unmodifiableSet(subscribers);
+    }
+
+    private static final class Subscription {
+
+        private final String documentId;
+        private final Subscriber<?> subscriber;
+
+        Subscription(final String documentId, final Subscriber<?> subscriber) {
+            this.documentId = documentId;
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Subscription)) {
+                return false;
+            }
+            final Subscription other = (Subscription) o;
+            return documentId.equals(other.documentId) && subscriber.equals(other.subscriber);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * documentId.hashCode() + subscriber.hashCode();
+        }
+    }
+
+}
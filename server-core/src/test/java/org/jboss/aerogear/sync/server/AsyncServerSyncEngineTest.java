@@ -0,0 +1,128 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server;
+
+import org.jboss.aerogear.sync.DefaultDocument;
+import org.jboss.aerogear.sync.DefaultEdit;
+import org.jboss.aerogear.sync.DefaultPatchMessage;
+import org.jboss.aerogear.sync.Document;
+import org.jboss.aerogear.sync.Edit;
+import org.jboss.aerogear.sync.PatchMessage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.LinkedList;
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AsyncServerSyncEngineTest {
+
+    private ServerInMemoryDataStore dataStore;
+    private ServerSyncEngine<String> engine;
+    private final Subscriber<?> subscriber = mock(Subscriber.class);
+
+    @Before
+    public void setup() {
+        dataStore = new ServerInMemoryDataStore();
+        engine = new ServerSyncEngine<String>(new DefaultServerSynchronizer(), dataStore);
+        when(subscriber.clientId()).thenReturn("client1");
+    }
+
+    @Test
+    public void addSubscriberWithoutExecutor() {
+        final AsyncServerSyncEngine<String> asyncEngine = new AsyncServerSyncEngine<String>(engine);
+        final CompletableFuture<PatchMessage> future = asyncEngine.addSubscriber(subscriber, doc("1234", "Mr. Rosen"))
+                .toCompletableFuture();
+        assertThat(future.isDone(), is(true));
+        assertThat(future.getNow(null).edits().peek().diffs().peek().text(), equalTo("Mr. Rosen"));
+    }
+
+    @Test
+    public void operationsForDocumentRunInOrder() throws Exception {
+        final StripedExecutor executor = new StripedExecutor(2, "test");
+        final AsyncServerSyncEngine<String> asyncEngine = new AsyncServerSyncEngine<String>(engine, executor);
+        final String documentId = "1234";
+        asyncEngine.addSubscriber(subscriber, doc(documentId, "Mr. Babar"));
+        final Edit edit = DefaultEdit.withDocumentId(documentId)
+                .clientId(subscriber.clientId())
+                .unchanged("Mr. ")
+                .delete("Babar")
+                .add("Rosen")
+                .build();
+        asyncEngine.patch(new DefaultPatchMessage(documentId, subscriber.clientId(), new LinkedList<Edit>(asList(edit))));
+        final PatchMessage patchMessage = asyncEngine.diffs(documentId, subscriber.clientId())
+                .toCompletableFuture()
+                .get(10, SECONDS);
+        assertThat(patchMessage.documentId(), equalTo(documentId));
+        assertThat(dataStore.getDocument(documentId).content(), equalTo("Mr. Rosen"));
+        executor.shutdown();
+    }
+
+    @Test
+    public void failedOperationCompletesExceptionally() {
+        @SuppressWarnings("unchecked")
+        final ServerSyncEngine<String> failingEngine = mock(ServerSyncEngine.class);
+        when(failingEngine.diffs("1234", "client1")).thenThrow(new IllegalStateException("failed"));
+        final AsyncServerSyncEngine<String> asyncEngine = new AsyncServerSyncEngine<String>(failingEngine);
+        assertThat(asyncEngine.diffs("1234", "client1").toCompletableFuture().isCompletedExceptionally(), is(true));
+    }
+
+    @Test
+    public void errorCompletesExceptionally() {
+        @SuppressWarnings("unchecked")
+        final ServerSyncEngine<String> failingEngine = mock(ServerSyncEngine.class);
+        when(failingEngine.diffs("1234", "client1")).thenThrow(new StackOverflowError());
+        final AsyncServerSyncEngine<String> asyncEngine = new AsyncServerSyncEngine<String>(failingEngine);
+        assertThat(asyncEngine.diffs("1234", "client1").toCompletableFuture().isCompletedExceptionally(), is(true));
+    }
+
+    @Test
+    public void removeSubscribersAfterQueuedSubscription() throws Exception {
+        final StripedExecutor executor = new StripedExecutor(2, "test");
+        final AsyncServerSyncEngine<String> asyncEngine = new AsyncServerSyncEngine<String>(engine, executor);
+        final Subscriber<?> channelSubscriber = mock(Subscriber.class);
+        when(channelSubscriber.clientId()).thenReturn("client2");
+        when(channelSubscriber.channel()).thenReturn("channel");
+        asyncEngine.addSubscriber(subscriber, doc("1234", "Mr. Babar"));
+        asyncEngine.addSubscriber(channelSubscriber, "1234");
+        asyncEngine.addSubscriber(channelSubscriber, "5678");
+        asyncEngine.removeSubscribers("channel").toCompletableFuture().get(10, SECONDS);
+        assertThat(engine.subscribers("1234").size(), is(1));
+        assertThat(engine.subscribers("5678").isEmpty(), is(true));
+        executor.shutdown();
+    }
+
+    @Test
+    public void rejectedOperationCompletesExceptionally() {
+        final StripedExecutor executor = new StripedExecutor(1, "test");
+        executor.shutdown();
+        final AsyncServerSyncEngine<String> asyncEngine = new AsyncServerSyncEngine<String>(engine, executor);
+        assertThat(asyncEngine.diffs("1234", "client1").toCompletableFuture().isCompletedExceptionally(), is(true));
+    }
+
+    private static Document<String> doc(final String docId, final String content) {
+        return new DefaultDocument<String>(docId, content);
+    }
+
+}
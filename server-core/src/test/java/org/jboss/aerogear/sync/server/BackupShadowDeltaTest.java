@@ -0,0 +1,140 @@
+package org.jboss.aerogear.sync.server;
+
+import org.jboss.aerogear.sync.BackupShadowDocument;
+import org.jboss.aerogear.sync.DefaultBackupShadowDocument;
+import org.jboss.aerogear.sync.DefaultClientDocument;
+import org.jboss.aerogear.sync.DefaultDiff;
+import org.jboss.aerogear.sync.DefaultDocument;
+import org.jboss.aerogear.sync.DefaultEdit;
+import org.jboss.aerogear.sync.DefaultShadowDocument;
+import org.jboss.aerogear.sync.Diff;
+import org.jboss.aerogear.sync.Edit;
+import org.jboss.aerogear.sync.ShadowDocument;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class BackupShadowDeltaTest {
+
+    @Test
+    public void restoreBackupOfCurrentShadow() {
+        final ShadowDocument<String> shadow = shadowDoc(1, 2, "Mr. Babar");
+        final BackupShadowDocument<String> backup = new DefaultBackupShadowDocument<String>(1, shadow);
+        final BackupShadowDelta delta = BackupShadowDelta.of(backup, shadow);
+        assertThat(delta.restore(shadow), sameInstance(backup));
+    }
+
+    @Test
+    public void restoreAfterRebase() {
+        final ShadowDocument<String> shadow = shadowDoc(1, 2, "Mr. Babar");
+        final BackupShadowDocument<String> backup = new DefaultBackupShadowDocument<String>(1, shadow);
+        final BackupShadowDelta delta = BackupShadowDelta.of(backup, shadow);
+        final ShadowDocument<String> advanced = shadowDoc(3, 2, "Mr. Rosen, the elephant");
+        final BackupShadowDocument<String> restored = delta.rebase(shadow, advanced, serverDiff(shadow, advanced))
+                .restore(advanced);
+        assertThat(restored.version(), is(1L));
+        assertThat(restored.shadow().serverVersion(), is(1L));
+        assertThat(restored.shadow().clientVersion(), is(2L));
+        assertThat(restored.shadow().document().id(), equalTo("1234"));
+        assertThat(restored.shadow().document().clientId(), equalTo("client1"));
+        assertThat(restored.shadow().document().content(), equalTo("Mr. Babar"));
+    }
+
+    @Test
+    public void restoreAfterSeveralRebases() {
+        final ShadowDocument<String> shadow = shadowDoc(0, 0, "Do or do not, there is no try");
+        BackupShadowDelta delta = BackupShadowDelta.of(new DefaultBackupShadowDocument<String>(0, shadow), shadow);
+        ShadowDocument<String> previous = shadow;
+        final String[] contents = {"Do or do not, there is no try!", "Do, there is no try!", "\u00e9t\u00e9 %2B +"};
+        for (String content : contents) {
+            final ShadowDocument<String> next = shadowDoc(previous.serverVersion() + 1, 0, content);
+            delta = delta.rebase(previous, next, serverDiff(previous, next));
+            previous = next;
+        }
+        assertThat(delta.restore(previous).shadow().document().content(), equalTo("Do or do not, there is no try"));
+    }
+
+    @Test
+    public void rebaseManyTimesWithoutClientPatch() {
+        final ShadowDocument<String> shadow = shadowDoc(0, 0, "Mr. Babar");
+        BackupShadowDelta delta = BackupShadowDelta.of(new DefaultBackupShadowDocument<String>(0, shadow), shadow);
+        ShadowDocument<String> previous = shadow;
+        for (int i = 1; i <= BackupShadowDelta.MAX_DEPTH * 3; i++) {
+            final ShadowDocument<String> next = shadowDoc(i, 0, previous.document().content() + " " + i);
+            delta = delta.rebase(previous, next, serverDiff(previous, next));
+            previous = next;
+            assertThat(delta.depth() <= BackupShadowDelta.MAX_DEPTH, is(true));
+            assertThat(delta.restore(previous).shadow().document().content(), equalTo("Mr. Babar"));
+        }
+        assertThat(delta.restore(previous).version(), is(0L));
+        assertThat(delta.restore(previous).shadow().serverVersion(), is(0L));
+    }
+
+    @Test
+    public void rebaseWithoutEditKeepsPreviousContent() {
+        final ShadowDocument<String> shadow = shadowDoc(0, 0, "Mr. Babar");
+        BackupShadowDelta delta = BackupShadowDelta.of(new DefaultBackupShadowDocument<String>(0, shadow), shadow);
+        final ShadowDocument<String> diffed = shadowDoc(1, 0, "Mr. Rosen");
+        delta = delta.rebase(shadow, diffed, serverDiff(shadow, diffed));
+        final ShadowDocument<String> patched = shadowDoc(1, 1, "Mr. Poon");
+        final BackupShadowDelta anchored = delta.rebase(diffed, patched, null);
+        final ShadowDocument<String> rediffed = shadowDoc(2, 1, "Mr. Kuiper");
+        assertThat(anchored.rebase(patched, rediffed, serverDiff(patched, rediffed)), sameInstance(anchored));
+        assertThat(anchored.restore(rediffed).shadow().document().content(), equalTo("Mr. Babar"));
+        assertThat(anchored.restore(rediffed).version(), is(0L));
+    }
+
+    @Test
+    public void rebaseBackupWithOtherContent() {
+        final ShadowDocument<String> shadow = shadowDoc(1, 0, "Mr. Rosen");
+        final BackupShadowDocument<String> backup = new DefaultBackupShadowDocument<String>(0,
+                shadowDoc(0, 0, "Mr. Babar"));
+        final BackupShadowDelta delta = BackupShadowDelta.of(backup, shadow);
+        final ShadowDocument<String> advanced = shadowDoc(2, 0, "Mr. Poon");
+        assertThat(delta.rebase(shadow, advanced, serverDiff(shadow, advanced)), sameInstance(delta));
+        assertThat(delta.restore(advanced), sameInstance(backup));
+    }
+
+    @Test
+    public void rebaseWithCompactEdit() {
+        final ShadowDocument<String> shadow = shadowDoc(0, 0, "Mr. Babar");
+        final BackupShadowDelta delta = BackupShadowDelta.of(new DefaultBackupShadowDocument<String>(0, shadow),
+                shadow);
+        final ShadowDocument<String> advanced = shadowDoc(1, 0, "Mr. Rosen");
+        final Edit compact = DefaultEdit.withDocumentId("1234")
+                .clientId("client1")
+                .diff(new DefaultDiff(Diff.Operation.UNCHANGED, 4))
+                .diff(new DefaultDiff(Diff.Operation.DELETE, 5))
+                .add("Rosen")
+                .build();
+        final BackupShadowDelta rebased = delta.rebase(shadow, advanced, compact);
+        assertThat(rebased.restore(advanced).shadow().document().content(), equalTo("Mr. Babar"));
+    }
+
+    @Test
+    public void restoreBackupWithEqualContent() {
+        final ShadowDocument<String> shadow = shadowDoc(1, 2, "Mr. Babar");
+        final ShadowDocument<String> backupShadow = shadowDoc(0, 2, new String("Mr. Babar"));
+        final BackupShadowDelta delta = BackupShadowDelta.of(new DefaultBackupShadowDocument<String>(0, backupShadow),
+                shadow);
+        final BackupShadowDocument<String> restored = delta.restore(shadow);
+        assertThat(restored.version(), is(0L));
+        assertThat(restored.shadow().serverVersion(), is(0L));
+        assertThat(restored.shadow().document().content(), sameInstance(shadow.document().content()));
+    }
+
+    private static Edit serverDiff(final ShadowDocument<String> shadow, final ShadowDocument<String> next) {
+        return new DefaultServerSynchronizer().serverDiff(new DefaultDocument<String>("1234",
+                next.document().content()), shadow);
+    }
+
+    private static ShadowDocument<String> shadowDoc(final long serverVersion,
+                                                    final long clientVersion,
+                                                    final String content) {
+        return new DefaultShadowDocument<String>(serverVersion, clientVersion,
+                new DefaultClientDocument<String>("1234", "client1", content));
+    }
+}
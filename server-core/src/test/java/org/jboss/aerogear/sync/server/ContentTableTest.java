@@ -0,0 +1,49 @@
+package org.jboss.aerogear.sync.server;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ContentTableTest {
+
+    @Test
+    public void retainReturnsFirstInstance() {
+        final ContentTable<String> contents = new ContentTable<String>();
+        final String first = new String("Mr. Babar");
+        assertThat(contents.retain(first), sameInstance(first));
+        assertThat(contents.retain(new String("Mr. Babar")), sameInstance(first));
+        assertThat(contents.size(), is(1));
+    }
+
+    @Test
+    public void releaseRemovesUnreferencedContent() {
+        final ContentTable<String> contents = new ContentTable<String>();
+        final String first = contents.retain(new String("Mr. Babar"));
+        contents.retain(new String("Mr. Babar"));
+        contents.release(first);
+        assertThat(contents.size(), is(1));
+        contents.release(first);
+        assertThat(contents.size(), is(0));
+        final String second = new String("Mr. Babar");
+        assertThat(contents.retain(second), sameInstance(second));
+    }
+
+    @Test
+    public void releaseIgnoresContentNotInTable() {
+        final ContentTable<String> contents = new ContentTable<String>();
+        contents.retain("Mr. Babar");
+        contents.release(new String("Mr. Babar"));
+        assertThat(contents.size(), is(1));
+    }
+
+    @Test
+    public void retainNull() {
+        final ContentTable<String> contents = new ContentTable<String>();
+        assertThat(contents.retain(null), is(nullValue()));
+        contents.release(null);
+        assertThat(contents.size(), is(0));
+    }
+}
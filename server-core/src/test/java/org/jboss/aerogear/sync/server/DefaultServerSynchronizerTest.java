@@ -17,6 +17,7 @@
 package org.jboss.aerogear.sync.server;
 
 import org.jboss.aerogear.sync.DefaultClientDocument;
+import org.jboss.aerogear.sync.DefaultDiff;
 import org.jboss.aerogear.sync.DefaultDocument;
 import org.jboss.aerogear.sync.DefaultEdit;
 import org.jboss.aerogear.sync.DefaultShadowDocument;
@@ -105,6 +106,36 @@ public class DefaultServerSynchronizerTest {
         assertThat(patchedShadow.document().content(), equalTo("I'm the man"));
     }
 
+    @Test
+    public void patchShadowCompactDiffs() throws Exception {
+        final ServerSynchronizer<String> synchronizer = new DefaultServerSynchronizer();
+        final ShadowDocument<String> shadowDocument = shadowDocument("1234", "client1", "Beve");
+
+        final Edit edit = DefaultEdit.withDocumentId("1234")
+                .clientId("client1")
+                .diff(new DefaultDiff(Operation.DELETE, 1))
+                .add("I'm th")
+                .diff(new DefaultDiff(Operation.UNCHANGED, 1))
+                .diff(new DefaultDiff(Operation.DELETE, 2))
+                .add(" man")
+                .build();
+        final ShadowDocument<String> patchedShadow = synchronizer.patchShadow(edit, shadowDocument);
+        assertThat(patchedShadow.document().content(), equalTo("I'm the man"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void patchShadowCompactDiffsLongerThanShadow() throws Exception {
+        final ServerSynchronizer<String> synchronizer = new DefaultServerSynchronizer();
+        final ShadowDocument<String> shadowDocument = shadowDocument("1234", "client1", "Beve");
+
+        final Edit edit = DefaultEdit.withDocumentId("1234")
+                .clientId("client1")
+                .diff(new DefaultDiff(Operation.UNCHANGED, 5))
+                .add("!")
+                .build();
+        synchronizer.patchShadow(edit, shadowDocument);
+    }
+
     @Test
     public void patchDocument() throws Exception {
         final ServerSynchronizer<String> synchronizer = new DefaultServerSynchronizer();
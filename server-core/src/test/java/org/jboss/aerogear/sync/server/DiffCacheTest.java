@@ -0,0 +1,73 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server;
+
+import org.jboss.aerogear.sync.DefaultEdit;
+import org.jboss.aerogear.sync.Edit;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class DiffCacheTest {
+
+    @Test
+    public void get() {
+        final DiffCache<String> cache = new DiffCache<String>(2);
+        final Edit edit = edit();
+        cache.put("document", "shadow", edit);
+        assertThat(cache.get("document", "shadow"), sameInstance(edit));
+        assertThat(cache.get("document", "other shadow"), is(nullValue()));
+    }
+
+    @Test
+    public void getDifferentTarget() {
+        final DiffCache<String> cache = new DiffCache<String>(2);
+        cache.put("document", "shadow", edit());
+        assertThat(cache.get("updated document", "shadow"), is(nullValue()));
+    }
+
+    @Test
+    public void putDifferentTargetDiscardsEdits() {
+        final DiffCache<String> cache = new DiffCache<String>(2);
+        cache.put("document", "shadow1", edit());
+        cache.put("document", "shadow2", edit());
+        cache.put("updated document", "shadow1", edit());
+        assertThat(cache.size(), is(1));
+        assertThat(cache.get("document", "shadow2"), is(nullValue()));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        final DiffCache<String> cache = new DiffCache<String>(2);
+        final Edit edit = edit();
+        cache.put("document", "shadow1", edit);
+        cache.put("document", "shadow2", edit());
+        cache.get("document", "shadow1");
+        cache.put("document", "shadow3", edit());
+        assertThat(cache.size(), is(2));
+        assertThat(cache.get("document", "shadow1"), sameInstance(edit));
+        assertThat(cache.get("document", "shadow2"), is(nullValue()));
+    }
+
+    private static Edit edit() {
+        return DefaultEdit.withDocumentId("1234").clientId("client1").build();
+    }
+
+}
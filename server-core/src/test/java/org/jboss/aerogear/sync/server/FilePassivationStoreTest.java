@@ -0,0 +1,66 @@
+package org.jboss.aerogear.sync.server;
+
+import org.jboss.aerogear.sync.DefaultDocument;
+import org.jboss.aerogear.sync.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class FilePassivationStoreTest {
+
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("passivated");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void activatePassivatedDocument() throws Exception {
+        final FilePassivationStore store = new FilePassivationStore(directory.resolve("documents"));
+        store.passivate(new DefaultDocument<String>("../docs/12345", "Mr. B\u00e4bar"));
+        final Document<String> document = store.activate("../docs/12345");
+        assertThat(document.id(), equalTo("../docs/12345"));
+        assertThat(document.content(), equalTo("Mr. B\u00e4bar"));
+        assertThat(store.activate("../docs/12345"), is(nullValue()));
+    }
+
+    @Test
+    public void passivateReplacesEarlierVersion() throws Exception {
+        final FilePassivationStore store = new FilePassivationStore(directory);
+        store.passivate(new DefaultDocument<String>("12345", "Mr. Babar"));
+        store.passivate(new DefaultDocument<String>("12345", "Mr. Rosen"));
+        assertThat(store.activate("12345").content(), equalTo("Mr. Rosen"));
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            assertThat(files.iterator().hasNext(), is(false));
+        }
+    }
+
+    @Test
+    public void activateUnknownDocument() throws Exception {
+        final FilePassivationStore store = new FilePassivationStore(directory);
+        assertThat(store.activate("12345"), is(nullValue()));
+    }
+}
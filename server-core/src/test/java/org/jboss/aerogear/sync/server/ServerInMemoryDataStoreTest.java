@@ -1,13 +1,28 @@
 package org.jboss.aerogear.sync.server;
 
+import org.jboss.aerogear.sync.BackupShadowDocument;
+import org.jboss.aerogear.sync.DefaultBackupShadowDocument;
+import org.jboss.aerogear.sync.DefaultClientDocument;
+import org.jboss.aerogear.sync.DefaultDocument;
 import org.jboss.aerogear.sync.DefaultEdit;
+import org.jboss.aerogear.sync.DefaultShadowDocument;
+import org.jboss.aerogear.sync.Document;
 import org.jboss.aerogear.sync.Edit;
+import org.jboss.aerogear.sync.ShadowDocument;
 import org.junit.Test;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.TimeUnit;
 
+import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.MatcherAssert.assertThat;
 
 public class ServerInMemoryDataStoreTest {
@@ -27,4 +42,192 @@ public class ServerInMemoryDataStoreTest {
         assertThat(iterator.next().clientVersion(), is(0L));
         assertThat(iterator.next().clientVersion(), is(1L));
     }
+
+    @Test
+    public void getShadowAndBackupShadowDocument() {
+        final ServerInMemoryDataStore dataStore = new ServerInMemoryDataStore();
+        final ShadowDocument<String> shadow = shadowDoc("12345", "client1");
+        dataStore.saveShadowDocument(shadow);
+        dataStore.saveBackupShadowDocument(new DefaultBackupShadowDocument<String>(0, shadow));
+        dataStore.saveEdits(DefaultEdit.withDocumentId("12345").clientId("client1").clientVersion(0).build());
+        assertThat(dataStore.getShadowDocument("12345", "client1"), sameInstance(shadow));
+        assertThat(dataStore.getBackupShadowDocument("12345", "client1").shadow(), sameInstance(shadow));
+        assertThat(dataStore.getShadowDocument("12345", "client2"), is(nullValue()));
+        assertThat(dataStore.getBackupShadowDocument("12345", "client2"), is(nullValue()));
+        assertThat(dataStore.getEdits("12345", "client2").isEmpty(), is(true));
+    }
+
+    @Test
+    public void getBackupShadowDocumentAfterShadowChanged() {
+        final ServerInMemoryDataStore dataStore = new ServerInMemoryDataStore();
+        final ShadowDocument<String> shadow = shadowDoc("12345", "client1");
+        dataStore.saveShadowDocument(shadow);
+        dataStore.saveBackupShadowDocument(new DefaultBackupShadowDocument<String>(0, shadow));
+        dataStore.saveShadowDocument(new DefaultShadowDocument<String>(1, 0,
+                new DefaultClientDocument<String>("12345", "client1", "Mr. Rosen")));
+        final BackupShadowDocument<String> backup = dataStore.getBackupShadowDocument("12345", "client1");
+        assertThat(backup.version(), is(0L));
+        assertThat(backup.shadow().serverVersion(), is(0L));
+        assertThat(backup.shadow().document().content(), equalTo("Mr. Babar"));
+        assertThat(dataStore.getShadowDocument("12345", "client1").document().content(), equalTo("Mr. Rosen"));
+    }
+
+    @Test
+    public void getBackupShadowDocumentAfterServerDiff() {
+        final ServerInMemoryDataStore dataStore = new ServerInMemoryDataStore();
+        final ShadowDocument<String> shadow = shadowDoc("12345", "client1");
+        dataStore.saveShadowDocument(shadow);
+        dataStore.saveBackupShadowDocument(new DefaultBackupShadowDocument<String>(0, shadow));
+        dataStore.saveEdits(DefaultEdit.withDocumentId("12345")
+                .clientId("client1")
+                .serverVersion(0)
+                .clientVersion(0)
+                .unchanged("Mr. ")
+                .delete("Babar")
+                .add("Rosen")
+                .build());
+        dataStore.saveShadowDocument(new DefaultShadowDocument<String>(1, 0,
+                new DefaultClientDocument<String>("12345", "client1", "Mr. Rosen")));
+        final BackupShadowDocument<String> backup = dataStore.getBackupShadowDocument("12345", "client1");
+        assertThat(backup.version(), is(0L));
+        assertThat(backup.shadow().serverVersion(), is(0L));
+        assertThat(backup.shadow().document().content(), equalTo("Mr. Babar"));
+    }
+
+    @Test
+    public void removeSyncStates() {
+        final ServerInMemoryDataStore dataStore = new ServerInMemoryDataStore();
+        dataStore.saveDocument(new DefaultDocument<String>("12345", "Mr. Babar"));
+        dataStore.saveShadowDocument(shadowDoc("12345", "client1"));
+        dataStore.saveShadowDocument(shadowDoc("12345", "client2"));
+        dataStore.saveShadowDocument(shadowDoc("67890", "client1"));
+        dataStore.saveEdits(DefaultEdit.withDocumentId("12345").clientId("client1").clientVersion(0).build());
+
+        dataStore.removeSyncStates("12345");
+        assertThat(dataStore.getShadowDocument("12345", "client1"), is(nullValue()));
+        assertThat(dataStore.getShadowDocument("12345", "client2"), is(nullValue()));
+        assertThat(dataStore.getEdits("12345", "client1").isEmpty(), is(true));
+        assertThat(dataStore.getShadowDocument("67890", "client1"), is(notNullValue()));
+        assertThat(dataStore.getDocument("12345"), is(notNullValue()));
+    }
+
+    @Test
+    public void removeSyncState() {
+        final ServerInMemoryDataStore dataStore = new ServerInMemoryDataStore();
+        dataStore.saveDocument(new DefaultDocument<String>("12345", "Mr. Babar"));
+        final ShadowDocument<String> shadow = shadowDoc("12345", "client1");
+        dataStore.saveShadowDocument(shadow);
+        dataStore.saveBackupShadowDocument(new DefaultBackupShadowDocument<String>(0, shadow));
+        dataStore.saveShadowDocument(shadowDoc("12345", "client2"));
+        dataStore.saveEdits(DefaultEdit.withDocumentId("12345").clientId("client1").clientVersion(0).build());
+
+        dataStore.removeSyncState("12345", "client1");
+        assertThat(dataStore.getShadowDocument("12345", "client1"), is(nullValue()));
+        assertThat(dataStore.getBackupShadowDocument("12345", "client1"), is(nullValue()));
+        assertThat(dataStore.getEdits("12345", "client1").isEmpty(), is(true));
+        assertThat(dataStore.getShadowDocument("12345", "client2"), is(notNullValue()));
+        assertThat(dataStore.getDocument("12345"), is(notNullValue()));
+    }
+
+    @Test
+    public void sharesEqualContents() {
+        final ServerInMemoryDataStore dataStore = new ServerInMemoryDataStore();
+        final String content = new String("Mr. Babar");
+        dataStore.saveDocument(new DefaultDocument<String>("12345", content));
+        dataStore.saveShadowDocument(shadowDoc("12345", "client1", new String(content)));
+        final ShadowDocument<String> shadow = shadowDoc("12345", "client2", new String(content));
+        dataStore.saveShadowDocument(shadow);
+        dataStore.saveBackupShadowDocument(new DefaultBackupShadowDocument<String>(0, shadow));
+        assertThat(dataStore.distinctContents(), is(1));
+        assertThat(dataStore.getShadowDocument("12345", "client1").document().content(), sameInstance(content));
+        assertThat(dataStore.getShadowDocument("12345", "client2").document().content(), sameInstance(content));
+        assertThat(dataStore.getBackupShadowDocument("12345", "client2").shadow().document().content(),
+                sameInstance(content));
+
+        dataStore.updateDocument(new DefaultDocument<String>("12345", "Mr. Rosen"));
+        assertThat(dataStore.distinctContents(), is(2));
+        dataStore.removeSyncStates("12345");
+        assertThat(dataStore.distinctContents(), is(1));
+    }
+
+    private static ShadowDocument<String> shadowDoc(final String documentId,
+                                                    final String clientId,
+                                                    final String content) {
+        return new DefaultShadowDocument<String>(0, 0,
+                new DefaultClientDocument<String>(documentId, clientId, content));
+    }
+
+    @Test
+    public void evictIdleSyncStatesOfUnsubscribedClients() throws InterruptedException {
+        final ServerInMemoryDataStore dataStore = new ServerInMemoryDataStore();
+        dataStore.saveShadowDocument(shadowDoc("12345", "client1"));
+        dataStore.saveShadowDocument(shadowDoc("12345", "client2"));
+        dataStore.saveEdits(DefaultEdit.withDocumentId("12345").clientId("client2").clientVersion(0).build());
+        Thread.sleep(5);
+        dataStore.evict(EvictionPolicy.builder().syncStateIdleTime(1, TimeUnit.MILLISECONDS).build(),
+                documentId -> Collections.singleton("client1"));
+        assertThat(dataStore.getShadowDocument("12345", "client1"), is(notNullValue()));
+        assertThat(dataStore.getShadowDocument("12345", "client2"), is(nullValue()));
+        assertThat(dataStore.getEdits("12345", "client2").isEmpty(), is(true));
+        assertThat(dataStore.evictedSyncStates(), is(1L));
+    }
+
+    @Test
+    public void evictIdleDocumentsWithoutSyncStates() throws InterruptedException {
+        final ServerInMemoryDataStore dataStore = new ServerInMemoryDataStore();
+        dataStore.saveDocument(new DefaultDocument<String>("12345", "Mr. Babar"));
+        dataStore.saveDocument(new DefaultDocument<String>("67890", "Mr. Rosen"));
+        dataStore.saveShadowDocument(shadowDoc("67890", "client1"));
+        Thread.sleep(5);
+        dataStore.evict(EvictionPolicy.builder().documentIdleTime(1, TimeUnit.MILLISECONDS).build(),
+                documentId -> Collections.<String>emptySet());
+        assertThat(dataStore.getDocument("12345"), is(nullValue()));
+        assertThat(dataStore.getDocument("67890"), is(notNullValue()));
+        assertThat(dataStore.evictedDocuments(), is(1L));
+        assertThat(dataStore.passivatedDocuments(), is(0L));
+    }
+
+    @Test
+    public void evictLeastRecentlyUsedDocuments() throws InterruptedException {
+        final ServerInMemoryDataStore dataStore = new ServerInMemoryDataStore();
+        dataStore.saveDocument(new DefaultDocument<String>("1", "Mr. Babar"));
+        dataStore.saveDocument(new DefaultDocument<String>("2", "Mr. Rosen"));
+        dataStore.saveDocument(new DefaultDocument<String>("3", "Mr. Poon"));
+        Thread.sleep(5);
+        dataStore.getDocument("1");
+        dataStore.evict(EvictionPolicy.builder().maxDocuments(2).build(), documentId -> Collections.<String>emptySet());
+        assertThat(dataStore.evictedDocuments(), is(1L));
+        assertThat(dataStore.getDocument("1"), is(notNullValue()));
+    }
+
+    @Test
+    public void reloadPassivatedDocument() throws InterruptedException {
+        final Map<String, Document<String>> passivated = new HashMap<String, Document<String>>();
+        final ServerInMemoryDataStore dataStore = new ServerInMemoryDataStore(new PassivationStore() {
+            @Override
+            public void passivate(final Document<String> document) {
+                passivated.put(document.id(), document);
+            }
+
+            @Override
+            public Document<String> activate(final String documentId) {
+                return passivated.remove(documentId);
+            }
+        });
+        dataStore.saveDocument(new DefaultDocument<String>("12345", "Mr. Babar"));
+        Thread.sleep(5);
+        dataStore.evict(EvictionPolicy.builder().documentIdleTime(1, TimeUnit.MILLISECONDS).build(),
+                documentId -> Collections.<String>emptySet());
+        assertThat(passivated.containsKey("12345"), is(true));
+        assertThat(dataStore.saveDocument(new DefaultDocument<String>("12345", "Mr. Rosen")), is(false));
+        assertThat(dataStore.getDocument("12345").content(), equalTo("Mr. Babar"));
+        assertThat(passivated.isEmpty(), is(true));
+        assertThat(dataStore.passivatedDocuments(), is(1L));
+        assertThat(dataStore.reloadedDocuments(), is(1L));
+    }
+
+    private static ShadowDocument<String> shadowDoc(final String documentId, final String clientId) {
+        return new DefaultShadowDocument<String>(0, 0,
+                new DefaultClientDocument<String>(documentId, clientId, "Mr. Babar"));
+    }
 }
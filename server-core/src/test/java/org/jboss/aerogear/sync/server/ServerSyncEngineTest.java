@@ -20,27 +20,44 @@ import org.jboss.aerogear.sync.*;
 import org.jboss.aerogear.sync.Diff.Operation;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static java.util.Arrays.*;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class ServerSyncEngineTest {
 
     private ServerInMemoryDataStore dataStore;
+    private DefaultServerSynchronizer synchronizer;
     private ServerSyncEngine<String> engine;
     private final Subscriber<?> subscriber = mock(Subscriber.class);
 
     @Before
     public void setup() {
         dataStore = new ServerInMemoryDataStore();
-        engine = new ServerSyncEngine<String>(new DefaultServerSynchronizer(), dataStore);
+        synchronizer = spy(new DefaultServerSynchronizer());
+        engine = new ServerSyncEngine<String>(synchronizer, dataStore);
         when(subscriber.clientId()).thenReturn("client1");
     }
 
@@ -58,6 +75,7 @@ public class ServerSyncEngineTest {
         final String documentId = "1234";
         final PatchMessage patchMessage = engine.addSubscriber(subscriber, doc(documentId, null));
         assertThat(patchMessage.edits().isEmpty(), is(true));
+        assertThat(engine.subscribers(documentId).isEmpty(), is(true));
     }
 
     @Test
@@ -135,6 +153,60 @@ public class ServerSyncEngineTest {
         assertThat(edit.diffs().peek().text(), equalTo(originalVersion));
     }
 
+    @Test
+    public void diffAdvancesShadowWithoutPatching() {
+        final String documentId = "1234";
+        final String originalVersion = "{\"name\": \"Mr.Babar\"}";
+        final String updatedVersion = "{\"name\": \"Mr.Rosen\"}";
+        engine.addSubscriber(subscriber, doc(documentId, originalVersion));
+        dataStore.updateDocument(doc(documentId, updatedVersion));
+
+        engine.diff(documentId, subscriber.clientId());
+        final ShadowDocument<String> shadowDocument = dataStore.getShadowDocument(documentId, subscriber.clientId());
+        assertThat(shadowDocument.document().clientId(), equalTo(subscriber.clientId()));
+        assertThat(shadowDocument.document().content(), equalTo(updatedVersion));
+        assertThat(shadowDocument.serverVersion(), is(1L));
+        assertThat(shadowDocument.clientVersion(), is(0L));
+        verify(synchronizer, never()).patchShadow(any(Edit.class), any(ShadowDocument.class));
+    }
+
+    @Test
+    public void diffReusedForIdenticalShadows() {
+        final String documentId = "1234";
+        final String originalVersion = "{\"name\": \"Mr.Babar\"}";
+        final Subscriber<?> secondSubscriber = mock(Subscriber.class);
+        when(secondSubscriber.clientId()).thenReturn("client2");
+        final Subscriber<?> thirdSubscriber = mock(Subscriber.class);
+        when(thirdSubscriber.clientId()).thenReturn("client3");
+        engine.addSubscriber(subscriber, doc(documentId, originalVersion));
+        engine.addSubscriber(secondSubscriber, doc(documentId, originalVersion));
+        engine.addSubscriber(thirdSubscriber, doc(documentId, originalVersion));
+
+        final Edit edit = DefaultEdit.withDocumentId(documentId)
+                .clientId(subscriber.clientId())
+                .unchanged("{\"name\": ")
+                .delete("\"Mr.Babar\"")
+                .add("\"Mr.Rosen\"")
+                .unchanged("}")
+                .build();
+        engine.patchAndNotifySubscribers(edits(documentId, subscriber.clientId(), edit));
+
+        final ArgumentCaptor<PatchMessage> second = ArgumentCaptor.forClass(PatchMessage.class);
+        verify(secondSubscriber).patched(second.capture());
+        final ArgumentCaptor<PatchMessage> third = ArgumentCaptor.forClass(PatchMessage.class);
+        verify(thirdSubscriber).patched(third.capture());
+        final Edit secondEdit = second.getValue().edits().peek();
+        final Edit thirdEdit = third.getValue().edits().peek();
+        assertThat(thirdEdit.clientId(), equalTo(thirdSubscriber.clientId()));
+        assertThat(thirdEdit.serverVersion(), is(0L));
+        assertThat(thirdEdit.clientVersion(), is(0L));
+        assertThat(thirdEdit.checksum(), equalTo(secondEdit.checksum()));
+        assertThat(thirdEdit.diffs(), equalTo(secondEdit.diffs()));
+        // one diff for each of the added subscribers, one for the patching client and a single diff shared by the
+        // two other subscribers.
+        verify(synchronizer, times(5)).serverDiff(any(Document.class), any(ShadowDocument.class));
+    }
+
     @Test
     public void patch() {
         final String documentId = "1234";
@@ -164,6 +236,48 @@ public class ServerSyncEngineTest {
         assertThat(backupShadow.version(), is(0L));
     }
 
+    @Test
+    public void patchUnchangedDocumentIsNotDiffed() {
+        final String documentId = "1234";
+        final String originalVersion = "{\"name\": \"Mr.Babar\"}";
+        final String updatedVersion = "{\"name\": \"Mr.Rosen\"}";
+        engine.addSubscriber(subscriber, doc(documentId, originalVersion));
+
+        final Edit edit = DefaultEdit.withDocumentId(documentId)
+                .clientId(subscriber.clientId())
+                .unchanged("{\"name\": ")
+                .delete("\"Mr.Babar\"")
+                .add("\"Mr.Rosen\"")
+                .unchanged("}")
+                .build();
+        engine.patch(edits(documentId, subscriber.clientId(), edit));
+
+        assertThat(dataStore.getDocument(documentId).content(), equalTo(updatedVersion));
+        verify(synchronizer, never()).clientDiff(any(Document.class), any(ShadowDocument.class));
+    }
+
+    @Test
+    public void patchDivergedDocument() {
+        final String documentId = "1234";
+        final String originalVersion = "{\"name\": \"Mr.Babar\"}";
+        final String updatedVersion = "{\"name\": \"Mr.Rosen\"}";
+        engine.addSubscriber(subscriber, doc(documentId, originalVersion));
+        // simulate a change made to the server document by another client.
+        dataStore.updateDocument(doc(documentId, "{\"name\": \"Mr.Poon\"}"));
+
+        final Edit edit = DefaultEdit.withDocumentId(documentId)
+                .clientId(subscriber.clientId())
+                .unchanged("{\"name\": ")
+                .delete("\"Mr.Babar\"")
+                .add("\"Mr.Rosen\"")
+                .unchanged("}")
+                .build();
+        engine.patch(edits(documentId, subscriber.clientId(), edit));
+
+        assertThat(dataStore.getDocument(documentId).content(), equalTo(updatedVersion));
+        verify(synchronizer, times(1)).clientDiff(any(Document.class), any(ShadowDocument.class));
+    }
+
     @Test
     public void patchVersionAlreadyOnServer() {
         final String documentId = "1234";
@@ -288,6 +402,233 @@ public class ServerSyncEngineTest {
         assertThat(edits.isEmpty(), is(true));
     }
 
+    @Test
+    public void patchAndNotifySubscribersWithinNotificationWindow() {
+        final ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+        engine = new ServerSyncEngine<String>(synchronizer, dataStore, scheduler);
+        final String documentId = UUID.randomUUID().toString();
+        engine.setNotificationWindow(documentId, 50, TimeUnit.MILLISECONDS);
+        engine.addSubscriber(subscriber, doc(documentId, "Mr. Babar"));
+
+        final Edit first = DefaultEdit.withDocumentId(documentId)
+                .clientId(subscriber.clientId())
+                .clientVersion(0)
+                .unchanged("Mr. ")
+                .delete("Babar")
+                .add("Rosen")
+                .build();
+        engine.patchAndNotifySubscribers(edits(documentId, subscriber.clientId(), first));
+        final Edit second = DefaultEdit.withDocumentId(documentId)
+                .clientId(subscriber.clientId())
+                .clientVersion(1)
+                .unchanged("Mr. Rosen")
+                .add("!")
+                .build();
+        engine.patchAndNotifySubscribers(edits(documentId, subscriber.clientId(), second));
+        assertThat(dataStore.getDocument(documentId).content(), equalTo("Mr. Rosen!"));
+        verify(subscriber, never()).patched(any(PatchMessage.class));
+
+        final ArgumentCaptor<Runnable> notification = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler).schedule(notification.capture(), eq(50L), eq(TimeUnit.MILLISECONDS));
+        notification.getValue().run();
+        verify(subscriber).patched(any(PatchMessage.class));
+        // one diff for the added subscriber and a single diff for both patches.
+        verify(synchronizer, times(2)).serverDiff(any(Document.class), any(ShadowDocument.class));
+    }
+
+    @Test
+    public void patchAndNotifySubscribersSkipsUpToDateSubscribers() {
+        final String documentId = UUID.randomUUID().toString();
+        final Subscriber<?> secondSubscriber = mock(Subscriber.class);
+        when(secondSubscriber.clientId()).thenReturn("client2");
+        engine.addSubscriber(subscriber, doc(documentId, "Mr. Babar"));
+        engine.addSubscriber(secondSubscriber, doc(documentId, "Mr. Babar"));
+        final long serverVersion = dataStore.getShadowDocument(documentId, "client2").serverVersion();
+
+        final Edit edit = DefaultEdit.withDocumentId(documentId)
+                .clientId(subscriber.clientId())
+                .clientVersion(0)
+                .unchanged("Mr. Babar")
+                .build();
+        engine.patchAndNotifySubscribers(edits(documentId, subscriber.clientId(), edit));
+
+        // the patch of client1 is acknowledged, client2 has nothing to receive.
+        verify(subscriber).patched(any(PatchMessage.class));
+        verify(secondSubscriber, never()).patched(any(PatchMessage.class));
+        assertThat(dataStore.getEdits(documentId, "client2").isEmpty(), is(true));
+        assertThat(dataStore.getShadowDocument(documentId, "client2").serverVersion(), is(serverVersion));
+    }
+
+    @Test
+    public void patchAndNotifySubscribersSkipsSubscriberWithoutShadow() {
+        final String documentId = "1234";
+        final Subscriber<?> secondSubscriber = mock(Subscriber.class);
+        when(secondSubscriber.clientId()).thenReturn("client2");
+        engine.addSubscriber(subscriber, doc(documentId, "Mr. Babar"));
+        engine.addSubscriber(secondSubscriber, documentId);
+
+        final Edit edit = DefaultEdit.withDocumentId(documentId)
+                .clientId(subscriber.clientId())
+                .unchanged("Mr. ")
+                .delete("Babar")
+                .add("Rosen")
+                .build();
+        engine.patchAndNotifySubscribers(edits(documentId, subscriber.clientId(), edit));
+
+        verify(subscriber).patched(any(PatchMessage.class));
+        verify(secondSubscriber, never()).patched(any(PatchMessage.class));
+        assertThat(dataStore.getShadowDocument(documentId, secondSubscriber.clientId()), is(nullValue()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void setNotificationWindowWithoutScheduler() {
+        engine.setNotificationWindow("1234", 50, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void patchAndNotifySubscribersWithFanOutExecutor() {
+        // an executor that never runs anything, leaving all the work to the notifying thread.
+        final Executor executor = mock(Executor.class);
+        engine.setFanOutExecutor(executor, 2);
+        final String documentId = UUID.randomUUID().toString();
+        final List<Subscriber<?>> subscribers = new ArrayList<Subscriber<?>>();
+        for (int i = 0; i < 8; i++) {
+            final Subscriber<?> sub = mock(Subscriber.class);
+            when(sub.clientId()).thenReturn("client" + i);
+            engine.addSubscriber(sub, doc(documentId, "Mr. Babar"));
+            subscribers.add(sub);
+        }
+
+        final Edit edit = DefaultEdit.withDocumentId(documentId)
+                .clientId("client0")
+                .clientVersion(0)
+                .unchanged("Mr. ")
+                .delete("Babar")
+                .add("Rosen")
+                .build();
+        engine.patchAndNotifySubscribers(edits(documentId, "client0", edit));
+
+        verify(executor).execute(any(Runnable.class));
+        for (Subscriber<?> sub : subscribers) {
+            final ArgumentCaptor<PatchMessage> patchMessage = ArgumentCaptor.forClass(PatchMessage.class);
+            verify(sub).patched(patchMessage.capture());
+            assertThat(patchMessage.getValue().clientId(), equalTo(sub.clientId()));
+            assertThat(dataStore.getShadowDocument(documentId, sub.clientId()).document().content(),
+                    equalTo("Mr. Rosen"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setFanOutExecutorWithoutParallelism() {
+        engine.setFanOutExecutor(mock(Executor.class), 0);
+    }
+
+    @Test
+    public void diffsReseedsAtMaxPendingEdits() {
+        engine.setMaxPendingEdits(2);
+        final String documentId = "1234";
+        engine.addSubscriber(subscriber, doc(documentId, "Mr. Babar"));
+        dataStore.updateDocument(doc(documentId, "Mr. Rosen"));
+        engine.diffs(documentId, subscriber.clientId());
+        dataStore.updateDocument(doc(documentId, "Mr. Poon"));
+        engine.diffs(documentId, subscriber.clientId());
+        dataStore.updateDocument(doc(documentId, "Mr. Kuiper"));
+
+        final PatchMessage reseed = engine.diffs(documentId, subscriber.clientId());
+        assertThat(reseed.edits().size(), is(3));
+        final Edit seed = new LinkedList<Edit>(reseed.edits()).getLast();
+        assertThat(seed.clientVersion(), is(-1L));
+        assertThat(seed.serverVersion(), is(2L));
+        assertThat(dataStore.getEdits(documentId, subscriber.clientId()).isEmpty(), is(true));
+        final ShadowDocument<String> shadow = dataStore.getShadowDocument(documentId, subscriber.clientId());
+        assertThat(shadow.document().content(), equalTo("Mr. Kuiper"));
+        assertThat(shadow.serverVersion(), is(2L));
+        assertThat(shadow.clientVersion(), is(0L));
+
+        // diffing continues from the reseeded shadow.
+        dataStore.updateDocument(doc(documentId, "Mr. Rosen"));
+        final PatchMessage next = engine.diffs(documentId, subscriber.clientId());
+        assertThat(next.edits().size(), is(1));
+        assertThat(next.edits().peek().serverVersion(), is(2L));
+        assertThat(next.edits().peek().clientVersion(), is(0L));
+    }
+
+    @Test
+    public void patchAfterSyncStateEvicted() throws InterruptedException {
+        final String documentId = "1234";
+        final String clientId = subscriber.clientId();
+        engine.addSubscriber(subscriber, doc(documentId, "Mr. Babar"));
+        engine.removeSubscriber(subscriber, documentId);
+        Thread.sleep(5);
+        dataStore.evict(EvictionPolicy.builder().syncStateIdleTime(1, TimeUnit.MILLISECONDS).build(),
+                id -> Collections.<String>emptySet());
+        assertThat(dataStore.getShadowDocument(documentId, clientId), is(nullValue()));
+        dataStore.updateDocument(doc(documentId, "Mr. Babar the elephant"));
+
+        final Edit edit = DefaultEdit.withDocumentId(documentId)
+                .clientId(clientId)
+                .serverVersion(1)
+                .clientVersion(0)
+                .unchanged("Mr. ")
+                .delete("Babar")
+                .add("Rosen")
+                .build();
+        engine.patch(edits(documentId, clientId, edit));
+        assertThat(dataStore.getDocument(documentId).content(), equalTo("Mr. Rosen the elephant"));
+        final ShadowDocument<String> shadow = dataStore.getShadowDocument(documentId, clientId);
+        assertThat(shadow.document().content(), equalTo("Mr. Rosen the elephant"));
+        assertThat(shadow.serverVersion(), is(1L));
+        assertThat(shadow.clientVersion(), is(0L));
+
+        final List<Edit> pending = new ArrayList<Edit>(engine.diffs(documentId, clientId).edits());
+        assertThat(pending.size(), is(2));
+        final Edit seed = pending.get(0);
+        assertThat(seed.clientVersion(), is(-1L));
+        assertThat(seed.serverVersion(), is(1L));
+        assertThat(seed.diffs().size(), is(2));
+        assertThat(seed.diffs().get(0).operation(), is(Operation.DELETE));
+        assertThat(seed.diffs().get(0).text(), equalTo("Mr. Rosen"));
+        assertThat(seed.diffs().get(1).operation(), is(Operation.ADD));
+        assertThat(seed.diffs().get(1).text(), equalTo("Mr. Rosen the elephant"));
+        assertThat(pending.get(1).serverVersion(), is(1L));
+        assertThat(pending.get(1).clientVersion(), is(0L));
+    }
+
+    @Test
+    public void compactPatchAfterSyncStateEvicted() throws InterruptedException {
+        final String documentId = "1234";
+        final String clientId = subscriber.clientId();
+        engine.addSubscriber(subscriber, doc(documentId, "Mr. Babar"));
+        engine.removeSubscriber(subscriber, documentId);
+        Thread.sleep(5);
+        dataStore.evict(EvictionPolicy.builder().syncStateIdleTime(1, TimeUnit.MILLISECONDS).build(),
+                id -> Collections.<String>emptySet());
+        assertThat(dataStore.getShadowDocument(documentId, clientId), is(nullValue()));
+
+        final Edit edit = DefaultEdit.withDocumentId(documentId)
+                .clientId(clientId)
+                .serverVersion(0)
+                .clientVersion(0)
+                .diff(new DefaultDiff(Operation.UNCHANGED, 4))
+                .diff(new DefaultDiff(Operation.DELETE, 5))
+                .add("Rosen")
+                .build();
+        engine.patch(edits(documentId, clientId, edit));
+        assertThat(dataStore.getDocument(documentId).content(), equalTo("Mr. Babar"));
+
+        final Edit seed = engine.diffs(documentId, clientId).edits().peek();
+        assertThat(seed.clientVersion(), is(-1L));
+        assertThat(seed.diffs().get(0).operation(), is(Operation.DELETE));
+        assertThat(seed.diffs().get(0).text(), is(nullValue()));
+        assertThat(seed.diffs().get(0).length(), is(9));
+        assertThat(seed.diffs().get(1).text(), equalTo("Mr. Babar"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setMaxPendingEditsNegative() {
+        engine.setMaxPendingEdits(-1);
+    }
+
     private static PatchMessage edits(final String docId, final String clientId, Edit... edit) {
         return new DefaultPatchMessage(docId, clientId, new LinkedList<Edit>(asList(edit)));
     }
@@ -0,0 +1,111 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Arrays.asList;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class StripedExecutorTest {
+
+    @Test
+    public void executeSameKeyInOrder() throws InterruptedException {
+        final StripedExecutor executor = new StripedExecutor(4, "test");
+        final List<Integer> executed = new ArrayList<Integer>();
+        final List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            final int task = i;
+            executor.execute("document", new Runnable() {
+                @Override
+                public void run() {
+                    executed.add(task);
+                }
+            });
+            expected.add(task);
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS), is(true));
+        assertThat(executed, equalTo(expected));
+    }
+
+    @Test
+    public void executeDifferentLanesInParallel() throws InterruptedException {
+        final StripedExecutor executor = new StripedExecutor(2, "test");
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicBoolean released = new AtomicBoolean();
+        // "a" and "b" have consecutive hash codes and therefore map to different lanes.
+        executor.execute("a", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    released.set(latch.await(10, TimeUnit.SECONDS));
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        executor.execute("b", new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        executor.shutdown();
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS), is(true));
+        assertThat(released.get(), is(true));
+    }
+
+    @Test
+    public void executeOnEachLane() throws InterruptedException {
+        final StripedExecutor executor = new StripedExecutor(4, "test");
+        final List<String> keys = asList("a", "b", "c", "d", "e", "f");
+        final AtomicInteger lanes = new AtomicInteger();
+        final ConcurrentHashMap<String, Integer> matches = new ConcurrentHashMap<String, Integer>();
+        executor.executeOnEachLane(laneKeys -> () -> {
+            lanes.incrementAndGet();
+            for (String key : keys) {
+                if (laneKeys.test(key)) {
+                    matches.merge(key, 1, Integer::sum);
+                }
+            }
+        });
+        executor.shutdown();
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS), is(true));
+        assertThat(lanes.get(), is(4));
+        for (String key : keys) {
+            assertThat(matches.get(key), is(1));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noLanes() {
+        new StripedExecutor(0, "test");
+    }
+
+}
@@ -0,0 +1,137 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server;
+
+import org.jboss.aerogear.sync.PatchMessage;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class SubscriberRegistryTest {
+
+    @Test
+    public void add() {
+        final SubscriberRegistry registry = new SubscriberRegistry();
+        final Subscriber<?> client1 = subscriber("client1", "channel1");
+        final Subscriber<?> client2 = subscriber("client2", "channel2");
+        registry.add("1234", client1);
+        registry.add("1234", client2);
+        registry.add("1234", client1);
+        assertThat(registry.subscribers("1234").size(), is(2));
+        assertThat(registry.subscribers("1234").contains(client1), is(true));
+        assertThat(registry.subscribers("1234").contains(client2), is(true));
+        assertThat(registry.subscribers("5678").isEmpty(), is(true));
+    }
+
+    @Test
+    public void remove() {
+        final SubscriberRegistry registry = new SubscriberRegistry();
+        final Subscriber<?> client1 = subscriber("client1", "channel1");
+        final Subscriber<?> client2 = subscriber("client2", "channel2");
+        registry.add("1234", client1);
+        registry.add("1234", client2);
+        registry.remove("1234", client1);
+        assertThat(registry.subscribers("1234").size(), is(1));
+        assertThat(registry.subscribers("1234").contains(client2), is(true));
+        registry.remove("1234", client2);
+        assertThat(registry.subscribers("1234").isEmpty(), is(true));
+    }
+
+    @Test
+    public void removeNotSubscribed() {
+        final SubscriberRegistry registry = new SubscriberRegistry();
+        registry.remove("1234", subscriber("client1", "channel1"));
+        assertThat(registry.subscribers("1234").isEmpty(), is(true));
+    }
+
+    @Test
+    public void removeChannel() {
+        final SubscriberRegistry registry = new SubscriberRegistry();
+        final Subscriber<?> client1 = subscriber("client1", "channel1");
+        final Subscriber<?> client2 = subscriber("client2", "channel2");
+        final Subscriber<?> client2OtherDoc = subscriber("client2", "channel2");
+        registry.add("1234", client1);
+        registry.add("1234", client2);
+        registry.add("5678", client2OtherDoc);
+        registry.removeChannel("channel2");
+        assertThat(registry.subscribers("1234").size(), is(1));
+        assertThat(registry.subscribers("1234").contains(client1), is(true));
+        assertThat(registry.subscribers("5678").isEmpty(), is(true));
+    }
+
+    @Test
+    public void removeChannelFromMatchingDocuments() {
+        final SubscriberRegistry registry = new SubscriberRegistry();
+        final Subscriber<?> client1 = subscriber("client1", "channel1");
+        final Subscriber<?> client1OtherDoc = subscriber("client1", "channel1");
+        registry.add("1234", client1);
+        registry.add("5678", client1OtherDoc);
+        registry.removeChannel("channel1", documentId -> documentId.equals("1234"));
+        assertThat(registry.subscribers("1234").isEmpty(), is(true));
+        assertThat(registry.subscribers("5678").contains(client1OtherDoc), is(true));
+        registry.removeChannel("channel1");
+        assertThat(registry.subscribers("5678").isEmpty(), is(true));
+    }
+
+    @Test
+    public void removeAfterRemoveChannel() {
+        final SubscriberRegistry registry = new SubscriberRegistry();
+        final Subscriber<?> client1 = subscriber("client1", "channel1");
+        registry.add("1234", client1);
+        registry.removeChannel("channel1");
+        registry.remove("1234", client1);
+        registry.add("1234", client1);
+        assertThat(registry.subscribers("1234").contains(client1), is(true));
+    }
+
+    @Test
+    public void subscriberWithoutChannel() {
+        final SubscriberRegistry registry = new SubscriberRegistry();
+        final Subscriber<?> client1 = subscriber("client1", null);
+        registry.add("1234", client1);
+        assertThat(registry.subscribers("1234").contains(client1), is(true));
+        registry.remove("1234", client1);
+        assertThat(registry.subscribers("1234").isEmpty(), is(true));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void subscribersIsReadOnly() {
+        final SubscriberRegistry registry = new SubscriberRegistry();
+        registry.add("1234", subscriber("client1", "channel1"));
+        registry.subscribers("1234").clear();
+    }
+
+    private static Subscriber<String> subscriber(final String clientId, final String channel) {
+        return new Subscriber<String>() {
+            @Override
+            public String clientId() {
+                return clientId;
+            }
+
+            @Override
+            public String channel() {
+                return channel;
+            }
+
+            @Override
+            public void patched(final PatchMessage patchMessage) {
+            }
+        };
+    }
+
+}
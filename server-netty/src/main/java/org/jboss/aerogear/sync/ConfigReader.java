@@ -74,6 +74,50 @@ public final class ConfigReader {
         final Builder b = StandaloneConfig.host(json.get("host").asText());
         b.port(json.get("port").asInt());
 
+        final JsonNode engine = json.get("engine");
+        if (engine != null) {
+            final JsonNode threads = engine.get("threads");
+            if (threads != null) {
+                b.engineThreads(threads.asInt());
+            }
+            final JsonNode notificationWindow = engine.get("notificationWindow");
+            if (notificationWindow != null) {
+                b.notificationWindow(notificationWindow.asLong());
+            }
+            final JsonNode fanOutThreads = engine.get("fanOutThreads");
+            if (fanOutThreads != null) {
+                b.fanOutThreads(fanOutThreads.asInt());
+            }
+            final JsonNode maxPendingEdits = engine.get("maxPendingEdits");
+            if (maxPendingEdits != null) {
+                b.maxPendingEdits(maxPendingEdits.asInt());
+            }
+        }
+
+        final JsonNode eviction = json.get("eviction");
+        if (eviction != null) {
+            final JsonNode interval = eviction.get("interval");
+            if (interval != null) {
+                b.evictionInterval(interval.asLong());
+            }
+            final JsonNode syncStateIdleTime = eviction.get("syncStateIdleTime");
+            if (syncStateIdleTime != null) {
+                b.syncStateIdleTime(syncStateIdleTime.asLong());
+            }
+            final JsonNode documentIdleTime = eviction.get("documentIdleTime");
+            if (documentIdleTime != null) {
+                b.documentIdleTime(documentIdleTime.asLong());
+            }
+            final JsonNode maxDocuments = eviction.get("maxDocuments");
+            if (maxDocuments != null) {
+                b.maxDocuments(maxDocuments.asInt());
+            }
+            final JsonNode passivationDirectory = eviction.get("passivationDirectory");
+            if (passivationDirectory != null && !passivationDirectory.isNull()) {
+                b.passivationDirectory(passivationDirectory.asText());
+            }
+        }
+
         final JsonNode gcm = json.get("gcm");
         if (gcm != null) {
             final JsonNode enabled = gcm.get("enabled");
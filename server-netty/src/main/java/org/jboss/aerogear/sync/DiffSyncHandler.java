@@ -16,33 +16,64 @@
  */
 package org.jboss.aerogear.sync;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import io.netty.channel.ChannelFuture;
-import io.netty.channel.ChannelFutureListener;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketFrame;
 import io.netty.util.AttributeKey;
-import org.jboss.aerogear.sync.server.MessageType;
+import org.jboss.aerogear.sync.server.AsyncServerSyncEngine;
 import org.jboss.aerogear.sync.server.ServerSyncEngine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import static org.jboss.aerogear.sync.JsonMapper.toJson;
+import java.util.concurrent.CompletionStage;
 
+/**
+ * Netty handler that delegates the messages received from sync clients to an {@link AsyncServerSyncEngine}.
+ * <p>
+ * The I/O thread that received a message only parses it and hands it to the sync engine, responses are written
+ * when the returned stage completes. Writes made from a thread other than the channel's event loop, including
+ * those of the notified subscribers, are handed over by Netty to the event loop of the channel.
+ * <p>
+ * The subscribers of a handler share a {@link PatchMessageEncoder}, so that the diffs that a patch produces for
+ * many subscribers are encoded once and the frames of all these subscribers share the encoded bytes.
+ * <p>
+ * Clients announce that they read compact diffs with the {@code compact} field of their {@code add} message, or of
+ * their first patch message after a reconnect, and are then sent their patch messages in compact form. Clients
+ * that selected the {@link BinaryMapper#SUBPROTOCOL} subprotocol, which {@link DiffSyncServer} advertises, send
+ * binary frames and are sent binary frames.
+ */
 @ChannelHandler.Sharable
 public class DiffSyncHandler extends SimpleChannelInboundHandler<WebSocketFrame> {
 
     private static final Logger logger = LoggerFactory.getLogger(DiffSyncHandler.class);
     private static final AttributeKey<Boolean> DOC_ADD = AttributeKey.valueOf(DiffSyncHandler.class, "DOC_ADD");
 
-    private final ServerSyncEngine<String> syncEngine;
+    private final AsyncServerSyncEngine<String> syncEngine;
+    private final PatchMessageEncoder encoder;
 
     public DiffSyncHandler(final ServerSyncEngine<String> syncEngine) {
+        this(new AsyncServerSyncEngine<String>(syncEngine));
+    }
+
+    public DiffSyncHandler(final AsyncServerSyncEngine<String> syncEngine) {
+        this(syncEngine, new PatchMessageEncoder());
+    }
+
+    /**
+     * Creates a handler whose subscribers encode their patch messages with the passed in encoder.
+     *
+     * @param syncEngine the sync engine to delegate to.
+     * @param encoder the encoder that is shared by the subscribers of this handler.
+     */
+    public DiffSyncHandler(final AsyncServerSyncEngine<String> syncEngine, final PatchMessageEncoder encoder) {
         this.syncEngine = syncEngine;
+        this.encoder = encoder;
     }
 
     @Override
@@ -54,83 +85,111 @@ public class DiffSyncHandler extends SimpleChannelInboundHandler<WebSocketFrame>
         }
 
         if (frame instanceof TextWebSocketFrame) {
-            final JsonNode json = JsonMapper.asJsonNode(((TextWebSocketFrame) frame).text());
-            logger.info("Doc:" + json);
-            switch (MessageType.from(json.get("msgType").asText())) {
-            case ADD:
-                final Document<String> doc = documentFromJson(json);
-                final String clientId = json.get("clientId").asText();
-                final PatchMessage patchMessage =  addSubscriber(doc, clientId, ctx);
-                ctx.attr(DOC_ADD).set(true);
-                ctx.channel().writeAndFlush(textFrame(toJson(patchMessage)));
-                break;
-            case PATCH:
-                final PatchMessage clientPatchMessage = JsonMapper.fromJson(json.toString(), DefaultPatchMessage.class);
-                checkForReconnect(clientPatchMessage.documentId(), clientPatchMessage.clientId(), ctx);
-                logger.debug("Client Edits=" + clientPatchMessage);
-                patch(clientPatchMessage);
-                break;
-            case DETACH:
-                // detach the client from a specific document.
-                break;
-            case UNKNOWN:
-                unknownMessageType(ctx, json);
-                break;
-            }
+            final SyncMessage message = readMessage(frame.content());
+            handleMessage(ctx, message, message.compact() ? WireFormat.COMPACT_JSON : WireFormat.JSON);
+        } else if (frame instanceof BinaryWebSocketFrame) {
+            handleMessage(ctx, readBinaryMessage(frame.content()), WireFormat.BINARY);
         } else {
             ctx.fireChannelRead(frame);
         }
     }
 
-    private PatchMessage addSubscriber(final Document<String> document,
-                                       final String clientId,
-                                       final ChannelHandlerContext ctx) {
-        final NettySubscriber subscriber = new NettySubscriber(clientId, ctx);
-        addCloseHandler(ctx, subscriber, document.id());
-        return syncEngine.addSubscriber(subscriber, document);
+    /**
+     * Handles a decoded message. Patch messages are sent to the client in the wire format of the message that
+     * added it as a subscriber.
+     */
+    private void handleMessage(final ChannelHandlerContext ctx, final SyncMessage message, final WireFormat format) {
+        logger.debug("Received " + message);
+        switch (message.type()) {
+        case ADD:
+            final Document<String> doc = message.document();
+            final String clientId = message.clientId();
+            // set before the document is added, so that a patch that follows is not taken for a reconnect.
+            ctx.attr(DOC_ADD).set(true);
+            addSubscriber(doc, clientId, format, ctx).whenComplete((patchMessage, e) -> {
+                if (e != null) {
+                    logger.error("Caught exception", e);
+                } else {
+                    ctx.channel().writeAndFlush(encoder.encode(ctx.alloc(), patchMessage, format));
+                }
+                removeSubscribersIfClosed(ctx);
+            });
+            break;
+        case PATCH:
+            final PatchMessage clientPatchMessage = message.patchMessage();
+            checkForReconnect(clientPatchMessage.documentId(), clientPatchMessage.clientId(), format, ctx);
+            logger.debug("Client Edits=" + clientPatchMessage);
+            patch(clientPatchMessage);
+            break;
+        case DETACH:
+            detach(message.documentId(), message.clientId(), ctx);
+            break;
+        case UNKNOWN:
+            unknownMessageType(ctx, message);
+            break;
+        }
+    }
+
+    private CompletionStage<PatchMessage> addSubscriber(final Document<String> document,
+                                                        final String clientId,
+                                                        final WireFormat format,
+                                                        final ChannelHandlerContext ctx) {
+        return syncEngine.addSubscriber(new NettySubscriber(clientId, ctx, encoder, format), document);
     }
 
     private void patch(final PatchMessage clientEdit) {
-        syncEngine.patchAndNotifySubscribers(clientEdit);
-    }
-
-    private static Document<String> documentFromJson(final JsonNode json) {
-        final JsonNode contentNode = json.get("content");
-        String content = null;
-        if (contentNode != null && !contentNode.isNull()) {
-            if (contentNode.isArray() || contentNode.isObject()) {
-                content = JsonMapper.toString(contentNode);
-            } else {
-                content = contentNode.asText();
-            }
+        syncEngine.patchAndNotifySubscribers(clientEdit).whenComplete(DiffSyncHandler::logFailure);
+    }
+
+    private void detach(final String documentId, final String clientId, final ChannelHandlerContext ctx) {
+        logger.debug("Detaching client [" + clientId + "] from document [" + documentId + ']');
+        syncEngine.detachSubscriber(new NettySubscriber(clientId, ctx), documentId)
+                .whenComplete(DiffSyncHandler::logFailure);
+    }
+
+    private static void logFailure(final Object result, final Throwable e) {
+        if (e != null) {
+            logger.error("Caught exception", e);
         }
-        return new DefaultDocument<String>(json.get("id").asText(), content);
     }
 
-    private void checkForReconnect(final String documentId, final String clientId, final ChannelHandlerContext ctx) {
+    private void checkForReconnect(final String documentId,
+                                   final String clientId,
+                                   final WireFormat format,
+                                   final ChannelHandlerContext ctx) {
         if (ctx.attr(DOC_ADD).get() == Boolean.TRUE) {
             return;
         }
         logger.info("Reconnected client [" + clientId + "]. Adding as listener.");
         // the context was used to reconnect so we need to add client as a listener
-        addSubscriber(ctx, clientId, documentId);
+        addSubscriber(ctx, clientId, format, documentId);
     }
 
-    private void addSubscriber(final ChannelHandlerContext ctx, final String clientId, final String documentId) {
-        final NettySubscriber subscriber = new NettySubscriber(clientId, ctx);
-        syncEngine.addSubscriber(subscriber, documentId);
-        addCloseHandler(ctx, subscriber, documentId);
+    private void addSubscriber(final ChannelHandlerContext ctx,
+                               final String clientId,
+                               final WireFormat format,
+                               final String documentId) {
+        final NettySubscriber subscriber = new NettySubscriber(clientId, ctx, encoder, format);
+        syncEngine.addSubscriber(subscriber, documentId).whenComplete((result, e) -> {
+            logFailure(result, e);
+            removeSubscribersIfClosed(ctx);
+        });
     }
 
-    private void addCloseHandler(final ChannelHandlerContext ctx,
-                                 final NettySubscriber subscriber,
-                                 final String documentId) {
-        ctx.channel().closeFuture().addListener(new ChannelFutureListener() {
-            @Override
-            public void operationComplete(final ChannelFuture future) throws Exception {
-                syncEngine.removeSubscriber(subscriber, documentId);
-            }
-        });
+    /**
+     * Removes the subscribers of a channel that was closed before they were added, which can happen when the
+     * sync engine runs on its own threads.
+     */
+    private void removeSubscribersIfClosed(final ChannelHandlerContext ctx) {
+        if (!ctx.channel().isActive()) {
+            syncEngine.removeSubscribers(ctx).whenComplete(DiffSyncHandler::logFailure);
+        }
+    }
+
+    @Override
+    public void channelInactive(final ChannelHandlerContext ctx) throws Exception {
+        syncEngine.removeSubscribers(ctx).whenComplete(DiffSyncHandler::logFailure);
+        super.channelInactive(ctx);
     }
 
     @Override
@@ -138,8 +197,37 @@ public class DiffSyncHandler extends SimpleChannelInboundHandler<WebSocketFrame>
         logger.error("Caught exception", cause);
     }
 
-    private static void unknownMessageType(final ChannelHandlerContext ctx, final JsonNode json) {
-        ctx.channel().writeAndFlush(textFrame("{\"result\": \"Unknown msgType '" + json.get("msgType").asText() + "'\"}"));
+    private static void unknownMessageType(final ChannelHandlerContext ctx, final SyncMessage message) {
+        if (message.msgType() == null) {
+            // not a sync message, for example the reply to an unknown message, which must not be replied to.
+            logger.warn("Ignoring message without msgType: " + message);
+            return;
+        }
+        ctx.channel().writeAndFlush(textFrame("{\"result\": \"Unknown msgType '" + message.msgType() + "'\"}"));
+    }
+
+    /**
+     * Decodes a message straight from the content of a frame, without copying it into a string first.
+     */
+    private static SyncMessage readMessage(final ByteBuf content) {
+        if (content.hasArray()) {
+            return JsonMapper.readMessage(content.array(),
+                    content.arrayOffset() + content.readerIndex(),
+                    content.readableBytes());
+        }
+        return JsonMapper.readMessage(new ByteBufInputStream(content));
+    }
+
+    /**
+     * Decodes a binary message straight from the content of a frame, see {@link BinaryMapper}.
+     */
+    private static SyncMessage readBinaryMessage(final ByteBuf content) {
+        if (content.hasArray()) {
+            return BinaryMapper.readMessage(content.array(),
+                    content.arrayOffset() + content.readerIndex(),
+                    content.readableBytes());
+        }
+        return BinaryMapper.readMessage(new ByteBufInputStream(content));
     }
 
     private static TextWebSocketFrame textFrame(final String text) {
@@ -27,56 +27,212 @@ import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpRequestDecoder;
 import io.netty.handler.codec.http.HttpResponseEncoder;
 import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import org.jboss.aerogear.sync.server.AsyncServerSyncEngine;
 import org.jboss.aerogear.sync.server.DefaultServerSynchronizer;
+import org.jboss.aerogear.sync.server.EvictionPolicy;
+import org.jboss.aerogear.sync.server.FilePassivationStore;
 import org.jboss.aerogear.sync.server.ServerInMemoryDataStore;
 import org.jboss.aerogear.sync.server.ServerSyncEngine;
-import org.jboss.aerogear.sync.server.ServerSynchronizer;
+import org.jboss.aerogear.sync.server.StripedExecutor;
+import org.jboss.aerogear.sync.server.Subscriber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.nio.file.Paths;
+import java.util.Set;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * A Netty based WebSocket server that is able to handle differential synchronization edits.
+ * <p>
+ * The server can be run standalone using {@link #main(String...)}, or started and stopped from within
+ * another process, for example a test or a load generator, using {@link #start()} and {@link #stop()}.
  */
 public final class DiffSyncServer {
 
+    private static final Logger logger = LoggerFactory.getLogger(DiffSyncServer.class);
     private static final String DEFAULT_CONFIG = "/sync.config";
 
+    private final StandaloneConfig config;
+    private final ServerSyncEngine<String> syncEngine;
+    private final ServerInMemoryDataStore dataStore;
+    private ScheduledExecutorService evictionScheduler;
+    private final ScheduledExecutorService notificationScheduler;
+    private final ForkJoinPool fanOutExecutor;
+    private final PatchMessageEncoder encoder = new PatchMessageEncoder();
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private StripedExecutor engineExecutor;
+    private Channel channel;
+
+    public DiffSyncServer(final StandaloneConfig config) {
+        this.config = config;
+        notificationScheduler = config.notificationWindow() > 0 ? Executors.newSingleThreadScheduledExecutor() : null;
+        dataStore = newDataStore(config);
+        syncEngine = new ServerSyncEngine<String>(new DefaultServerSynchronizer(), dataStore, notificationScheduler);
+        if (notificationScheduler != null) {
+            syncEngine.setNotificationWindow(config.notificationWindow(), TimeUnit.MILLISECONDS);
+        }
+        fanOutExecutor = config.fanOutThreads() > 0 ? new ForkJoinPool(config.fanOutThreads()) : null;
+        if (fanOutExecutor != null) {
+            syncEngine.setFanOutExecutor(fanOutExecutor, config.fanOutThreads() + 1);
+        }
+        syncEngine.setMaxPendingEdits(config.maxPendingEdits());
+    }
+
+    /**
+     * Creates a server that uses the passed-in sync engine. The notification window, fan-out threads, maximum
+     * number of pending edits and eviction of the configuration are not applied to this engine, they are configured
+     * on the engine and its data store.
+     *
+     * @param config the configuration of the server.
+     * @param syncEngine the sync engine to use.
+     */
+    public DiffSyncServer(final StandaloneConfig config, final ServerSyncEngine<String> syncEngine) {
+        this.config = config;
+        this.syncEngine = syncEngine;
+        dataStore = null;
+        notificationScheduler = null;
+        fanOutExecutor = null;
+    }
+
+    /**
+     * Binds this server to the host and port specified in the configuration.
+     *
+     * @return {@code DiffSyncServer} this server to allow method chaining.
+     * @throws InterruptedException if interrupted while waiting for the bind to complete.
+     */
+    public DiffSyncServer start() throws InterruptedException {
+        bossGroup = new NioEventLoopGroup();
+        workerGroup = new NioEventLoopGroup();
+        if (config.engineThreads() > 0) {
+            engineExecutor = new StripedExecutor(config.engineThreads(), "sync-engine");
+        }
+        final AsyncServerSyncEngine<String> asyncSyncEngine = new AsyncServerSyncEngine<String>(syncEngine, engineExecutor);
+        final DiffSyncHandler diffSyncHandler = new DiffSyncHandler(asyncSyncEngine, encoder);
+        final ServerBootstrap sb = new ServerBootstrap();
+        sb.group(bossGroup, workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    public void initChannel(final SocketChannel ch) throws Exception {
+                        ch.pipeline().addLast(
+                                new HttpRequestDecoder(),
+                                new HttpObjectAggregator(65536),
+                                new HttpResponseEncoder(),
+                                // JSON clients do not ask for a subprotocol, binary ones ask for this one.
+                                new WebSocketServerProtocolHandler("/sync", BinaryMapper.SUBPROTOCOL),
+                                diffSyncHandler);
+                    }
+                });
+
+        if (config.isGcmEnabled()) {
+            sb.handler(new GcmHandler(config, asyncSyncEngine, Executors.newSingleThreadExecutor()));
+        }
+
+        try {
+            channel = sb.bind(config.host(), config.port()).sync().channel();
+        } catch (final InterruptedException e) {
+            stop();
+            throw e;
+        }
+        System.out.println("SyncServer bound to " + config.host() + ':' + config.port());
+        if (dataStore != null && config.evictionInterval() > 0) {
+            startEviction();
+        }
+        return this;
+    }
+
+    private void startEviction() {
+        final EvictionPolicy policy = EvictionPolicy.builder()
+                .syncStateIdleTime(config.syncStateIdleTime(), TimeUnit.MILLISECONDS)
+                .documentIdleTime(config.documentIdleTime(), TimeUnit.MILLISECONDS)
+                .maxDocuments(config.maxDocuments())
+                .build();
+        evictionScheduler = Executors.newSingleThreadScheduledExecutor();
+        evictionScheduler.scheduleWithFixedDelay(() -> evict(policy),
+                config.evictionInterval(),
+                config.evictionInterval(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    private void evict(final EvictionPolicy policy) {
+        try {
+            dataStore.evict(policy, this::subscribedClients);
+            logger.debug("Evicted sync states: " + dataStore.evictedSyncStates() +
+                    ", evicted documents: " + dataStore.evictedDocuments() +
+                    ", passivated documents: " + dataStore.passivatedDocuments() +
+                    ", reloaded documents: " + dataStore.reloadedDocuments());
+        } catch (final RuntimeException e) {
+            logger.warn("Eviction failed", e);
+        }
+    }
+
+    private Set<String> subscribedClients(final String documentId) {
+        return syncEngine.subscribers(documentId).stream().map(Subscriber::clientId).collect(Collectors.toSet());
+    }
+
+    /**
+     * Blocks until the server channel has been closed.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void awaitClose() throws InterruptedException {
+        channel.closeFuture().sync();
+    }
+
+    /**
+     * Closes the server channel and shuts down the event loops and sync engine threads used by this server.
+     */
+    public void stop() {
+        if (channel != null) {
+            channel.close().syncUninterruptibly();
+        }
+        bossGroup.shutdownGracefully();
+        workerGroup.shutdownGracefully();
+        if (engineExecutor != null) {
+            engineExecutor.shutdown();
+        }
+        if (notificationScheduler != null) {
+            notificationScheduler.shutdown();
+        }
+        if (fanOutExecutor != null) {
+            fanOutExecutor.shutdown();
+        }
+        if (evictionScheduler != null) {
+            evictionScheduler.shutdown();
+        }
+        encoder.release();
+    }
+
+    /**
+     * Returns the data store of the sync engine that this server created.
+     *
+     * @return {@code ServerInMemoryDataStore} the data store, or {@code null} if this server was created with a
+     * sync engine of its own.
+     */
+    public ServerInMemoryDataStore dataStore() {
+        return dataStore;
+    }
+
+    private static ServerInMemoryDataStore newDataStore(final StandaloneConfig config) {
+        if (config.passivationDirectory() == null) {
+            return new ServerInMemoryDataStore();
+        }
+        return new ServerInMemoryDataStore(new FilePassivationStore(Paths.get(config.passivationDirectory())));
+    }
+
     public static void main(final String... args) throws Exception {
         final String configFile = args.length == 0 ? DEFAULT_CONFIG : args[0];
-        final StandaloneConfig config = ConfigReader.parse(configFile);
-        final EventLoopGroup bossGroup = new NioEventLoopGroup();
-        final EventLoopGroup workerGroup = new NioEventLoopGroup();
-        final ServerSynchronizer<String> synchronizer = new DefaultServerSynchronizer();
-        final ServerInMemoryDataStore dataStore = new ServerInMemoryDataStore();
-        final ServerSyncEngine<String> syncEngine = new ServerSyncEngine<String>(synchronizer, dataStore);
-        final DiffSyncHandler diffSyncHandler = new DiffSyncHandler(syncEngine);
+        final DiffSyncServer server = new DiffSyncServer(ConfigReader.parse(configFile)).start();
         try {
-            final ServerBootstrap sb = new ServerBootstrap();
-            sb.group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
-                    .childHandler(new ChannelInitializer<SocketChannel>() {
-                        @Override
-                        public void initChannel(final SocketChannel ch) throws Exception {
-                            ch.pipeline().addLast(
-                                    new HttpRequestDecoder(),
-                                    new HttpObjectAggregator(65536),
-                                    new HttpResponseEncoder(),
-                                    new WebSocketServerProtocolHandler("/sync"),
-                                    diffSyncHandler);
-                        }
-                    });
-
-            if (config.isGcmEnabled()) {
-                sb.handler(new GcmHandler(config, syncEngine, Executors.newSingleThreadExecutor()));
-            }
-
-            final Channel ch = sb.bind(config.host(), config.port()).sync().channel();
-            System.out.println("SyncServer bound to " + config.host() + ':' + config.port());
-
-            ch.closeFuture().sync();
+            server.awaitClose();
         } finally {
-            bossGroup.shutdownGracefully();
-            workerGroup.shutdownGracefully();
+            server.stop();
         }
     }
 }
@@ -2,7 +2,7 @@ package org.jboss.aerogear.sync;
 
 import io.netty.channel.ChannelHandlerAdapter;
 import io.netty.channel.ChannelHandlerContext;
-import org.jboss.aerogear.sync.server.ServerSyncEngine;
+import org.jboss.aerogear.sync.server.AsyncServerSyncEngine;
 import org.jivesoftware.smack.ConnectionConfiguration;
 import org.jivesoftware.smack.ConnectionListener;
 import org.jivesoftware.smack.PacketInterceptor;
@@ -26,13 +26,13 @@ public class GcmHandler extends ChannelHandlerAdapter {
     private static final Logger LOGGER = LoggerFactory.getLogger(GcmHandler.class);
 
     private final StandaloneConfig syncConfig;
-    private final ServerSyncEngine<String> syncEngine;
+    private final AsyncServerSyncEngine<String> syncEngine;
     private final ExecutorService executorService;
 
     private XMPPConnection connection;
 
     public GcmHandler(final StandaloneConfig syncConfig,
-                      final ServerSyncEngine<String> syncEngine,
+                      final AsyncServerSyncEngine<String> syncEngine,
                       final ExecutorService executorService) {
         this.syncConfig = syncConfig;
         this.syncEngine = syncEngine;
@@ -1,19 +1,50 @@
 package org.jboss.aerogear.sync;
 
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
 import org.jboss.aerogear.sync.server.Subscriber;
 
-import static org.jboss.aerogear.sync.JsonMapper.toJson;
-
 public class NettySubscriber implements Subscriber<ChannelHandlerContext> {
 
+    private static final PatchMessageEncoder UNSHARED_ENCODER = new PatchMessageEncoder(0, 0);
+
     private final String clientId;
     private final ChannelHandlerContext ctx;
+    private final PatchMessageEncoder encoder;
+    private final WireFormat format;
 
     public NettySubscriber(final String clientId, final ChannelHandlerContext ctx) {
+        this(clientId, ctx, UNSHARED_ENCODER);
+    }
+
+    /**
+     * Creates a subscriber whose patch messages are encoded by the passed in encoder. Subscribers that share an
+     * encoder share the encoded diffs of the edits they have in common.
+     *
+     * @param clientId the id of the client.
+     * @param ctx the context of the client's channel.
+     * @param encoder the encoder of the patch messages.
+     */
+    public NettySubscriber(final String clientId, final ChannelHandlerContext ctx, final PatchMessageEncoder encoder) {
+        this(clientId, ctx, encoder, WireFormat.JSON);
+    }
+
+    /**
+     * Creates a subscriber whose patch messages are encoded by the passed in encoder, in the wire format that the
+     * client has asked for.
+     *
+     * @param clientId the id of the client.
+     * @param ctx the context of the client's channel.
+     * @param encoder the encoder of the patch messages.
+     * @param format the wire format of the client.
+     */
+    public NettySubscriber(final String clientId,
+                           final ChannelHandlerContext ctx,
+                           final PatchMessageEncoder encoder,
+                           final WireFormat format) {
         this.clientId = clientId;
         this.ctx = ctx;
+        this.encoder = encoder;
+        this.format = format;
     }
 
     @Override
@@ -28,7 +59,7 @@ public class NettySubscriber implements Subscriber<ChannelHandlerContext> {
 
     @Override
     public void patched(final PatchMessage patchMessage) {
-        ctx.channel().writeAndFlush(textFrame(toJson(patchMessage)));
+        ctx.channel().writeAndFlush(encoder.encode(ctx.alloc(), patchMessage, format));
     }
 
     @Override
@@ -44,7 +75,7 @@ public class NettySubscriber implements Subscriber<ChannelHandlerContext> {
         if (!clientId.equals(subscriber.clientId())) {
             return false;
         }
-        return !ctx.equals(subscriber.channel());
+        return ctx.equals(subscriber.channel());
     }
 
     @Override
@@ -59,8 +90,4 @@ public class NettySubscriber implements Subscriber<ChannelHandlerContext> {
         return "Client[clientId=" + clientId + ", channel=" + ctx + ']';
     }
 
-    private static TextWebSocketFrame textFrame(final String text) {
-        return new TextWebSocketFrame(text);
-    }
-
 }
@@ -0,0 +1,436 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes {@link PatchMessage}s into WebSocket frames.
+ *
+ * The JSON is written as UTF-8 straight into buffers from the channel's allocator, which is pooled by default,
+ * instead of being built as a {@code String} and then encoded into a new buffer by {@link TextWebSocketFrame}.
+ *
+ * When a document is patched every subscriber whose shadow had the same content receives an edit with the same
+ * diffs, only the client id, versions and checksum of the edit differ. The encoded diffs of such edits are cached
+ * and shared by the frames of all these subscribers, each frame is a composite of its own small envelope and a
+ * duplicate of the shared diffs. The engine reuses the very same {@link Diff} instances for these edits, so the
+ * cache matches diffs by identity and never has to compare their text.
+ *
+ * Subscribers that read compact diffs receive their {@code UNCHANGED} and {@code DELETE} diffs as lengths, see
+ * {@link JsonMapper#toCompactJson(PatchMessage)}, and those that selected the binary subprotocol receive binary
+ * frames, see {@link BinaryMapper}.
+ */
+public final class PatchMessageEncoder {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final int MESSAGE_OVERHEAD = 128;
+    private static final int EDIT_OVERHEAD = 160;
+    private static final int DIFF_OVERHEAD = 32;
+    private static final int DEFAULT_MAX_SHARED_DIFFS = 16;
+    private static final int DEFAULT_MIN_SHARED_SIZE = 1024;
+
+    private final LinkedHashMap<DiffsKey, ByteBuf> sharedDiffs;
+    private final int minSharedSize;
+
+    /**
+     * Creates an encoder that shares the encoded diffs of up to 16 edits of at least 1 KB.
+     */
+    public PatchMessageEncoder() {
+        this(DEFAULT_MAX_SHARED_DIFFS, DEFAULT_MIN_SHARED_SIZE);
+    }
+
+    /**
+     * Creates an encoder.
+     *
+     * @param maxSharedDiffs the maximum number of encoded diffs that are kept for sharing, zero to not share any.
+     * @param minSharedSize the minimum length of the text of the diffs of an edit for them to be shared. Smaller
+     *                      diffs are cheaper to encode again than to share.
+     * @throws IllegalArgumentException if maxSharedDiffs or minSharedSize is negative.
+     */
+    public PatchMessageEncoder(final int maxSharedDiffs, final int minSharedSize) {
+        if (maxSharedDiffs < 0) {
+            throw new IllegalArgumentException("maxSharedDiffs must not be negative, was " + maxSharedDiffs);
+        }
+        if (minSharedSize < 0) {
+            throw new IllegalArgumentException("minSharedSize must not be negative, was " + minSharedSize);
+        }
+        this.minSharedSize = minSharedSize;
+        sharedDiffs = maxSharedDiffs == 0 ? null : new LinkedHashMap<DiffsKey, ByteBuf>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<DiffsKey, ByteBuf> eldest) {
+                if (size() > maxSharedDiffs) {
+                    eldest.getValue().release();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Encodes a patch message into a text frame.
+     *
+     * @param alloc the allocator to allocate the frame's buffers from, usually {@code ctx.alloc()}.
+     * @param patchMessage the patch message to encode.
+     * @return {@link TextWebSocketFrame} a frame containing the JSON of the patch message.
+     */
+    public TextWebSocketFrame encode(final ByteBufAllocator alloc, final PatchMessage patchMessage) {
+        return encode(alloc, patchMessage, false);
+    }
+
+    /**
+     * Encodes a patch message into a text frame, with its diffs in compact form if requested.
+     *
+     * @param alloc the allocator to allocate the frame's buffers from, usually {@code ctx.alloc()}.
+     * @param patchMessage the patch message to encode.
+     * @param compact whether the diffs should be encoded in compact form, only for receivers that read it.
+     * @return {@link TextWebSocketFrame} a frame containing the JSON of the patch message.
+     */
+    public TextWebSocketFrame encode(final ByteBufAllocator alloc,
+                                     final PatchMessage patchMessage,
+                                     final boolean compact) {
+        final FrameOutput out = new FrameOutput(alloc, envelopeSize(patchMessage, compact));
+        try {
+            final JsonGenerator generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            try {
+                writePatchMessage(patchMessage, compact, generator, out);
+            } finally {
+                generator.close();
+            }
+            return new TextWebSocketFrame(out.finish());
+        } catch (final IOException e) {
+            out.release();
+            throw new RuntimeException("error trying to encode patch message [" + patchMessage + ']', e);
+        } catch (final RuntimeException e) {
+            out.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Encodes a patch message into a binary frame, see {@link BinaryMapper}. Binary diffs are compact and rarely
+     * worth sharing, so they are encoded for every frame.
+     *
+     * @param alloc the allocator to allocate the frame's buffer from, usually {@code ctx.alloc()}.
+     * @param patchMessage the patch message to encode.
+     * @return {@link BinaryWebSocketFrame} a frame containing the encoded patch message.
+     */
+    public BinaryWebSocketFrame encodeBinary(final ByteBufAllocator alloc, final PatchMessage patchMessage) {
+        final ByteBuf buffer = alloc.buffer(estimatedSize(patchMessage, true));
+        try {
+            BinaryMapper.writePatchMessage(patchMessage, new ByteBufOutputStream(buffer));
+            return new BinaryWebSocketFrame(buffer);
+        } catch (final RuntimeException e) {
+            buffer.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Encodes a patch message into a frame of the passed in wire format.
+     *
+     * @param alloc the allocator to allocate the frame's buffers from, usually {@code ctx.alloc()}.
+     * @param patchMessage the patch message to encode.
+     * @param format the wire format of the receiver.
+     * @return {@link WebSocketFrame} a text or binary frame containing the patch message.
+     */
+    public WebSocketFrame encode(final ByteBufAllocator alloc,
+                                 final PatchMessage patchMessage,
+                                 final WireFormat format) {
+        switch (format) {
+            case BINARY:
+                return encodeBinary(alloc, patchMessage);
+            case COMPACT_JSON:
+                return encode(alloc, patchMessage, true);
+            default:
+                return encode(alloc, patchMessage, false);
+        }
+    }
+
+    /**
+     * Releases the shared diffs, frames that still use them keep them until they are released themselves.
+     */
+    public void release() {
+        if (sharedDiffs != null) {
+            synchronized (sharedDiffs) {
+                for (ByteBuf diffs : sharedDiffs.values()) {
+                    diffs.release();
+                }
+                sharedDiffs.clear();
+            }
+        }
+    }
+
+    private void writePatchMessage(final PatchMessage patchMessage,
+                                   final boolean compact,
+                                   final JsonGenerator generator,
+                                   final FrameOutput out) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("msgType", "patch");
+        generator.writeStringField("id", patchMessage.documentId());
+        generator.writeStringField("clientId", patchMessage.clientId());
+        if (compact) {
+            generator.writeBooleanField("compact", true);
+        }
+        generator.writeArrayFieldStart("edits");
+        for (Edit edit : patchMessage.edits()) {
+            if (edit == null) {
+                continue;
+            }
+            generator.writeStartObject();
+            generator.writeStringField("clientId", edit.clientId());
+            generator.writeStringField("id", edit.documentId());
+            generator.writeNumberField("clientVersion", edit.clientVersion());
+            generator.writeNumberField("serverVersion", edit.serverVersion());
+            generator.writeStringField("checksum", edit.checksum());
+            generator.writeFieldName("diffs");
+            final ByteBuf shared = sharedDiffs(out.alloc, edit.diffs(), compact);
+            if (shared == null) {
+                JsonMapper.writeDiffs(edit.diffs(), generator, compact);
+            } else {
+                // writes the separator of the field, the value itself is the shared buffer.
+                generator.writeRawValue("");
+                generator.flush();
+                out.append(shared);
+            }
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    /**
+     * Returns a retained duplicate of the encoded diffs, encoding and caching them first if needed, or
+     * {@code null} if the diffs are not shared.
+     */
+    private ByteBuf sharedDiffs(final ByteBufAllocator alloc, final List<Diff> diffs, final boolean compact) {
+        if (!isShared(textLength(diffs, compact))) {
+            return null;
+        }
+        final DiffsKey key = new DiffsKey(diffs, compact);
+        synchronized (sharedDiffs) {
+            final ByteBuf cached = sharedDiffs.get(key);
+            if (cached != null) {
+                return cached.duplicate().retain();
+            }
+        }
+        final ByteBuf encoded = encodeDiffs(alloc, diffs, compact);
+        synchronized (sharedDiffs) {
+            final ByteBuf previous = sharedDiffs.put(key, encoded);
+            if (previous != null) {
+                previous.release();
+            }
+            return encoded.duplicate().retain();
+        }
+    }
+
+    private boolean isShared(final int textLength) {
+        return sharedDiffs != null && textLength >= minSharedSize;
+    }
+
+    private static ByteBuf encodeDiffs(final ByteBufAllocator alloc, final List<Diff> diffs, final boolean compact) {
+        final ByteBuf buffer = alloc.buffer(textLength(diffs, compact) + diffs.size() * DIFF_OVERHEAD);
+        try {
+            final JsonGenerator generator = JSON_FACTORY.createGenerator(new ByteBufOutputStream(buffer),
+                    JsonEncoding.UTF8);
+            try {
+                JsonMapper.writeDiffs(diffs, generator, compact);
+            } finally {
+                generator.close();
+            }
+            return buffer;
+        } catch (final IOException e) {
+            buffer.release();
+            throw new RuntimeException("error trying to encode diffs " + diffs, e);
+        }
+    }
+
+    /**
+     * Returns the length of the text that is written for diffs, which in compact form is only that of the
+     * {@code ADD} diffs.
+     */
+    private static int textLength(final List<Diff> diffs, final boolean compact) {
+        int length = 0;
+        for (Diff diff : diffs) {
+            if (diff.text() != null && (!compact || diff.operation() == Diff.Operation.ADD)) {
+                length += diff.length();
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Estimates the size of the JSON of a patch message, so that the buffer rarely has to grow, which would
+     * copy it. The text of the diffs dominates, the estimate is exact for ASCII text that needs no escaping.
+     */
+    private static int estimatedSize(final PatchMessage patchMessage, final boolean compact) {
+        int size = MESSAGE_OVERHEAD;
+        for (Edit edit : patchMessage.edits()) {
+            if (edit == null) {
+                continue;
+            }
+            size += EDIT_OVERHEAD + textLength(edit.diffs(), compact) + edit.diffs().size() * DIFF_OVERHEAD;
+        }
+        return size;
+    }
+
+    /**
+     * Estimates the size of the envelope of a frame, which is the JSON of a patch message without the diffs that
+     * are appended as shared buffers. The envelope of an edit with shared diffs only holds its ids, versions and
+     * checksum.
+     */
+    private int envelopeSize(final PatchMessage patchMessage, final boolean compact) {
+        int size = MESSAGE_OVERHEAD;
+        for (Edit edit : patchMessage.edits()) {
+            if (edit == null) {
+                continue;
+            }
+            size += EDIT_OVERHEAD;
+            final int textLength = textLength(edit.diffs(), compact);
+            if (!isShared(textLength)) {
+                size += textLength + edit.diffs().size() * DIFF_OVERHEAD;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Identifies diffs by the identity of their elements and the form they are encoded in.
+     */
+    private static final class DiffsKey {
+
+        private final Diff[] diffs;
+        private final boolean compact;
+        private final int hash;
+
+        DiffsKey(final List<Diff> diffs, final boolean compact) {
+            this.diffs = diffs.toArray(new Diff[diffs.size()]);
+            this.compact = compact;
+            int h = compact ? 1231 : 1237;
+            for (Diff diff : this.diffs) {
+                h = 31 * h + System.identityHashCode(diff);
+            }
+            hash = h;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof DiffsKey)) {
+                return false;
+            }
+            final DiffsKey that = (DiffsKey) o;
+            if (that.compact != compact) {
+                return false;
+            }
+            final Diff[] other = that.diffs;
+            if (other.length != diffs.length) {
+                return false;
+            }
+            for (int i = 0; i < diffs.length; i++) {
+                if (other[i] != diffs[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * The stream the envelope of a frame is written to. Once shared diffs are appended the frame becomes a
+     * composite of the envelope parts and the shared diffs.
+     */
+    private static final class FrameOutput extends OutputStream {
+
+        private final ByteBufAllocator alloc;
+        private CompositeByteBuf composite;
+        private ByteBuf current;
+
+        FrameOutput(final ByteBufAllocator alloc, final int initialCapacity) {
+            this.alloc = alloc;
+            current = alloc.buffer(initialCapacity);
+        }
+
+        @Override
+        public void write(final int b) {
+            current.writeByte(b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            current.writeBytes(b, off, len);
+        }
+
+        void append(final ByteBuf shared) {
+            if (composite == null) {
+                composite = alloc.compositeBuffer(Integer.MAX_VALUE);
+            }
+            addComponent(current);
+            addComponent(shared);
+            current = alloc.buffer(EDIT_OVERHEAD);
+        }
+
+        ByteBuf finish() {
+            if (composite == null) {
+                return current;
+            }
+            addComponent(current);
+            current = null;
+            return composite;
+        }
+
+        void release() {
+            if (current != null) {
+                current.release();
+            }
+            if (composite != null) {
+                composite.release();
+            }
+        }
+
+        private void addComponent(final ByteBuf buffer) {
+            composite.addComponent(buffer);
+            composite.writerIndex(composite.writerIndex() + buffer.readableBytes());
+        }
+    }
+
+}
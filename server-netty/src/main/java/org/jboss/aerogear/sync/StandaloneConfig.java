@@ -5,6 +5,15 @@ public class StandaloneConfig {
     // Diffsync server properties
     private final String host;
     private final int port;
+    private final int engineThreads;
+    private final long notificationWindow;
+    private final int fanOutThreads;
+    private final int maxPendingEdits;
+    private final long evictionInterval;
+    private final long syncStateIdleTime;
+    private final long documentIdleTime;
+    private final int maxDocuments;
+    private final String passivationDirectory;
 
     // Google Cloud Messaging properties
     private final boolean gcmEnabled;
@@ -16,6 +25,15 @@ public class StandaloneConfig {
     private StandaloneConfig(final Builder builder) {
         host = builder.host;
         port = builder.port;
+        engineThreads = builder.engineThreads;
+        notificationWindow = builder.notificationWindow;
+        fanOutThreads = builder.fanOutThreads;
+        maxPendingEdits = builder.maxPendingEdits;
+        evictionInterval = builder.evictionInterval;
+        syncStateIdleTime = builder.syncStateIdleTime;
+        documentIdleTime = builder.documentIdleTime;
+        maxDocuments = builder.maxDocuments;
+        passivationDirectory = builder.passivationDirectory;
         gcmEnabled = builder.gcmEnabled;
         gcmHost = builder.gcmHost;
         gcmPort = builder.gcmPort;
@@ -31,6 +49,93 @@ public class StandaloneConfig {
         return port;
     }
 
+    /**
+     * The number of threads that run the sync engine. Zero means that the sync engine is run
+     * on the Netty I/O threads that received the messages.
+     *
+     * @return {@code int} the number of sync engine threads.
+     */
+    public int engineThreads() {
+        return engineThreads;
+    }
+
+    /**
+     * The default notification window of the documents, in milliseconds. Zero means that subscribers are
+     * notified of every patch immediately.
+     *
+     * @return {@code long} the notification window in milliseconds.
+     */
+    public long notificationWindow() {
+        return notificationWindow;
+    }
+
+    /**
+     * The number of threads that help notifying the subscribers of a document in parallel. Zero means that
+     * subscribers are notified one after another by the thread that processed the patch.
+     *
+     * @return {@code int} the number of fan-out threads.
+     */
+    public int fanOutThreads() {
+        return fanOutThreads;
+    }
+
+    /**
+     * The maximum number of unacknowledged edits that are queued for a client. Zero means that there is no limit.
+     *
+     * @return {@code int} the maximum number of pending edits per client.
+     */
+    public int maxPendingEdits() {
+        return maxPendingEdits;
+    }
+
+    /**
+     * The number of milliseconds between two runs of the eviction of idle sync states and documents. Zero means
+     * that nothing is evicted.
+     *
+     * @return {@code long} the eviction interval in milliseconds.
+     */
+    public long evictionInterval() {
+        return evictionInterval;
+    }
+
+    /**
+     * The number of milliseconds after which the sync state of a client that is no longer subscribed is evicted.
+     * Zero means that sync states are never evicted.
+     *
+     * @return {@code long} the sync state idle time in milliseconds.
+     */
+    public long syncStateIdleTime() {
+        return syncStateIdleTime;
+    }
+
+    /**
+     * The number of milliseconds after which a document without sync states is evicted. Zero means that documents
+     * are not evicted because they are idle.
+     *
+     * @return {@code long} the document idle time in milliseconds.
+     */
+    public long documentIdleTime() {
+        return documentIdleTime;
+    }
+
+    /**
+     * The maximum number of documents that are kept in memory. Zero means that there is no limit.
+     *
+     * @return {@code int} the maximum number of documents.
+     */
+    public int maxDocuments() {
+        return maxDocuments;
+    }
+
+    /**
+     * The directory that evicted documents are passivated to, {@code null} if evicted documents are dropped.
+     *
+     * @return {@code String} the passivation directory.
+     */
+    public String passivationDirectory() {
+        return passivationDirectory;
+    }
+
     public String gcmHost() {
         return gcmHost;
     }
@@ -55,6 +160,15 @@ public class StandaloneConfig {
     public String toString() {
         return "StandaloneConfig[host=" + host +
                 ", port=" + port +
+                ", engineThreads=" + engineThreads +
+                ", notificationWindow=" + notificationWindow +
+                ", fanOutThreads=" + fanOutThreads +
+                ", maxPendingEdits=" + maxPendingEdits +
+                ", evictionInterval=" + evictionInterval +
+                ", syncStateIdleTime=" + syncStateIdleTime +
+                ", documentIdleTime=" + documentIdleTime +
+                ", maxDocuments=" + maxDocuments +
+                ", passivationDirectory=" + passivationDirectory +
                 ", gcmEnabled=" + gcmEnabled +
                 ", gcmHost=" + gcmHost +
                 ", gcmPort=" + gcmPort +
@@ -69,6 +183,15 @@ public class StandaloneConfig {
     public static class Builder {
         private final String host;
         private int port;
+        private int engineThreads;
+        private long notificationWindow;
+        private int fanOutThreads;
+        private int maxPendingEdits;
+        private long evictionInterval;
+        private long syncStateIdleTime;
+        private long documentIdleTime;
+        private int maxDocuments;
+        private String passivationDirectory;
         private boolean gcmEnabled;
         private String gcmHost = "gcm.googleapis.com";
         private int gcmPort = 5235;
@@ -84,6 +207,75 @@ public class StandaloneConfig {
             return this;
         }
 
+        public Builder engineThreads(final int engineThreads) {
+            if (engineThreads < 0) {
+                throw new IllegalArgumentException("engineThreads must not be negative but was: " + engineThreads);
+            }
+            this.engineThreads = engineThreads;
+            return this;
+        }
+
+        public Builder notificationWindow(final long notificationWindow) {
+            if (notificationWindow < 0) {
+                throw new IllegalArgumentException("notificationWindow must not be negative but was: " + notificationWindow);
+            }
+            this.notificationWindow = notificationWindow;
+            return this;
+        }
+
+        public Builder fanOutThreads(final int fanOutThreads) {
+            if (fanOutThreads < 0) {
+                throw new IllegalArgumentException("fanOutThreads must not be negative but was: " + fanOutThreads);
+            }
+            this.fanOutThreads = fanOutThreads;
+            return this;
+        }
+
+        public Builder maxPendingEdits(final int maxPendingEdits) {
+            if (maxPendingEdits < 0) {
+                throw new IllegalArgumentException("maxPendingEdits must not be negative but was: " + maxPendingEdits);
+            }
+            this.maxPendingEdits = maxPendingEdits;
+            return this;
+        }
+
+        public Builder evictionInterval(final long evictionInterval) {
+            if (evictionInterval < 0) {
+                throw new IllegalArgumentException("evictionInterval must not be negative but was: " + evictionInterval);
+            }
+            this.evictionInterval = evictionInterval;
+            return this;
+        }
+
+        public Builder syncStateIdleTime(final long syncStateIdleTime) {
+            if (syncStateIdleTime < 0) {
+                throw new IllegalArgumentException("syncStateIdleTime must not be negative but was: " + syncStateIdleTime);
+            }
+            this.syncStateIdleTime = syncStateIdleTime;
+            return this;
+        }
+
+        public Builder documentIdleTime(final long documentIdleTime) {
+            if (documentIdleTime < 0) {
+                throw new IllegalArgumentException("documentIdleTime must not be negative but was: " + documentIdleTime);
+            }
+            this.documentIdleTime = documentIdleTime;
+            return this;
+        }
+
+        public Builder maxDocuments(final int maxDocuments) {
+            if (maxDocuments < 0) {
+                throw new IllegalArgumentException("maxDocuments must not be negative but was: " + maxDocuments);
+            }
+            this.maxDocuments = maxDocuments;
+            return this;
+        }
+
+        public Builder passivationDirectory(final String passivationDirectory) {
+            this.passivationDirectory = passivationDirectory;
+            return this;
+        }
+
         public Builder gcmEnabled() {
             gcmEnabled = true;
             return this;
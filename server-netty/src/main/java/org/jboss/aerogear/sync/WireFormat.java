@@ -0,0 +1,40 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync;
+
+/**
+ * The encodings that patch messages are sent to a client in, see {@link PatchMessageEncoder}.
+ */
+public enum WireFormat {
+
+    /**
+     * JSON text frames in which every diff has its text, the default.
+     */
+    JSON,
+
+    /**
+     * JSON text frames with compact diffs, for clients that asked for them, see
+     * {@link JsonMapper#toCompactJson(PatchMessage)}.
+     */
+    COMPACT_JSON,
+
+    /**
+     * Binary frames, for clients that selected the {@link BinaryMapper#SUBPROTOCOL} subprotocol.
+     */
+    BINARY
+
+}
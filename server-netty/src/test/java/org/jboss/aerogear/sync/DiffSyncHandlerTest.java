@@ -24,10 +24,12 @@ import org.jboss.aerogear.sync.Diff.Operation;
 import org.jboss.aerogear.sync.client.ClientInMemoryDataStore;
 import org.jboss.aerogear.sync.client.ClientSyncEngine;
 import org.jboss.aerogear.sync.client.DefaultClientSynchronizer;
+import org.jboss.aerogear.sync.server.AsyncServerSyncEngine;
 import org.jboss.aerogear.sync.server.DefaultServerSynchronizer;
 import org.jboss.aerogear.sync.server.ServerInMemoryDataStore;
 import org.jboss.aerogear.sync.server.ServerSyncEngine;
 import org.jboss.aerogear.sync.server.ServerSynchronizer;
+import org.jboss.aerogear.sync.server.StripedExecutor;
 import org.junit.Test;
 
 import java.util.ArrayList;
@@ -38,6 +40,7 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
@@ -122,9 +125,9 @@ public class DiffSyncHandlerTest {
 
     @Test
     public void addDocumentWithoutContent() {
-        final ServerInMemoryDataStore dataStore = new ServerInMemoryDataStore();
-        final EmbeddedChannel channel1 = embeddedChannel(dataStore);
-        final EmbeddedChannel channel2 = embeddedChannel(dataStore);
+        final ServerSyncEngine<String> syncEngine = syncEngine();
+        final EmbeddedChannel channel1 = embeddedChannel(syncEngine);
+        final EmbeddedChannel channel2 = embeddedChannel(syncEngine);
         final String docId = UUID.randomUUID().toString();
         final String client1Id = "client1";
         final String client2Id = "client2";
@@ -156,9 +159,9 @@ public class DiffSyncHandlerTest {
         final String client2Id = "client2";
         for (int i = 0 ; i < iterations; i++) {
             final String docId = UUID.randomUUID().toString();
-            final ServerInMemoryDataStore dataStore = new ServerInMemoryDataStore();
-            final EmbeddedChannel channel1 = embeddedChannel(dataStore);
-            final EmbeddedChannel channel2 = embeddedChannel(dataStore);
+            final ServerSyncEngine<String> syncEngine = syncEngine();
+            final EmbeddedChannel channel1 = embeddedChannel(syncEngine);
+            final EmbeddedChannel channel2 = embeddedChannel(syncEngine);
             executorService.submit(new AddDocumentTask(channel1, docId, "client1", content, await, latch));
             final Future<PatchMessage> future = executorService.submit(new AddDocumentTask(channel2, docId, client2Id, content, await, latch));
             futures.add(future);
@@ -188,9 +191,9 @@ public class DiffSyncHandlerTest {
         final String client2Id = "client2";
         for (int i = 0 ; i < iterations; i++) {
             final String docId = UUID.randomUUID().toString();
-            final ServerInMemoryDataStore dataStore = new ServerInMemoryDataStore();
-            final EmbeddedChannel channel1 = embeddedChannel(dataStore);
-            final EmbeddedChannel channel2 = embeddedChannel(dataStore);
+            final ServerSyncEngine<String> syncEngine = syncEngine();
+            final EmbeddedChannel channel1 = embeddedChannel(syncEngine);
+            final EmbeddedChannel channel2 = embeddedChannel(syncEngine);
             executorService.submit(new AddDocumentTask(channel1, docId, "client1", content, await, latch));
             final Future<PatchMessage> future = executorService.submit(new AddDocumentTask(channel2, docId, client2Id, null, await, latch));
             futures.add(future);
@@ -249,9 +252,9 @@ public class DiffSyncHandlerTest {
 
     @Test
     public void patch() {
-        final ServerInMemoryDataStore dataStore = new ServerInMemoryDataStore();
-        final EmbeddedChannel channel1 = embeddedChannel(dataStore);
-        final EmbeddedChannel channel2 = embeddedChannel(dataStore);
+        final ServerSyncEngine<String> syncEngine = syncEngine();
+        final EmbeddedChannel channel1 = embeddedChannel(syncEngine);
+        final EmbeddedChannel channel2 = embeddedChannel(syncEngine);
         final String docId = UUID.randomUUID().toString();
         final String originalContent = "{\"content\": \"Do or do not, there is no try.\"}";
         final String updatedContent = "{\"content\": \"Do or do not, there is no try!\"}";
@@ -289,12 +292,65 @@ public class DiffSyncHandlerTest {
         assertThat(edit.diffs().get(3).operation(), is(Operation.UNCHANGED));
     }
 
+    @Test
+    public void patchWithEngineExecutor() throws Exception {
+        final StripedExecutor executor = new StripedExecutor(2, "test-engine");
+        final ServerSyncEngine<String> syncEngine = syncEngine();
+        final EmbeddedChannel channel1 = embeddedChannel(syncEngine, executor);
+        final EmbeddedChannel channel2 = embeddedChannel(syncEngine, executor);
+        final String docId = UUID.randomUUID().toString();
+        final String originalContent = "Do or do not, there is no try.";
+        final String updatedContent = "Do or do not, there is no try!";
+        final String client1Id = "client1";
+        final String client2Id = "client2";
+
+        channel1.writeInbound(textFrame(addDocMessage(docId, client1Id, originalContent)));
+        channel2.writeInbound(textFrame(addDocMessage(docId, client2Id, originalContent)));
+        final PatchMessage clientEdit = generateClientSideEdits(docId, originalContent, client1Id, updatedContent);
+        channel1.writeInbound(textFrame(JsonMapper.toJson(clientEdit)));
+        awaitEngine(executor, docId);
+
+        final TextWebSocketFrame addResponse = channel1.readOutbound();
+        assertThat(fromJson(addResponse.text(), DefaultPatchMessage.class).clientId(), equalTo(client1Id));
+        assertThat(channel1.readOutbound(), is(nullValue()));
+
+        final TextWebSocketFrame addResponse2 = channel2.readOutbound();
+        assertThat(fromJson(addResponse2.text(), DefaultPatchMessage.class).clientId(), equalTo(client2Id));
+        final TextWebSocketFrame serverUpdate = channel2.readOutbound();
+        final PatchMessage serverUpdates = fromJson(serverUpdate.text(), DefaultPatchMessage.class);
+        assertThat(serverUpdates.clientId(), equalTo(client2Id));
+        final Edit edit = serverUpdates.edits().peek();
+        assertThat(edit.diffs().get(1).operation(), is(Operation.DELETE));
+        assertThat(edit.diffs().get(1).text(), equalTo("."));
+        assertThat(edit.diffs().get(2).operation(), is(Operation.ADD));
+        assertThat(edit.diffs().get(2).text(), equalTo("!"));
+        executor.shutdown();
+    }
+
+    @Test
+    public void closeRemovesSubscribers() {
+        final ServerSyncEngine<String> syncEngine = syncEngine();
+        final EmbeddedChannel channel1 = embeddedChannel(syncEngine);
+        final EmbeddedChannel channel2 = embeddedChannel(syncEngine);
+        final String docId = UUID.randomUUID().toString();
+        final String otherDocId = UUID.randomUUID().toString();
+        sendAddDocMsg(docId, "client1", "Do or do not", channel1);
+        sendAddDocMsg(docId, "client2", "Do or do not", channel2);
+        sendAddDocMsg(otherDocId, "client2", "there is no try", channel2);
+        assertThat(syncEngine.subscribers(docId).size(), is(2));
+
+        channel2.finish();
+        assertThat(syncEngine.subscribers(docId).size(), is(1));
+        assertThat(syncEngine.subscribers(docId).iterator().next().clientId(), equalTo("client1"));
+        assertThat(syncEngine.subscribers(otherDocId).isEmpty(), is(true));
+    }
+
     @Test
     public void patchJedi() {
         final ClientSyncEngine<String> clientSyncEngine = newClientSyncEngine();
-        final ServerInMemoryDataStore dataStore = new ServerInMemoryDataStore();
-        final EmbeddedChannel channel1 = embeddedChannel(dataStore);
-        final EmbeddedChannel channel2 = embeddedChannel(dataStore);
+        final ServerSyncEngine<String> syncEngine = syncEngine();
+        final EmbeddedChannel channel1 = embeddedChannel(syncEngine);
+        final EmbeddedChannel channel2 = embeddedChannel(syncEngine);
         final String docId = UUID.randomUUID().toString();
         final String client1Id = "client1";
         final String client2Id = "client2";
@@ -395,9 +451,9 @@ public class DiffSyncHandlerTest {
     @Test
     public void patchCompletReplacementOfContent() {
         final ClientSyncEngine<String> clientSyncEngine = newClientSyncEngine();
-        final ServerInMemoryDataStore dataStore = new ServerInMemoryDataStore();
-        final EmbeddedChannel channel1 = embeddedChannel(dataStore);
-        final EmbeddedChannel channel2 = embeddedChannel(dataStore);
+        final ServerSyncEngine<String> syncEngine = syncEngine();
+        final EmbeddedChannel channel1 = embeddedChannel(syncEngine);
+        final EmbeddedChannel channel2 = embeddedChannel(syncEngine);
         final String docId = UUID.randomUUID().toString();
         final String client1Id = "client1";
         final String client2Id = "client2";
@@ -495,6 +551,28 @@ public class DiffSyncHandlerTest {
         return fromJson(writeFrame(docMsg.toString(), ch), DefaultPatchMessage.class);
     }
 
+    private static String addDocMessage(final String docId, final String clientId, final String content) {
+        final ObjectNode docMsg = message("add");
+        docMsg.put("id", docId);
+        docMsg.put("clientId", clientId);
+        docMsg.put("content", content);
+        return docMsg.toString();
+    }
+
+    /**
+     * Waits until all the tasks that the handler has submitted for the document have been executed.
+     */
+    private static void awaitEngine(final StripedExecutor executor, final String docId) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        executor.execute(docId, new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        assertThat(latch.await(10, TimeUnit.SECONDS), is(true));
+    }
+
     private static ObjectNode message(final String type) {
         final ObjectNode jsonNode = JsonMapper.newObjectNode();
         jsonNode.put("msgType", type);
@@ -518,15 +596,23 @@ public class DiffSyncHandlerTest {
     }
 
     private static EmbeddedChannel embeddedChannel() {
-        return embeddedChannel(new ServerInMemoryDataStore());
+        return embeddedChannel(syncEngine());
     }
 
-    private static EmbeddedChannel embeddedChannel(final ServerInMemoryDataStore dataStore) {
-        final ServerSynchronizer<String> synchronizer = new DefaultServerSynchronizer();
-        final ServerSyncEngine<String> syncEngine = new ServerSyncEngine<String>(synchronizer, dataStore);
+    private static EmbeddedChannel embeddedChannel(final ServerSyncEngine<String> syncEngine) {
         return new EmbeddedChannel(new DiffSyncHandler(syncEngine));
     }
 
+    private static EmbeddedChannel embeddedChannel(final ServerSyncEngine<String> syncEngine,
+                                                   final StripedExecutor executor) {
+        return new EmbeddedChannel(new DiffSyncHandler(new AsyncServerSyncEngine<String>(syncEngine, executor)));
+    }
+
+    private static ServerSyncEngine<String> syncEngine() {
+        final ServerSynchronizer<String> synchronizer = new DefaultServerSynchronizer();
+        return new ServerSyncEngine<String>(synchronizer, new ServerInMemoryDataStore());
+    }
+
     private static PatchMessage generateClientSideEdits(final String documentId,
                                                  final String originalContent,
                                                  final String clientId,
@@ -4,12 +4,16 @@ import com.fasterxml.jackson.databind.JsonNode;
 import org.jboss.aerogear.sync.client.ClientInMemoryDataStore;
 import org.jboss.aerogear.sync.client.ClientSyncEngine;
 import org.jboss.aerogear.sync.client.DefaultClientSynchronizer;
+import org.jboss.aerogear.sync.server.MessageType;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.util.Iterator;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 
 public class JsonMapperTest {
@@ -154,6 +158,90 @@ public class JsonMapperTest {
         assertThat(elements.next().asText(), equalTo("two"));
     }
 
+    @Test
+    public void toJsonStream() throws Exception {
+        final PatchMessage patchMessage = generateClientSideEdits("1234", "version1", "client1", "version\u00e9");
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonMapper.toJson(patchMessage, out);
+        assertThat(out.toString("UTF-8"), equalTo(JsonMapper.toJson(patchMessage)));
+    }
+
+    @Test
+    public void readPatchMessage() {
+        final PatchMessage patchMessage = generateClientSideEdits("1234", "version1", "client1", "version2");
+        final SyncMessage message = JsonMapper.readMessage(JsonMapper.toJson(patchMessage));
+        assertThat(message.type(), is(MessageType.PATCH));
+        final PatchMessage decoded = message.patchMessage();
+        assertThat(decoded.documentId(), equalTo("1234"));
+        assertThat(decoded.clientId(), equalTo("client1"));
+        assertThat(decoded.edits().size(), is(1));
+        final Edit edit = decoded.edits().peek();
+        assertThat(edit.checksum(), equalTo(patchMessage.edits().peek().checksum()));
+        assertThat(edit.diffs().size(), is(3));
+        assertThat(edit.diffs().get(2).operation(), is(Diff.Operation.ADD));
+        assertThat(edit.diffs().get(2).text(), equalTo("2"));
+    }
+
+    @Test
+    public void readCompactPatchMessage() {
+        final PatchMessage patchMessage = generateClientSideEdits("1234", "version1", "client1", "version2");
+        final String json = JsonMapper.toCompactJson(patchMessage);
+        assertThat(json.contains("\"text\":\"version\""), is(false));
+        final SyncMessage message = JsonMapper.readMessage(json);
+        assertThat(message.compact(), is(true));
+        final Edit edit = message.patchMessage().edits().peek();
+        assertThat(edit.diffs().size(), is(3));
+        assertThat(edit.diffs().get(0).operation(), is(Diff.Operation.UNCHANGED));
+        assertThat(edit.diffs().get(0).text(), is(nullValue()));
+        assertThat(edit.diffs().get(0).length(), is(7));
+        assertThat(edit.diffs().get(1).operation(), is(Diff.Operation.DELETE));
+        assertThat(edit.diffs().get(1).length(), is(1));
+        assertThat(edit.diffs().get(2).operation(), is(Diff.Operation.ADD));
+        assertThat(edit.diffs().get(2).text(), equalTo("2"));
+    }
+
+    @Test
+    public void readPatchMessageWithIdsAfterEdits() {
+        final String json = "{\"edits\":[{\"clientVersion\":2,\"serverVersion\":1,\"checksum\":\"abc\",\"diffs\":"
+                + "[{\"operation\":\"UNCHANGED\",\"text\":\"Do or do not\"},null]},null],"
+                + "\"unknown\":{\"nested\":[1,2]},\"clientId\":\"client1\",\"id\":\"1234\",\"msgType\":\"patch\"}";
+        final SyncMessage message = JsonMapper.readMessage(json);
+        assertThat(message.type(), is(MessageType.PATCH));
+        final PatchMessage decoded = message.patchMessage();
+        assertThat(decoded.edits().size(), is(1));
+        final Edit edit = decoded.edits().peek();
+        assertThat(edit.documentId(), equalTo("1234"));
+        assertThat(edit.clientId(), equalTo("client1"));
+        assertThat(edit.clientVersion(), is(2L));
+        assertThat(edit.serverVersion(), is(1L));
+        assertThat(edit.checksum(), equalTo("abc"));
+        assertThat(edit.diffs().size(), is(1));
+        assertThat(edit.diffs().get(0).text(), equalTo("Do or do not"));
+    }
+
+    @Test
+    public void readAddMessageWithObjectContent() throws Exception {
+        final String json = "{\"msgType\":\"add\",\"id\":\"1234\",\"clientId\":\"client1\","
+                + "\"content\":{\"name\":\"Dr.Rosen\"}}";
+        final SyncMessage message = JsonMapper.readMessage(json.getBytes("UTF-8"), 0, json.length());
+        assertThat(message.type(), is(MessageType.ADD));
+        assertThat(message.clientId(), equalTo("client1"));
+        assertThat(message.document().id(), equalTo("1234"));
+        assertThat(message.document().content(), equalTo("{\"name\":\"Dr.Rosen\"}"));
+    }
+
+    @Test
+    public void readUnknownMessage() {
+        final SyncMessage message = JsonMapper.readMessage(new ByteArrayInputStream("{\"msgType\":\"bogus\"}".getBytes()));
+        assertThat(message.type(), is(MessageType.UNKNOWN));
+        assertThat(message.msgType(), equalTo("bogus"));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void readMessageThatIsNotAnObject() {
+        JsonMapper.readMessage("[\"msgType\", \"add\"]");
+    }
+
     private static PatchMessage generateClientSideEdits(final String documentId,
                                                        final String originalContent,
                                                        final String clientId,
@@ -0,0 +1,120 @@
+package org.jboss.aerogear.sync;
+
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.LinkedList;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PatchMessageEncoderTest {
+
+    private static final UnpooledByteBufAllocator ALLOC = UnpooledByteBufAllocator.DEFAULT;
+
+    @Test
+    public void encode() {
+        final PatchMessage patchMessage = patchMessage("client1", 0, edit("client1", 0, "Do or do not"));
+        final TextWebSocketFrame frame = new PatchMessageEncoder().encode(ALLOC, patchMessage);
+        assertThat(JsonMapper.asJsonNode(frame.text()), equalTo(JsonMapper.asJsonNode(JsonMapper.toJson(patchMessage))));
+        frame.release();
+    }
+
+    @Test
+    public void encodeSharedDiffs() {
+        final PatchMessageEncoder encoder = new PatchMessageEncoder(16, 0);
+        final Edit edit = edit("client1", 0, "Do or do not, there is no try.");
+        final PatchMessage first = patchMessage("client1", 0, edit);
+        final PatchMessage second = patchMessage("client2", 3, edit);
+        final TextWebSocketFrame firstFrame = encoder.encode(ALLOC, first);
+        final TextWebSocketFrame secondFrame = encoder.encode(ALLOC, second);
+        assertThat(secondFrame.content() instanceof CompositeByteBuf, is(true));
+        assertThat(JsonMapper.asJsonNode(firstFrame.text()), equalTo(JsonMapper.asJsonNode(JsonMapper.toJson(first))));
+        assertThat(JsonMapper.asJsonNode(secondFrame.text()), equalTo(JsonMapper.asJsonNode(JsonMapper.toJson(second))));
+        firstFrame.release();
+        encoder.release();
+        assertThat(JsonMapper.asJsonNode(secondFrame.text()), equalTo(JsonMapper.asJsonNode(JsonMapper.toJson(second))));
+        secondFrame.release();
+    }
+
+    @Test
+    public void envelopeOfSharedDiffsExcludesTheirText() {
+        final PatchMessageEncoder encoder = new PatchMessageEncoder(16, 1024);
+        final StringBuilder text = new StringBuilder();
+        while (text.length() < 8192) {
+            text.append("Do or do not, there is no try. ");
+        }
+        final TextWebSocketFrame frame = encoder.encode(ALLOC, patchMessage("client1", 0,
+                edit("client1", 0, text.toString())));
+        final CompositeByteBuf content = (CompositeByteBuf) frame.content();
+        assertThat(content.component(0).capacity() < 1024, is(true));
+        frame.release();
+        encoder.release();
+    }
+
+    @Test
+    public void encodeSmallDiffsUnshared() {
+        final PatchMessageEncoder encoder = new PatchMessageEncoder(16, 1024);
+        final Edit edit = edit("client1", 0, "Do or do not");
+        final TextWebSocketFrame frame = encoder.encode(ALLOC, patchMessage("client1", 0, edit));
+        assertThat(frame.content() instanceof CompositeByteBuf, is(false));
+        frame.release();
+    }
+
+    @Test
+    public void encodeCompact() {
+        final PatchMessageEncoder encoder = new PatchMessageEncoder(16, 0);
+        final Edit edit = edit("client1", 0, "Do or do not, there is no try.");
+        final PatchMessage patchMessage = patchMessage("client1", 0, edit);
+        final TextWebSocketFrame fullFrame = encoder.encode(ALLOC, patchMessage);
+        final TextWebSocketFrame compactFrame = encoder.encode(ALLOC, patchMessage, true);
+        assertThat(JsonMapper.asJsonNode(compactFrame.text()),
+                equalTo(JsonMapper.asJsonNode(JsonMapper.toCompactJson(patchMessage))));
+        assertThat(JsonMapper.readMessage(compactFrame.text()).compact(), is(true));
+        assertThat(JsonMapper.asJsonNode(fullFrame.text()), equalTo(JsonMapper.asJsonNode(JsonMapper.toJson(patchMessage))));
+        fullFrame.release();
+        compactFrame.release();
+        encoder.release();
+    }
+
+    @Test
+    public void encodeBinary() {
+        final PatchMessage patchMessage = patchMessage("client1", 2, edit("client1", 2, "Do or do not"));
+        final WebSocketFrame frame = new PatchMessageEncoder().encode(ALLOC, patchMessage, WireFormat.BINARY);
+        assertThat(frame instanceof BinaryWebSocketFrame, is(true));
+        final SyncMessage message = BinaryMapper.readMessage(new ByteBufInputStream(frame.content()));
+        final Edit edit = message.patchMessage().edits().peek();
+        assertThat(edit.clientId(), equalTo("client1"));
+        assertThat(edit.serverVersion(), is(2L));
+        assertThat(edit.diffs().get(0).length(), is(12));
+        assertThat(edit.diffs().get(1).text(), equalTo("!"));
+        frame.release();
+    }
+
+    private static PatchMessage patchMessage(final String clientId, final long serverVersion, final Edit edit) {
+        final Edit clientEdit = DefaultEdit.withDocumentId("1234")
+                .clientId(clientId)
+                .serverVersion(serverVersion)
+                .checksum(edit.checksum())
+                .diffs(edit.diffs())
+                .build();
+        return new DefaultPatchMessage("1234", clientId, new LinkedList<Edit>(Collections.singleton(clientEdit)));
+    }
+
+    private static Edit edit(final String clientId, final long serverVersion, final String text) {
+        return DefaultEdit.withDocumentId("1234")
+                .clientId(clientId)
+                .serverVersion(serverVersion)
+                .checksum("checksum")
+                .unchanged(text)
+                .add("!")
+                .build();
+    }
+}
@@ -16,17 +16,17 @@ import org.xmlpull.v1.XmlPullParser;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletionStage;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
 import com.fasterxml.jackson.databind.JsonNode;
-import org.jboss.aerogear.sync.server.MessageType;
+import org.jboss.aerogear.sync.server.AsyncServerSyncEngine;
 import org.jboss.aerogear.sync.server.ServerSyncEngine;
 import org.jivesoftware.smack.PacketListener;
 
 import static org.jboss.aerogear.sync.GcmMessages.createJsonMessage;
-import static org.jboss.aerogear.sync.JsonMapper.fromJson;
 import static org.jboss.aerogear.sync.JsonMapper.toJson;
 
 public class GcmDiffSyncHandler implements PacketListener {
@@ -35,7 +35,7 @@ public class GcmDiffSyncHandler implements PacketListener {
     private static final String GCM_ELEMENT_NAME = "gcm";
     private static final String GCM_NAMESPACE = "google:mobile:data";
     private XMPPConnection connection;
-    private final ServerSyncEngine<String> syncEngine;
+    private final AsyncServerSyncEngine<String> syncEngine;
 
     /**
      * Indicates whether the connection is in draining state, which means that
@@ -56,6 +56,17 @@ public class GcmDiffSyncHandler implements PacketListener {
     }
 
     public GcmDiffSyncHandler(final ServerSyncEngine<String> syncEngine, XMPPConnection connection) {
+        this(new AsyncServerSyncEngine<String>(syncEngine), connection);
+    }
+
+    /**
+     * Creates a handler that does not block the thread that delivers the packets while the sync engine
+     * processes a message. Responses are sent when the operations of the sync engine complete.
+     *
+     * @param syncEngine the sync engine to delegate to.
+     * @param connection the connection to the GCM Cloud Connection Server.
+     */
+    public GcmDiffSyncHandler(final AsyncServerSyncEngine<String> syncEngine, XMPPConnection connection) {
         this.connection = connection;
         this.syncEngine = syncEngine;
     }
@@ -164,24 +175,33 @@ public class GcmDiffSyncHandler implements PacketListener {
 
     protected void messageReceived(JsonNode json) throws Exception {
 
-        JsonNode syncMessage = JsonMapper.asJsonNode(json.get("data").get("message").asText());
+        final SyncMessage syncMessage = JsonMapper.readMessage(json.get("data").get("message").asText());
         logger.info("Doc:" + json);
         final String googleRegistrationId = json.get("from").asText();
-        final String diffsyncClientId = clientIdFromJson(syncMessage);
-        switch (MessageType.from(syncMessage.get("msgType").asText())) {
+        final String diffsyncClientId = syncMessage.clientId();
+        switch (syncMessage.type()) {
             case ADD:
-                final Document<String> doc = documentFromJson(syncMessage);
-                final PatchMessage patchMessage = addSubscriber(doc, diffsyncClientId, googleRegistrationId);
-                send(createJsonMessage(googleRegistrationId, "m-" + UUID.randomUUID(), toJson(patchMessage)));
+                final Document<String> doc = syncMessage.document();
+                addSubscriber(doc, diffsyncClientId, googleRegistrationId).whenComplete((patchMessage, e) -> {
+                    if (e != null) {
+                        logger.log(Level.SEVERE, "Failed to add document", e);
+                        return;
+                    }
+                    try {
+                        send(createJsonMessage(googleRegistrationId, "m-" + UUID.randomUUID(), toJson(patchMessage)));
+                    } catch (final SmackException.NotConnectedException ex) {
+                        logger.log(Level.SEVERE, "Failed to send patch message", ex);
+                    }
+                });
                 break;
             case PATCH:
-                final PatchMessage clientPatchMessage = fromJson(syncMessage.toString(), DefaultPatchMessage.class);
+                final PatchMessage clientPatchMessage = syncMessage.patchMessage();
                 checkForReconnect(clientPatchMessage.documentId(), googleRegistrationId, diffsyncClientId);
                 logger.log(Level.FINER, "Client Edits=" + clientPatchMessage);
                 patch(clientPatchMessage);
                 break;
             case DETACH:
-                // detach the client from a specific document.
+                detach(syncMessage.documentId(), diffsyncClientId, googleRegistrationId);
                 break;
             case UNKNOWN:
                 //unknownMessageType(ctx, json);
@@ -189,15 +209,27 @@ public class GcmDiffSyncHandler implements PacketListener {
         }
     }
 
-    private PatchMessage addSubscriber(final Document<String> document,
-                                       final String clientId,
-                                       final String googleRegistrationId) {
+    private CompletionStage<PatchMessage> addSubscriber(final Document<String> document,
+                                                        final String clientId,
+                                                        final String googleRegistrationId) {
         final GcmSubscriber gcmSubscriber = new GcmSubscriber(clientId, googleRegistrationId, connection);
         return syncEngine.addSubscriber(gcmSubscriber, document);
     }
 
     private void patch(final PatchMessage clientEdit) {
-        syncEngine.patchAndNotifySubscribers(clientEdit);
+        syncEngine.patchAndNotifySubscribers(clientEdit).whenComplete(GcmDiffSyncHandler::logFailure);
+    }
+
+    private void detach(final String documentId, final String clientId, final String googleRegistrationId) {
+        logger.log(Level.FINER, "Detaching client [" + clientId + "] from document [" + documentId + ']');
+        final GcmSubscriber gcmSubscriber = new GcmSubscriber(clientId, googleRegistrationId, connection);
+        syncEngine.detachSubscriber(gcmSubscriber, documentId).whenComplete(GcmDiffSyncHandler::logFailure);
+    }
+
+    private static void logFailure(final Object result, final Throwable e) {
+        if (e != null) {
+            logger.log(Level.SEVERE, "Failed to process sync message", e);
+        }
     }
 
     /**
@@ -208,34 +240,11 @@ public class GcmDiffSyncHandler implements PacketListener {
         connection.sendPacket(request);
     }
 
-    private static Document<String> documentFromJson(final JsonNode json) {
-        final JsonNode contentNode = json.get("content");
-        String content = null;
-        if (contentNode != null && !contentNode.isNull()) {
-            if (contentNode.isArray() || contentNode.isObject()) {
-                content = JsonMapper.toString(contentNode);
-            } else {
-                content = contentNode.asText();
-            }
-        }
-        return new DefaultDocument<String>(json.get("id").asText(), content);
-    }
-
     private void checkForReconnect(final String documentId, final String registrationId, final String clientId) {
         logger.info("Reconnected client [" + registrationId + "]. Adding as listener.");
         // the context was used to reconnect so we need to add client as a listener
         final GcmSubscriber gcmSubscriber = new GcmSubscriber(clientId, registrationId, connection);
-        syncEngine.addSubscriber(gcmSubscriber, documentId);
-    }
-
-    private static String clientIdFromJson(JsonNode syncMessage) {
-        final JsonNode clientId = syncMessage.get("clientId");
-        String content = null;
-        if (clientId != null && !clientId.isNull()) {
-            content = clientId.asText();
-
-        }
-        return content;
+        syncEngine.addSubscriber(gcmSubscriber, documentId).whenComplete(GcmDiffSyncHandler::logFailure);
     }
 
     /**
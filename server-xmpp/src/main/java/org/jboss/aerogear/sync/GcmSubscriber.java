@@ -67,12 +67,13 @@ public class GcmSubscriber implements Subscriber<XMPPConnection> {
         if (getClass() != obj.getClass()) {
             return false;
         }
-        @SuppressWarnings("unchecked")
-        final Subscriber<String> other = (Subscriber<String>) obj;
-        if (id == null ? other.clientId() != null : !id.equals(other.clientId())) {
+        final GcmSubscriber other = (GcmSubscriber) obj;
+        if (id == null ? other.id != null : !id.equals(other.id)) {
             return false;
         }
-        if (googleRegistrationId == null ? other.channel() != null : !googleRegistrationId.equals(other.channel())) {
+        if (googleRegistrationId == null
+                ? other.googleRegistrationId != null
+                : !googleRegistrationId.equals(other.googleRegistrationId)) {
             return false;
         }
         return true;
@@ -0,0 +1,82 @@
+package org.jboss.aerogear.sync;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.jboss.aerogear.sync.server.DefaultServerSynchronizer;
+import org.jboss.aerogear.sync.server.ServerInMemoryDataStore;
+import org.jboss.aerogear.sync.server.ServerSyncEngine;
+import org.jivesoftware.smack.XMPPConnection;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class GcmDiffSyncHandlerTest {
+
+    private static final ObjectMapper OM = new ObjectMapper();
+
+    private ServerInMemoryDataStore dataStore;
+    private ServerSyncEngine<String> syncEngine;
+    private XMPPConnection connection;
+    private GcmDiffSyncHandler handler;
+
+    @Before
+    public void setup() {
+        dataStore = new ServerInMemoryDataStore();
+        syncEngine = new ServerSyncEngine<String>(new DefaultServerSynchronizer(), dataStore);
+        connection = mock(XMPPConnection.class);
+        handler = new GcmDiffSyncHandler(syncEngine, connection);
+    }
+
+    @Test
+    public void subscriberEquality() {
+        final GcmSubscriber subscriber = new GcmSubscriber("client1", "registration1", connection);
+        assertThat(subscriber, equalTo(new GcmSubscriber("client1", "registration1", connection)));
+        assertThat(subscriber.hashCode(), is(new GcmSubscriber("client1", "registration1", connection).hashCode()));
+        assertThat(subscriber.equals(new GcmSubscriber("client1", "registration2", connection)), is(false));
+        assertThat(subscriber.equals(new GcmSubscriber("client2", "registration1", connection)), is(false));
+    }
+
+    @Test
+    public void detach() throws Exception {
+        final String documentId = "1234";
+        syncEngine.addSubscriber(new GcmSubscriber("client1", "registration1", connection),
+                new DefaultDocument<String>(documentId, "Mr. Babar"));
+        syncEngine.addSubscriber(new GcmSubscriber("client2", "registration2", connection),
+                new DefaultDocument<String>(documentId, "Mr. Babar"));
+
+        handler.messageReceived(upstream("registration1",
+                "{\"msgType\":\"detach\",\"id\":\"1234\",\"clientId\":\"client1\"}"));
+
+        assertThat(syncEngine.subscribers(documentId).size(), is(1));
+        assertThat(dataStore.getShadowDocument(documentId, "client1"), is(nullValue()));
+        assertThat(dataStore.getShadowDocument(documentId, "client2"), is(notNullValue()));
+    }
+
+    @Test
+    public void patchDoesNotAddSubscriberTwice() throws Exception {
+        final String documentId = "1234";
+        syncEngine.addSubscriber(new GcmSubscriber("client1", "registration1", connection),
+                new DefaultDocument<String>(documentId, "Mr. Babar"));
+
+        handler.messageReceived(upstream("registration1", "{\"msgType\":\"patch\",\"id\":\"1234\","
+                + "\"clientId\":\"client1\",\"edits\":[{\"clientVersion\":0,\"serverVersion\":0,"
+                + "\"checksum\":\"\",\"diffs\":[{\"operation\":\"UNCHANGED\",\"text\":\"Mr. Babar\"}]}]}"));
+
+        assertThat(syncEngine.subscribers(documentId).size(), is(1));
+    }
+
+    private static JsonNode upstream(final String registrationId, final String message) {
+        final ObjectNode json = OM.createObjectNode();
+        json.put("from", registrationId);
+        json.put("message_id", "m-1");
+        json.putObject("data").put("message", message);
+        return json;
+    }
+}